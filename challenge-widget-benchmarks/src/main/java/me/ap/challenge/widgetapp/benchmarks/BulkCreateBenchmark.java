@@ -0,0 +1,125 @@
+package me.ap.challenge.widgetapp.benchmarks;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.service.WidgetBatchResult;
+import me.ap.challenge.widgetapp.core.service.WidgetOperation;
+import me.ap.challenge.widgetapp.core.service.WidgetService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Latency of a batch of creates on top, {@link WidgetService#apply(List)}, in the JPA store, with and without JDBC
+ * batching.
+ * <p>
+ * The {@code executions} and {@code inserts} counters tell the round trips per insert to the database: every JDBC
+ * statement execution is one, a batch of inserts included. The ids are drawn from the sequence 50 at a time in both
+ * cases, so without batching each insert costs a round trip of its own, and with {@code batchSize} 50 the inserts of
+ * 50 Widgets share a single one. Other than the batch size, the persistence properties of the server apply.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkCreateBenchmark {
+    @Param({"100", "1000"})
+    int bulkSize;
+    @Param({"1", "50"})
+    int batchSize;
+
+    private final LongAdder executions = new LongAdder();
+    private ConfigurableApplicationContext context;
+    private WidgetService service;
+
+    /**
+     * The JDBC statement executions, and the Widgets created, in the iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RoundTrips {
+        public long executions;
+        public long inserts;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            executions = 0;
+            inserts = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BeanPostProcessor counting = new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof DataSource dataSource ? counting(dataSource) : bean;
+            }
+        };
+        context = WidgetAppBenchmarkConfiguration.start(
+                List.of(context -> context.getBeanFactory().addBeanPostProcessor(counting)),
+                "spring.jpa.properties.hibernate.jdbc.batch_size=" + batchSize);
+        service = context.getBean(WidgetService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * Wraps a data source to count the statement executions of its connections.
+     */
+    private DataSource counting(DataSource dataSource) {
+        return proxy(DataSource.class, dataSource, (method, result) -> result instanceof Connection connection
+                ? proxy(Connection.class, connection, (connectionMethod, statement) -> {
+                    if (statement instanceof Statement jdbcStatement) {
+                        return proxy(connectionMethod.getReturnType().asSubclass(Statement.class), jdbcStatement,
+                                (statementMethod, executed) -> {
+                                    if (statementMethod.getName().startsWith("execute")) {
+                                        executions.increment();
+                                    }
+                                    return executed;
+                                });
+                    }
+                    return statement;
+                })
+                : result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, T target, BiFunction<Method, Object, Object> wrapper) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            try {
+                return wrapper.apply(method, method.invoke(target, args));
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    @Benchmark
+    public WidgetBatchResult createBulk(RoundTrips roundTrips) {
+        var creates = IntStream.range(0, bulkSize)
+                .mapToObj(i -> new WidgetOperation.Create(Widget.builder().width(1).height(1).build()))
+                .toList();
+        long executed = executions.sum();
+        var result = service.apply(creates);
+        roundTrips.executions += executions.sum() - executed;
+        roundTrips.inserts += bulkSize;
+        return result;
+    }
+}
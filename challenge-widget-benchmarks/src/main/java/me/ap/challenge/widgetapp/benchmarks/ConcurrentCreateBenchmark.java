@@ -0,0 +1,52 @@
+package me.ap.challenge.widgetapp.benchmarks;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.service.WidgetService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of concurrent {@link WidgetService#create(Widget)}s.
+ * <p>
+ * The service does not serialize writers, so the throughput should grow with the threads: compare runs with
+ * different thread counts, e.g. {@code -t 1} and {@code -t 16}. Creating on top never conflicts, while creating on
+ * random {@code Z}s conflicts when the shifted runs overlap, and is then retried.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class ConcurrentCreateBenchmark {
+    private static final int Z_RANGE = 100_000;
+
+    private ConfigurableApplicationContext context;
+    private WidgetService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = WidgetAppBenchmarkConfiguration.start();
+        service = context.getBean(WidgetService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Widget createOnTop() {
+        return service.create(Widget.builder().width(1).height(1).build());
+    }
+
+    @Benchmark
+    public Widget createOnRandomZ() {
+        int z = ThreadLocalRandom.current().nextInt(Z_RANGE);
+        return service.create(Widget.builder().width(1).height(1).z(z).build());
+    }
+}
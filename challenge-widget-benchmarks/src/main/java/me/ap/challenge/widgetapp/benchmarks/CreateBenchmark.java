@@ -0,0 +1,55 @@
+package me.ap.challenge.widgetapp.benchmarks;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.service.WidgetService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link WidgetService#create(Widget)} as the board grows.
+ * <p>
+ * The board is populated as the service would do with Widgets created on top, i.e. every {@link #Z_GAP}.
+ * Creating on top is a pure insert, and creating on an already taken {@code Z} only shifts the run of Widgets up to
+ * the next gap, so both latencies should stay flat across board sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CreateBenchmark {
+    static final int Z_GAP = 10;
+
+    @Param({"1000", "10000", "100000"})
+    int boardSize;
+
+    private ConfigurableApplicationContext context;
+    private WidgetService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = WidgetAppBenchmarkConfiguration.start("widgetapp.z.gap=" + Z_GAP);
+        service = context.getBean(WidgetService.class);
+        WidgetAppBenchmarkConfiguration.populate(context, boardSize, Z_GAP);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Widget createOnTop() {
+        return service.create(Widget.builder().width(1).height(1).build());
+    }
+
+    @Benchmark
+    public Widget createOnTakenZ() {
+        int z = Z_GAP * ThreadLocalRandom.current().nextInt(1, boardSize + 1);
+        return service.create(Widget.builder().width(1).height(1).z(z).build());
+    }
+}
@@ -0,0 +1,54 @@
+package me.ap.challenge.widgetapp.benchmarks;
+
+import me.ap.challenge.widgetapp.core.repo.FileWidgetRepo;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to open a {@link FileWidgetRepo}, i.e. to load its latest snapshot and to replay the log after it.
+ * <p>
+ * The snapshot holds {@code storeSize} Widgets, and the log updates a tenth of them: loading the mapped snapshot
+ * should take most of the time, growing linearly with the store. The heap is sized upfront, so that growing it does
+ * not weigh on the loading.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class FileStoreStartupBenchmark {
+    @Param({"100000", "1000000"})
+    int storeSize;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("widgets");
+        try (var repo = new FileWidgetRepo(directory, false, Long.MAX_VALUE)) {
+            var ids = FileStoreWriteBenchmark.populate(repo, storeSize);
+            repo.snapshot();
+            for (int i = 0; i < storeSize / 10; i++) {
+                var widget = repo.findById(ids.get(i)).orElseThrow();
+                repo.save(widget.x(widget.x() + 1));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileStoreWriteBenchmark.delete(directory);
+    }
+
+    @Benchmark
+    public long open() {
+        try (var repo = new FileWidgetRepo(directory, true, Long.MAX_VALUE)) {
+            return repo.count();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package me.ap.challenge.widgetapp.benchmarks;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.repo.FileWidgetRepo;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of concurrent creates in a {@link FileWidgetRepo} holding a million Widgets, every create waiting for its
+ * record to be durable.
+ * <p>
+ * Concurrent writers share their {@code fsync}s, so the throughput should grow with the threads: compare runs with
+ * different thread counts, e.g. {@code -t 1} and {@code -t 16}, and with {@code fsync} off, which bounds it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Threads(16)
+public class FileStoreWriteBenchmark {
+    private static final int STORE_SIZE = 1_000_000;
+    private static final int POPULATE_CHUNK = 1_000;
+
+    @Param({"true", "false"})
+    boolean fsync;
+
+    private Path directory;
+    private FileWidgetRepo repo;
+    private final AtomicInteger topZ = new AtomicInteger();
+
+    /**
+     * Stores Widgets on {@code z} from 1 up, a chunk at a time.
+     *
+     * @return the ids of the stored Widgets
+     */
+    static List<Long> populate(FileWidgetRepo repo, int size) {
+        var ids = new ArrayList<Long>(size);
+        var chunk = new ArrayList<Widget>(POPULATE_CHUNK);
+        for (int z = 1; z <= size; z++) {
+            chunk.add(Widget.builder().width(1).height(1).z(z).x(0).y(0).build());
+            if (chunk.size() == POPULATE_CHUNK || z == size) {
+                repo.saveAll(chunk).forEach(widget -> ids.add(widget.id()));
+                chunk.clear();
+            }
+        }
+        return ids;
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("widgets");
+        repo = new FileWidgetRepo(directory, fsync, 100_000);
+        populate(repo, STORE_SIZE);
+        topZ.set(STORE_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repo.close();
+        delete(directory);
+    }
+
+    @Benchmark
+    public Widget create() {
+        return repo.save(Widget.builder().width(1).height(1).z(topZ.incrementAndGet()).x(0).y(0).build());
+    }
+}
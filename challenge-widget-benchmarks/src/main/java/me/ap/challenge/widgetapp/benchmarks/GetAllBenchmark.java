@@ -0,0 +1,43 @@
+package me.ap.challenge.widgetapp.benchmarks;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.service.WidgetService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link WidgetService#getAll()} as the board grows, i.e. of loading the whole board.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class GetAllBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int boardSize;
+
+    private ConfigurableApplicationContext context;
+    private WidgetService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = WidgetAppBenchmarkConfiguration.start();
+        service = context.getBean(WidgetService.class);
+        WidgetAppBenchmarkConfiguration.populate(context, boardSize, 10);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Collection<Widget> getAll() {
+        return service.getAll();
+    }
+}
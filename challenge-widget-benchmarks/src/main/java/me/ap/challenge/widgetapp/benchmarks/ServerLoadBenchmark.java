@@ -0,0 +1,102 @@
+package me.ap.challenge.widgetapp.benchmarks;
+
+import me.ap.challenge.widgetapp.server.ApiPaths;
+import me.ap.challenge.widgetapp.server.WidgetAppServer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency percentiles of the web API under {@value #CLIENTS} concurrent clients, with the requests
+ * executed on platform threads, i.e. the Tomcat pool, or on virtual threads.
+ * <p>
+ * Every request blocks on the storage layer: with platform threads the clients queue for the Tomcat pool, with virtual
+ * threads for the connection pool. The clients run in the same JVM as the server, so absolute figures are pessimistic:
+ * compare the two modes, e.g. with {@code -p virtualThreads=false,true}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Threads(ServerLoadBenchmark.CLIENTS)
+public class ServerLoadBenchmark {
+    static final int CLIENTS = 1024;
+    private static final int BOARD_SIZE = 10_000;
+    private static final int Z_GAP = 10;
+    private static final String WIDGET_JSON = "{\"width\":1,\"height\":1}";
+
+    @Param({"false", "true"})
+    boolean virtualThreads;
+
+    private ConfigurableApplicationContext context;
+    private ExecutorService clientExecutor;
+    private HttpClient client;
+    private String widgetUrl;
+    private List<Long> ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(WidgetAppServer.class)
+                .logStartupInfo(false)
+                .properties(
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=warn",
+                        "logging.level.org.springframework.web=warn",
+                        "logging.level.me.ap=warn",
+                        "server.port=0",
+                        "widgetapp.z.gap=" + Z_GAP,
+                        "spring.threads.virtual.enabled=" + virtualThreads)
+                .run();
+        ids = WidgetAppBenchmarkConfiguration.populate(context, BOARD_SIZE, Z_GAP);
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        widgetUrl = "http://localhost:" + port + ApiPaths.PATH_WIDGET;
+        clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clientExecutor)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        clientExecutor.close();
+        context.close();
+    }
+
+    private int send(HttpRequest request) throws IOException, InterruptedException {
+        int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        if (status >= 300) {
+            throw new IllegalStateException("Request " + request + " failed with status " + status);
+        }
+        return status;
+    }
+
+    @Benchmark
+    public int getById() throws IOException, InterruptedException {
+        long id = ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+        return send(HttpRequest.newBuilder(URI.create(widgetUrl + id)).GET().build());
+    }
+
+    @Benchmark
+    public int createOnTop() throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(widgetUrl))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(WIDGET_JSON))
+                .build());
+    }
+}
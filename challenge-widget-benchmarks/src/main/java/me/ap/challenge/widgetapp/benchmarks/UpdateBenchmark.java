@@ -0,0 +1,53 @@
+package me.ap.challenge.widgetapp.benchmarks;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.service.WidgetService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link WidgetService#update(Widget, Widget)} moving a Widget to another {@code Z}, as the board grows.
+ * <p>
+ * A Widget moves in place within the {@code Z} order, so the latency should depend on the run of Widgets around the
+ * target {@code Z}, and not on the board size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateBenchmark {
+    private static final int Z_GAP = 10;
+
+    @Param({"1000", "100000"})
+    int boardSize;
+
+    private ConfigurableApplicationContext context;
+    private WidgetService service;
+    private List<Long> ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = WidgetAppBenchmarkConfiguration.start("widgetapp.z.gap=" + Z_GAP);
+        service = context.getBean(WidgetService.class);
+        ids = WidgetAppBenchmarkConfiguration.populate(context, boardSize, Z_GAP);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Widget moveToTakenZ() {
+        var random = ThreadLocalRandom.current();
+        var original = Widget.builder().id(ids.get(random.nextInt(ids.size()))).build();
+        int z = Z_GAP * random.nextInt(1, boardSize + 1);
+        return service.update(original, original.toBuilder().width(1).height(1).z(z).build());
+    }
+}
@@ -0,0 +1,76 @@
+package me.ap.challenge.widgetapp.benchmarks;
+
+import me.ap.challenge.widgetapp.core.WidgetAppCoreConfiguration;
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.repo.WidgetRepo;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spring configuration booting the core module, with its default persistence, for benchmarks.
+ */
+@SpringBootApplication(scanBasePackageClasses = WidgetAppCoreConfiguration.class)
+@EnableJpaRepositories(basePackageClasses = WidgetAppCoreConfiguration.class)
+@EntityScan(basePackageClasses = WidgetAppCoreConfiguration.class)
+public class WidgetAppBenchmarkConfiguration {
+    private static final int POPULATE_CHUNK = 1_000;
+
+    /**
+     * Starts a quiet, non-web context.
+     *
+     * @param properties additional properties in {@code key=value} form, overriding the ones of the server's
+     *                   {@code application.properties}, which is on the classpath
+     * @return the started context, to be closed by the caller
+     */
+    public static ConfigurableApplicationContext start(String... properties) {
+        return start(List.of(), properties);
+    }
+
+    /**
+     * Starts a quiet, non-web context, after the given initializers, e.g. registering bean post-processors.
+     *
+     * @param initializers the initializers to apply before the context is refreshed
+     * @param properties   additional properties in {@code key=value} form, as for {@link #start(String...)}
+     * @return the started context, to be closed by the caller
+     */
+    public static ConfigurableApplicationContext start(
+            List<ApplicationContextInitializer<ConfigurableApplicationContext>> initializers, String... properties) {
+        return new SpringApplicationBuilder(WidgetAppBenchmarkConfiguration.class)
+                .initializers(initializers.toArray(ApplicationContextInitializer[]::new))
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties("spring.main.banner-mode=off", "logging.level.root=warn")
+                .run(Arrays.stream(properties).map(property -> "--" + property).toArray(String[]::new));
+    }
+
+    /**
+     * Populates the board as the service would do with Widgets created on top, i.e. every {@code zGap}.
+     *
+     * @param context   the started context
+     * @param boardSize the number of Widgets to store
+     * @param zGap      the distance between the stored Widgets
+     * @return the ids of the stored Widgets
+     */
+    public static List<Long> populate(ConfigurableApplicationContext context, int boardSize, int zGap) {
+        var repo = context.getBean(WidgetRepo.class);
+        var ids = new ArrayList<Long>(boardSize);
+        var chunk = new ArrayList<Widget>(POPULATE_CHUNK);
+        for (int i = 1; i <= boardSize; i++) {
+            chunk.add(Widget.builder().width(1).height(1).z(i * zGap).x(0).y(0).build());
+            if (chunk.size() == POPULATE_CHUNK || i == boardSize) {
+                repo.saveAll(chunk).forEach(widget -> ids.add(widget.id()));
+                chunk.clear();
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,62 @@
+package me.ap.challenge.widgetapp.benchmarks;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.service.WidgetOperation;
+import me.ap.challenge.widgetapp.core.service.WidgetService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of concurrent single {@link WidgetService#submit(WidgetOperation)}s, applied one at a time when
+ * {@code maxBatch} is 0, or grouped into batches of up to {@code maxBatch} otherwise, waiting up to {@code linger}
+ * for one another.
+ * <p>
+ * Compare with {@link ConcurrentCreateBenchmark}: a batch commits once for all its Widgets, and creates on random
+ * {@code Z}s no longer conflict with one another, as the batch shifts them in order. With as many threads as
+ * {@code -t}, a batch never holds more operations than threads: lingering then only delays it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class WritePipelineBenchmark {
+    private static final int Z_RANGE = 100_000;
+
+    @Param({"0", "64"})
+    private int maxBatch;
+    @Param({"0ms", "1ms"})
+    private String linger;
+
+    private ConfigurableApplicationContext context;
+    private WidgetService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = WidgetAppBenchmarkConfiguration.start(
+                "widgetapp.write.pipeline.max-batch=" + maxBatch,
+                "widgetapp.write.pipeline.linger=" + linger);
+        service = context.getBean(WidgetService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Widget createOnTop() {
+        return service.submit(new WidgetOperation.Create(Widget.builder().width(1).height(1).build())).join();
+    }
+
+    @Benchmark
+    public Widget createOnRandomZ() {
+        int z = ThreadLocalRandom.current().nextInt(Z_RANGE);
+        return service.submit(new WidgetOperation.Create(Widget.builder().width(1).height(1).z(z).build())).join();
+    }
+}
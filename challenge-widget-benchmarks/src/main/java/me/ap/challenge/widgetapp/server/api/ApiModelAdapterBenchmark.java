@@ -0,0 +1,101 @@
+package me.ap.challenge.widgetapp.server.api;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.server.WidgetAppServerWebConfiguration;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetDto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Cost of the web layer per Widget: mapping between the model and the DTOs by {@link ApiModelAdapter}, and JSON
+ * serialization of the DTOs with the application {@link ObjectMapper}, alone and as a page of {@link #PAGE} Widgets.
+ * <p>
+ * The listings serialize the Widgets of the model directly, see {@link WidgetSerializers}: {@code serializeModelPage}
+ * measures them against mapping to DTOs then serializing those by reflection, as Jackson does without the serializers,
+ * in {@code mapAndSerializePageReflectively}.
+ * <p>
+ * Lives in the adapter package to reach its package private mappings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ApiModelAdapterBenchmark {
+    private static final int PAGE = 1_000;
+
+    private final ApiModelAdapter adapter = new ApiModelAdapter(null);
+    private final ObjectMapper objectMapper = new WidgetAppServerWebConfiguration().customizeObjectMapper().build();
+    private final ObjectMapper reflectiveMapper = new Jackson2ObjectMapperBuilder()
+            .visibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+            .serializationInclusion(JsonInclude.Include.NON_NULL)
+            .build();
+    private Widget widget;
+    private WidgetDto widgetDto;
+    private List<Widget> page;
+    private List<WidgetDto> pageDto;
+
+    @Setup
+    public void setUp() {
+        widget = Widget.builder().id(1L).width(20).height(10).z(1_000).x(-50).y(70).build();
+        widgetDto = adapter.toDto(widget);
+        page = IntStream.range(0, PAGE)
+                .mapToObj(i -> widget.toBuilder().id((long) i).z(i * 10).build())
+                .toList();
+        pageDto = page.stream().map(adapter::toDto).toList();
+    }
+
+    @Benchmark
+    public WidgetDto toDto() {
+        return adapter.toDto(widget);
+    }
+
+    @Benchmark
+    public Widget toModel() {
+        return adapter.toModel(widgetDto);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(widgetDto);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] mapAndSerializePage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page.stream().map(adapter::toDto).toList());
+    }
+
+    @Benchmark
+    public byte[] serializeReflectively() throws JsonProcessingException {
+        return reflectiveMapper.writeValueAsBytes(widgetDto);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] serializePage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(pageDto);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] serializeModelPage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] mapAndSerializePageReflectively() throws JsonProcessingException {
+        return reflectiveMapper.writeValueAsBytes(page.stream().map(adapter::toDto).toList());
+    }
+}
@@ -1,14 +1,15 @@
 package me.ap.challenge.widgetapp.core.model;
 
-import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
-import jakarta.persistence.Id;
+import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
 import lombok.*;
 import lombok.experimental.Accessors;
 
 @Entity
+@Table(indexes = {
+        @Index(name = Widget.Z_INDEX, columnList = "board, z", unique = true),
+        @Index(name = "widget_board_z_desc", columnList = "board, z desc"),
+        @Index(name = "widget_board_revision", columnList = "board, revision")})
 @Accessors(fluent = true)
 @Getter
 @Setter
@@ -18,6 +19,15 @@ import lombok.experimental.Accessors;
 @ToString
 @EqualsAndHashCode
 public class Widget {
+    /**
+     * The board of the Widgets not placed on any other.
+     */
+    public static final long DEFAULT_BOARD = 0;
+    /**
+     * The unique index of the {@code z}s of a board.
+     */
+    public static final String Z_INDEX = "widget_board_z";
+
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE)
     Long id;
@@ -27,4 +37,41 @@ public class Widget {
     Integer height;
     @NotNull
     Integer z;
+    @NotNull
+    Integer x;
+    @NotNull
+    Integer y;
+    /**
+     * The board revision of the last modification writing this Widget, shifts included: bookkeeping of the storage
+     * layer, not part of the Widget state.
+     */
+    @EqualsAndHashCode.Exclude
+    Long revision;
+    /**
+     * The version of this Widget, increased by every write, shifts included, to detect concurrent modifications.
+     */
+    @Version
+    @EqualsAndHashCode.Exclude
+    Long version;
+    /**
+     * The board this Widget is placed on: every board has a {@code Z} space of its own.
+     */
+    @NotNull
+    @Builder.Default
+    Long board = DEFAULT_BOARD;
+
+    /**
+     * Checks if this Widget rectangle, extending {@code width} and {@code height} from its position, intersects the
+     * given one. Rectangles only touching on their borders intersect.
+     *
+     * @param x1 the left border of the rectangle
+     * @param y1 the bottom border of the rectangle
+     * @param x2 the right border of the rectangle
+     * @param y2 the top border of the rectangle
+     * @return true if the rectangles have any point in common
+     */
+    public boolean intersects(int x1, int y1, int x2, int y2) {
+        return x <= x2 && (long) x + width >= x1
+                && y <= y2 && (long) y + height >= y1;
+    }
 }
@@ -0,0 +1,334 @@
+package me.ap.challenge.widgetapp.core.repo;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * An {@link InMemoryWidgetRepo} surviving restarts, by logging its writes to files.
+ * <p>
+ * Every write is applied in memory, then appended to a {@link WidgetLog} as a record: the stored state of a saved
+ * Widget, the id of a deleted one, the range of a shift. A write returns once its record is durable, the concurrent
+ * ones sharing a single {@code fsync}; a concurrent reader may observe it a little earlier.
+ * <p>
+ * Once the log holds {@code snapshotEvery} records, a {@link WidgetSnapshot} of all the Widgets is written in the
+ * background, and a new log started: the files of a generation are the snapshot of the state it starts from, and the
+ * log of the writes after it. On opening, the latest snapshot is loaded and the logs after it replayed; the files of
+ * older generations are deleted once a newer snapshot is written, and the snapshots left incomplete by a crash on
+ * opening. A snapshot failing in the background is logged and counted, see {@link #snapshotFailures()}, and the store
+ * keeps the files of the previous generations.
+ * <p>
+ * As the in-memory store, writes do not take part in transactions: a write made of several ones, as a create shifting
+ * others, is not atomic across a crash.
+ */
+public class FileWidgetRepo extends InMemoryWidgetRepo implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileWidgetRepo.class);
+    private static final Pattern FILE = Pattern.compile("widgets-(\\d+)\\.(log|snapshot)");
+    // a snapshot being written, left behind by a crash
+    private static final Pattern TEMPORARY = Pattern.compile("widgets-\\d+\\.snapshot\\.tmp");
+    private static final String LOG = "log";
+    private static final String SNAPSHOT = "snapshot";
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte SHIFT = 3;
+    private static final byte SHIFT_IDS = 4;
+    private static final byte CLEAR = 5;
+
+    private final Path directory;
+    private final boolean fsync;
+    private final long snapshotEvery;
+    // serializes the writes with the order of their records
+    private final Lock lock = new ReentrantLock();
+    // held while a snapshot is written
+    private final Lock snapshotLock = new ReentrantLock();
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    private final AtomicLong snapshotFailures = new AtomicLong();
+    private volatile WidgetLog log;
+    private long generation;
+    private boolean closed;
+
+    /**
+     * Opens the store in the given directory, loading the Widgets stored there.
+     *
+     * @param directory     the directory of the files, created if missing
+     * @param fsync         whether a write waits for its record to be forced to disk, rather than only written to the
+     *                      file system, which survives a crash of the process but not of the machine
+     * @param snapshotEvery the number of records to log before writing a snapshot
+     * @throws UncheckedIOException  if the files cannot be read
+     * @throws IllegalStateException if a snapshot is corrupted
+     */
+    public FileWidgetRepo(Path directory, boolean fsync, long snapshotEvery) {
+        if (snapshotEvery < 1) {
+            throw new IllegalArgumentException("The records between snapshots must be positive, were " + snapshotEvery);
+        }
+
+        this.directory = directory;
+        this.fsync = fsync;
+        this.snapshotEvery = snapshotEvery;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the Widget store in " + directory, e);
+        }
+
+        deleteTemporaries();
+        var snapshots = generations(SNAPSHOT);
+        if (!snapshots.isEmpty()) {
+            generation = snapshots.last();
+            restoreLastId(WidgetSnapshot.load(file(generation, SNAPSHOT), this::restore));
+        }
+        for (long logged : generations(LOG).tailSet(generation)) {
+            if (log != null) {
+                log.close();
+            }
+            generation = logged;
+            log = WidgetLog.open(file(generation, LOG), fsync, this::replay);
+        }
+        if (log == null) {
+            log = WidgetLog.open(file(generation, LOG), fsync, this::replay);
+        }
+        snapshotIfDue();
+    }
+
+    private Path file(long generation, String type) {
+        return directory.resolve("widgets-" + generation + "." + type);
+    }
+
+    private void deleteTemporaries() {
+        try (var files = Files.list(directory)) {
+            var temporaries = files.filter(file -> TEMPORARY.matcher(file.getFileName().toString()).matches())
+                    .toList();
+            for (var temporary : temporaries) {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot clean the Widget store in " + directory, e);
+        }
+    }
+
+    private TreeSet<Long> generations(String type) {
+        try (var files = Files.list(directory)) {
+            var generations = new TreeSet<Long>();
+            files.map(file -> FILE.matcher(file.getFileName().toString()))
+                    .filter(matcher -> matcher.matches() && matcher.group(2).equals(type))
+                    .forEach(matcher -> generations.add(Long.parseLong(matcher.group(1))));
+            return generations;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list the Widget store in " + directory, e);
+        }
+    }
+
+    private void replay(ByteBuffer record) {
+        switch (record.get()) {
+            case PUT -> restore(WidgetSnapshot.read(record));
+            case DELETE -> super.deleteById(record.getLong());
+            case SHIFT -> super.shiftZ(record.getLong(), record.getInt(), record.getInt(), record.getInt(),
+                    record.getLong());
+            case SHIFT_IDS -> {
+                int by = record.getInt();
+                var ids = new ArrayList<Long>(record.getInt());
+                while (record.hasRemaining()) {
+                    ids.add(record.getLong());
+                }
+                super.shiftZById(ids, by);
+            }
+            case CLEAR -> super.deleteAll();
+            default -> throw new IllegalStateException("Unknown record in the Widget log");
+        }
+    }
+
+    /**
+     * Applies a write and appends its record, then waits for the record to be durable.
+     *
+     * @param write  the write
+     * @param size   the size of the record
+     * @param record writes the record of the write, given its result
+     * @return the result of the write
+     */
+    private <T> T write(Supplier<T> write, int size, BiConsumer<T, ByteBuffer> record) {
+        WidgetLog logged;
+        long position;
+        T result;
+        lock.lock();
+        try {
+            result = write.get();
+            logged = log;
+            position = logged.append(size, buffer -> record.accept(result, buffer));
+        } finally {
+            lock.unlock();
+        }
+
+        logged.sync(position);
+        snapshotIfDue();
+        return result;
+    }
+
+    @Override
+    public <S extends Widget> S save(S widget) {
+        return write(() -> super.save(widget), 1 + WidgetSnapshot.WIDGET_SIZE,
+                (saved, record) -> WidgetSnapshot.write(record.put(PUT), saved));
+    }
+
+    /**
+     * Stores the given {@link Widget}s one by one, as {@link #save(Widget)}, waiting once for all their records.
+     */
+    @Override
+    public <S extends Widget> Iterable<S> saveAll(Iterable<S> widgets) {
+        var saved = new ArrayList<S>();
+        WidgetLog logged = null;
+        long position = 0;
+        lock.lock();
+        try {
+            for (var widget : widgets) {
+                var stored = super.save(widget);
+                logged = log;
+                position = logged.append(1 + WidgetSnapshot.WIDGET_SIZE,
+                        record -> WidgetSnapshot.write(record.put(PUT), stored));
+                saved.add(stored);
+            }
+        } finally {
+            lock.unlock();
+            // the ones saved before a failure are stored too
+            if (logged != null) {
+                logged.sync(position);
+            }
+        }
+
+        snapshotIfDue();
+        return saved;
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        write(() -> {
+            super.deleteById(id);
+            return id;
+        }, 1 + Long.BYTES, (deleted, record) -> record.put(DELETE).putLong(deleted));
+    }
+
+    @Override
+    public int shiftZ(Long board, Integer from, Integer to, Integer by, Long revision) {
+        return write(() -> super.shiftZ(board, from, to, by, revision), 1 + Long.BYTES * 2 + Integer.BYTES * 3,
+                (shifted, record) -> record.put(SHIFT).putLong(board).putInt(from).putInt(to).putInt(by)
+                        .putLong(revision));
+    }
+
+    @Override
+    public int shiftZById(Collection<Long> ids, Integer by) {
+        var shifting = List.copyOf(ids);
+        return write(() -> super.shiftZById(shifting, by), 1 + Integer.BYTES * 2 + Long.BYTES * shifting.size(),
+                (shifted, record) -> {
+                    record.put(SHIFT_IDS).putInt(by).putInt(shifting.size());
+                    shifting.forEach(record::putLong);
+                });
+    }
+
+    @Override
+    public void deleteAll() {
+        write(() -> {
+            super.deleteAll();
+            return null;
+        }, 1, (cleared, record) -> record.put(CLEAR));
+    }
+
+    private void snapshotIfDue() {
+        if (log.records() >= snapshotEvery && snapshotScheduled.compareAndSet(false, true)) {
+            Thread.ofPlatform().name("widget-snapshot").daemon().start(() -> {
+                try {
+                    snapshot();
+                } catch (RuntimeException e) {
+                    snapshotFailures.incrementAndGet();
+                    LOGGER.warn("Cannot write the snapshot of the Widget store in {}", directory, e);
+                } finally {
+                    snapshotScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Counts the snapshots written in the background that have failed since the store was opened.
+     */
+    public long snapshotFailures() {
+        return snapshotFailures.get();
+    }
+
+    /**
+     * Writes a snapshot of all the Widgets, unless one is being written already, then deletes the files of the
+     * previous generations.
+     * <p>
+     * Writes wait only while the Widgets are listed and a new log is started, not while the snapshot is written.
+     */
+    public void snapshot() {
+        if (!snapshotLock.tryLock()) {
+            return;
+        }
+
+        try {
+            List<Widget> widgets;
+            long lastId;
+            long snapshotted;
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                widgets = stored();
+                lastId = lastId();
+                log.close();
+                snapshotted = ++generation;
+                log = WidgetLog.open(file(snapshotted, LOG), fsync, this::replay);
+            } finally {
+                lock.unlock();
+            }
+
+            WidgetSnapshot.write(file(snapshotted, SNAPSHOT), lastId, widgets);
+            for (String type : List.of(LOG, SNAPSHOT)) {
+                for (long old : generations(type).headSet(snapshotted)) {
+                    Files.deleteIfExists(file(old, type));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete the old files of the Widget store in " + directory, e);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Makes all the logged writes durable, and closes the log once the snapshot being written, if any, is done: the
+     * store must not be written to any more.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            log.close();
+        } finally {
+            lock.unlock();
+        }
+
+        snapshotLock.lock();
+        snapshotLock.unlock();
+    }
+}
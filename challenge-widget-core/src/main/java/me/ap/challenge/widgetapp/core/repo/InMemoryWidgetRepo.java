@@ -0,0 +1,400 @@
+package me.ap.challenge.widgetapp.core.repo;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A {@link WidgetRepo} keeping all {@link Widget}s in memory.
+ * <p>
+ * Widgets are indexed by id, and by {@code z} per board, in concurrent maps, so that reads never block and
+ * {@link #findMaxZ(Long)} and {@code z} runs are resolved on the sorted index of the board without scanning. Writes
+ * are serialized by a lock.
+ * <p>
+ * Stored Widgets are copies, so that callers cannot modify them behind the repository back. Every single Widget is
+ * always read in a consistent state, but a reader concurrent with a shift may observe it half way through.
+ * <p>
+ * Writes are applied immediately and do not take part in transactions: they are not rolled back.
+ */
+public class InMemoryWidgetRepo implements WidgetRepo {
+    private final ConcurrentMap<Long, Widget> byId = new ConcurrentHashMap<>();
+    // board -> z -> Widget
+    private final ConcurrentMap<Long, ConcurrentNavigableMap<Integer, Widget>> byBoard = new ConcurrentHashMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+    private final Lock writeLock = new ReentrantLock();
+
+    private static Widget copy(Widget widget) {
+        return widget.toBuilder().build();
+    }
+
+    /**
+     * Gets the {@code z} index of a board, empty if no Widget has ever been stored on it.
+     */
+    private NavigableMap<Integer, Widget> byZ(Long board) {
+        NavigableMap<Integer, Widget> byZ = byBoard.get(board);
+        return byZ == null ? Collections.emptyNavigableMap() : byZ;
+    }
+
+    /**
+     * Gets the {@code z} index of a board to write to, creating it if needed.
+     */
+    private ConcurrentNavigableMap<Integer, Widget> writableByZ(Long board) {
+        return byBoard.computeIfAbsent(board, key -> new ConcurrentSkipListMap<>());
+    }
+
+    @Override
+    public Optional<Widget> findById(Long id) {
+        return Optional.ofNullable(byId.get(id)).map(InMemoryWidgetRepo::copy);
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return byId.containsKey(id);
+    }
+
+    @Override
+    public Collection<Widget> findAll() {
+        return byId.values().stream().map(InMemoryWidgetRepo::copy).toList();
+    }
+
+    @Override
+    public Iterable<Widget> findAllById(Iterable<Long> ids) {
+        return StreamSupport.stream(ids.spliterator(), false)
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .map(InMemoryWidgetRepo::copy)
+                .toList();
+    }
+
+    @Override
+    public List<Widget> listAll(Long board) {
+        return byZ(board).values().stream().map(InMemoryWidgetRepo::copy).toList();
+    }
+
+    @Override
+    public List<Widget> listByZBetween(Long board, Integer fromZ, Integer toZ, Limit limit) {
+        return findByBoardAndZBetweenOrderByZ(board, fromZ, toZ, limit);
+    }
+
+    @Override
+    public List<Widget> listAllById(Long board, Collection<Long> ids) {
+        return ids.stream()
+                .map(byId::get)
+                .filter(widget -> widget != null && widget.board().equals(board))
+                .map(InMemoryWidgetRepo::copy)
+                .toList();
+    }
+
+    @Override
+    public long count() {
+        return byId.size();
+    }
+
+    /**
+     * Lists the {@link Widget}s of a board written after the given board revision, scanning all of them.
+     */
+    @Override
+    public List<Widget> findByBoardAndRevisionGreaterThan(Long board, Long revision) {
+        return byZ(board).values().stream()
+                .filter(widget -> widget.revision() != null && widget.revision() > revision)
+                .map(InMemoryWidgetRepo::copy)
+                .toList();
+    }
+
+    @Override
+    public Optional<Long> findRevisionById(Long board, Long id) {
+        return Optional.ofNullable(byId.get(id)).filter(widget -> widget.board().equals(board)).map(Widget::revision);
+    }
+
+    @Override
+    public Optional<Long> findMaxRevision(Long board) {
+        return byZ(board).values().stream().map(Widget::revision).filter(Objects::nonNull).max(Comparator.naturalOrder());
+    }
+
+    @Override
+    public boolean existsWidgetByBoardAndZ(Long board, Integer z) {
+        return byZ(board).containsKey(z);
+    }
+
+    @Override
+    public List<Widget> findByBoardAndZBetweenOrderByZ(Long board, Integer fromZ, Integer toZ, Limit limit) {
+        if (fromZ > toZ) {
+            return List.of();
+        }
+
+        return byZ(board).subMap(fromZ, true, toZ, true).values().stream()
+                .limit(limit.isLimited() ? limit.max() : Long.MAX_VALUE)
+                .map(InMemoryWidgetRepo::copy)
+                .toList();
+    }
+
+    @Override
+    public Stream<Widget> streamAllOrderedByZ(Long board) {
+        return byZ(board).values().stream().map(InMemoryWidgetRepo::copy);
+    }
+
+    @Override
+    public Optional<Integer> findMaxZ(Long board) {
+        return Optional.ofNullable(byZ(board).lastEntry()).map(Map.Entry::getKey);
+    }
+
+    @Override
+    public Optional<Integer> findMinZ(Long board) {
+        return Optional.ofNullable(byZ(board).firstEntry()).map(Map.Entry::getKey);
+    }
+
+    @Override
+    public List<Integer> findTopOfZRun(Long board, Integer z, Limit limit) {
+        var byZ = byZ(board);
+        return byZ.tailMap(z, true).keySet().stream()
+                .filter(key -> !byZ.containsKey(key + 1))
+                .limit(limit.isLimited() ? limit.max() : Long.MAX_VALUE)
+                .toList();
+    }
+
+    @Override
+    public List<Integer> findBottomOfZRun(Long board, Integer z, Limit limit) {
+        var byZ = byZ(board);
+        return byZ.headMap(z, true).descendingKeySet().stream()
+                .filter(key -> !byZ.containsKey(key - 1))
+                .limit(limit.isLimited() ? limit.max() : Long.MAX_VALUE)
+                .toList();
+    }
+
+    @Override
+    public int shiftZbyOne(Long board, Integer from, Integer to, Long revision) {
+        return shiftZ(board, from, to, 1, revision);
+    }
+
+    @Override
+    public int shiftZbyMinusOne(Long board, Integer from, Integer to, Long revision) {
+        return shiftZ(board, from, to, -1, revision);
+    }
+
+    /**
+     * Moves the {@link Widget}s with {@code z} in the given closed range by the given distance.
+     * <p>
+     * Unlike the relational store, the range can land on itself.
+     *
+     * @throws DuplicateKeyException if the range would land on a Widget outside of it
+     */
+    @Override
+    public int shiftZ(Long board, Integer from, Integer to, Integer by, Long revision) {
+        writeLock.lock();
+        try {
+            var byZ = writableByZ(board);
+            var range = byZ.subMap(from, true, to, true);
+            for (int z : range.keySet()) {
+                int target = z + by;
+                if ((target < from || target > to) && byZ.containsKey(target)) {
+                    throw new DuplicateKeyException(
+                            String.format("Widget(%d) already has z %d", byZ.get(target).id(), target));
+                }
+            }
+
+            // move from the front, so that every Widget is always reachable by z
+            var shifting = new ArrayList<>((by > 0 ? range.descendingMap() : range).values());
+            for (var widget : shifting) {
+                int z = widget.z();
+                var shifted = copy(widget).z(z + by).revision(revision).version(widget.version() + 1);
+                byZ.put(z + by, shifted);
+                byId.put(shifted.id(), shifted);
+                // unless the Widget behind is shifting in its place, z is now free
+                if (z - by < from || z - by > to || !byZ.containsKey(z - by)) {
+                    byZ.remove(z);
+                }
+            }
+            return shifting.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Moves the {@link Widget}s with the given ids by the given distance.
+     *
+     * @throws DuplicateKeyException if a Widget would land on a {@code z} still held by another one
+     */
+    @Override
+    public int shiftZById(Collection<Long> ids, Integer by) {
+        writeLock.lock();
+        try {
+            var shifting = ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+            var moving = shifting.stream().map(Widget::id).collect(Collectors.toSet());
+            for (var widget : shifting) {
+                var holder = byZ(widget.board()).get(widget.z() + by);
+                if (holder != null && !moving.contains(holder.id())) {
+                    throw new DuplicateKeyException(
+                            String.format("Widget(%d) already has z %d", holder.id(), widget.z() + by));
+                }
+            }
+
+            shifting.forEach(this::releaseZ);
+            for (var widget : shifting) {
+                var shifted = copy(widget).z(widget.z() + by);
+                writableByZ(shifted.board()).put(shifted.z(), shifted);
+                byId.put(shifted.id(), shifted);
+            }
+            return shifting.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        // writes are applied immediately
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    /**
+     * Stores the given {@link Widget}, assigning it a new id if it has none, and increasing its version.
+     *
+     * @throws DuplicateKeyException      if another Widget is stored on the board with the same {@code z}
+     * @throws ObjectOptimisticLockingFailureException if the stored Widget has another version
+     */
+    @Override
+    public <S extends Widget> S save(S widget) {
+        writeLock.lock();
+        try {
+            var byZ = writableByZ(widget.board());
+            var occupant = byZ.get(widget.z());
+            if (occupant != null && !occupant.id().equals(widget.id())) {
+                throw new DuplicateKeyException(
+                        String.format("Widget(%d) already has z %d", occupant.id(), widget.z()));
+            }
+
+            if (widget.id() == null) {
+                widget.id(lastId.incrementAndGet()).version(0L);
+            } else {
+                var current = byId.get(widget.id());
+                if (current != null && !current.version().equals(widget.version())) {
+                    throw new ObjectOptimisticLockingFailureException(Widget.class, widget.id());
+                }
+                widget.version(current == null ? 0L : current.version() + 1);
+            }
+
+            var stored = copy(widget);
+            var previous = byId.put(stored.id(), stored);
+            if (previous != null && (!previous.z().equals(stored.z()) || !previous.board().equals(stored.board()))) {
+                releaseZ(previous);
+            }
+            byZ.put(stored.z(), stored);
+
+            return widget;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Frees the {@code z} of the given Widget, unless another one has been shifted onto it in the meanwhile.
+     */
+    private void releaseZ(Widget widget) {
+        writableByZ(widget.board())
+                .computeIfPresent(widget.z(), (z, holder) -> holder.id().equals(widget.id()) ? null : holder);
+    }
+
+    /**
+     * Lists the stored Widgets themselves rather than copies: they are never modified once stored, as every write
+     * stores a new copy.
+     */
+    List<Widget> stored() {
+        return List.copyOf(byId.values());
+    }
+
+    /**
+     * Gets the last id assigned.
+     */
+    long lastId() {
+        return lastId.get();
+    }
+
+    /**
+     * Stores a Widget as it is, with its id and version, as recovered from a copy of this repository: nothing is
+     * checked, and the ids assigned next are greater than its one.
+     */
+    void restore(Widget widget) {
+        writeLock.lock();
+        try {
+            var previous = byId.put(widget.id(), widget);
+            if (previous != null) {
+                releaseZ(previous);
+            }
+            writableByZ(widget.board()).put(widget.z(), widget);
+            restoreLastId(widget.id());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Makes the ids assigned next greater than the given one.
+     */
+    void restoreLastId(long id) {
+        lastId.accumulateAndGet(id, Math::max);
+    }
+
+    @Override
+    public <S extends Widget> Iterable<S> saveAll(Iterable<S> widgets) {
+        var saved = new ArrayList<S>();
+        widgets.forEach(widget -> saved.add(save(widget)));
+        return saved;
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        writeLock.lock();
+        try {
+            var removed = byId.remove(id);
+            if (removed != null) {
+                releaseZ(removed);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(Widget widget) {
+        deleteById(widget.id());
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        ids.forEach(this::deleteById);
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends Widget> widgets) {
+        widgets.forEach(this::delete);
+    }
+
+    @Override
+    public void deleteAll() {
+        writeLock.lock();
+        try {
+            byId.clear();
+            byBoard.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package me.ap.challenge.widgetapp.core.repo;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+
+/**
+ * Thrown when a modification is refused, as there is no free {@code Z} left on the board where the {@link Widget}s it
+ * moves or creates would go: the {@code Z}s have reached the limit of an integer.
+ * <p>
+ * The modification fails again if retried, until the board is compacted or Widgets are deleted.
+ */
+public class NoFreeZException extends IllegalStateException {
+    public NoFreeZException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,240 @@
+package me.ap.challenge.widgetapp.core.repo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only log of the writes to a {@link FileWidgetRepo}, made durable by group commit.
+ * <p>
+ * Every record is framed by its length and the checksum of its payload, so that a record torn by a crash is detected
+ * when the log is opened again, and the log truncated to the last whole one.
+ * <p>
+ * Records are appended to a buffer in memory. A writer then waits for its records to be durable: the first one to
+ * wait writes the whole buffer and forces it to disk, while the records of the writers arriving meanwhile pile up in
+ * another buffer, to be written by the next one. Concurrent writers thus share a single {@code fsync}.
+ */
+class WidgetLog implements Closeable {
+    private static final int FRAME_SIZE = Integer.BYTES * 2;
+    private static final int INITIAL_BUFFER = 1 << 16;
+
+    private final FileChannel channel;
+    private final boolean fsync;
+    private final Lock lock = new ReentrantLock();
+    private final Condition synced = lock.newCondition();
+    // the records appended and not being written yet, and the buffer to swap with once written
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER);
+    // the end of the last appended record, and of the last durable one
+    private long appended;
+    private long durable;
+    private boolean syncing;
+    private IOException failure;
+    private long records;
+
+    private WidgetLog(FileChannel channel, long end, long records, boolean fsync) {
+        this.channel = channel;
+        this.appended = end;
+        this.durable = end;
+        this.records = records;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Opens a log to append to, creating it if missing, after feeding its records to the given action.
+     * <p>
+     * The log is truncated after the last whole record.
+     *
+     * @param path   the log file
+     * @param fsync  whether to force the records to disk, rather than only writing them to the file system
+     * @param replay the action applying every record, given its payload
+     * @return the opened log
+     */
+    static WidgetLog open(Path path, boolean fsync, Consumer<ByteBuffer> replay) {
+        try {
+            var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("The Widget log is too large to replay: " + path);
+                }
+
+                var mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                long records = 0;
+                var checksum = new CRC32C();
+                while (mapped.remaining() >= FRAME_SIZE) {
+                    int start = mapped.position();
+                    int length = mapped.getInt();
+                    int expected = mapped.getInt();
+                    if (length <= 0 || length > mapped.remaining()) {
+                        mapped.position(start);
+                        break;
+                    }
+                    var payload = mapped.slice(mapped.position(), length);
+                    checksum.reset();
+                    checksum.update(payload.duplicate());
+                    if ((int) checksum.getValue() != expected) {
+                        mapped.position(start);
+                        break;
+                    }
+                    replay.accept(payload);
+                    mapped.position(mapped.position() + length);
+                    records++;
+                }
+
+                long end = mapped.position();
+                if (end < size) {
+                    channel.truncate(end);
+                }
+                channel.position(end);
+                return new WidgetLog(channel, end, records, fsync);
+            } catch (RuntimeException | IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the Widget log " + path, e);
+        }
+    }
+
+    /**
+     * Appends a record, not durable until {@link #sync(long)}.
+     *
+     * @param size   the size of the record payload
+     * @param record writes the payload into the given buffer
+     * @return the end of the record, to wait for
+     */
+    long append(int size, Consumer<ByteBuffer> record) {
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new UncheckedIOException("The Widget log has failed", failure);
+            }
+            if (buffer.remaining() < FRAME_SIZE + size) {
+                var larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + FRAME_SIZE + size));
+                buffer = larger.put(buffer.flip());
+            }
+
+            int start = buffer.position();
+            buffer.position(start + FRAME_SIZE);
+            record.accept(buffer);
+            if (buffer.position() != start + FRAME_SIZE + size) {
+                throw new IllegalStateException("The record is not " + size + " bytes long");
+            }
+            var checksum = new CRC32C();
+            checksum.update(buffer.slice(start + FRAME_SIZE, size));
+            buffer.putInt(start, size).putInt(start + Integer.BYTES, (int) checksum.getValue());
+
+            appended += FRAME_SIZE + size;
+            records++;
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the records up to the given position to be durable, writing them and the ones appended since if no
+     * other writer is already doing so.
+     *
+     * @param position the end of the last record to wait for
+     * @throws UncheckedIOException if the records cannot be written
+     */
+    void sync(long position) {
+        ByteBuffer writing;
+        long end;
+        lock.lock();
+        try {
+            while (durable < position && syncing && failure == null) {
+                synced.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("The Widget log has failed", failure);
+            }
+            if (durable >= position) {
+                return;
+            }
+
+            syncing = true;
+            writing = buffer.flip();
+            end = appended;
+            buffer = spare;
+        } finally {
+            lock.unlock();
+        }
+
+        IOException failed = null;
+        try {
+            while (writing.hasRemaining()) {
+                channel.write(writing);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            failed = e;
+        }
+
+        lock.lock();
+        try {
+            syncing = false;
+            spare = writing.clear();
+            if (failed != null) {
+                failure = failed;
+            } else {
+                durable = end;
+            }
+            synced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (failed != null) {
+            throw new UncheckedIOException("Cannot write the Widget log", failed);
+        }
+    }
+
+    /**
+     * Gets the number of records in the log, replayed ones included.
+     */
+    long records() {
+        lock.lock();
+        try {
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes all the appended records durable, then closes the log.
+     */
+    @Override
+    public void close() {
+        long end;
+        lock.lock();
+        try {
+            end = appended;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            sync(end);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot close the Widget log", e);
+            }
+        }
+    }
+}
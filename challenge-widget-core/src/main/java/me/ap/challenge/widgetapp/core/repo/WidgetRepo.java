@@ -1,40 +1,339 @@
 package me.ap.challenge.widgetapp.core.repo;
 
+import jakarta.persistence.QueryHint;
 import me.ap.challenge.widgetapp.core.model.Widget;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+/**
+ * The storage of the {@link Widget}s of all boards.
+ * <p>
+ * Every board has a {@code Z} space of its own: the queries by {@code z} and the {@code z} shifts are scoped to a
+ * board, and served by the {@code (board, z)} index, so that their cost depends on the size of the board and not on
+ * the number of stored Widgets. The ids are unique among all boards.
+ */
 @Repository
 public interface WidgetRepo extends CrudRepository<Widget, Long> {
+    /**
+     * The number of rows fetched at a time by streaming queries.
+     */
+    String STREAM_FETCH_SIZE = "500";
+
     Optional<Widget> findById(Long id);
 
     Collection<Widget> findAll();
 
-    boolean existsWidgetByZ(Integer z);
+    boolean existsWidgetByBoardAndZ(Long board, Integer z);
+
+    /**
+     * Streams all {@link Widget}s of a board in ascending {@code z} order, fetching {@value #STREAM_FETCH_SIZE} rows at
+     * a time.
+     * <p>
+     * The Widgets are built by the query rather than loaded as managed entities, so that the persistence context does
+     * not grow while streaming. The stream must be consumed within a transaction, and closed.
+     *
+     * @param board the board of the Widgets
+     * @return all Widgets of the board, in ascending {@code z} order
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    @Query("SELECT new Widget(w.id, w.width, w.height, w.z, w.x, w.y, w.revision, w.version, w.board) FROM Widget w "
+            + "WHERE w.board=:board ORDER BY w.z")
+    Stream<Widget> streamAllOrderedByZ(@Param("board") Long board);
+
+    /**
+     * Lists the {@link Widget}s of a board with {@code z} in the given closed range, in ascending {@code z} order.
+     * <p>
+     * Served by a range scan of the {@code (board, z)} index, stopping at the limit.
+     *
+     * @param board the board of the Widgets
+     * @param fromZ the bottom of the range
+     * @param toZ   the top of the range
+     * @param limit the maximum number of Widgets to list
+     * @return the Widgets in the range, up to the limit
+     */
+    List<Widget> findByBoardAndZBetweenOrderByZ(Long board, Integer fromZ, Integer toZ, Limit limit);
+
+    /**
+     * Lists all {@link Widget}s of a board, for reading only.
+     * <p>
+     * As with {@link #streamAllOrderedByZ(Long)}, the Widgets are built by the query rather than loaded as managed
+     * entities: the persistence context neither tracks them nor keeps a snapshot of their state, and changes to them
+     * are not written back.
+     *
+     * @param board the board of the Widgets
+     * @return all Widgets of the board
+     */
+    @Query("SELECT new Widget(w.id, w.width, w.height, w.z, w.x, w.y, w.revision, w.version, w.board) FROM Widget w "
+            + "WHERE w.board=:board")
+    List<Widget> listAll(@Param("board") Long board);
+
+    /**
+     * Lists the {@link Widget}s of a board with {@code z} in the given closed range, in ascending {@code z} order, for
+     * reading only, as by {@link #listAll(Long)}.
+     *
+     * @param board the board of the Widgets
+     * @param fromZ the bottom of the range
+     * @param toZ   the top of the range
+     * @param limit the maximum number of Widgets to list
+     * @return the Widgets in the range, up to the limit
+     */
+    @Query("SELECT new Widget(w.id, w.width, w.height, w.z, w.x, w.y, w.revision, w.version, w.board) FROM Widget w "
+            + "WHERE w.board=:board AND w.z>=:fromZ AND w.z<=:toZ ORDER BY w.z")
+    List<Widget> listByZBetween(@Param("board") Long board,
+                                @Param("fromZ") Integer fromZ,
+                                @Param("toZ") Integer toZ,
+                                Limit limit);
+
+    /**
+     * Lists the {@link Widget}s of a board with the given ids, for reading only, as by {@link #listAll(Long)}.
+     *
+     * @param board the board of the Widgets
+     * @param ids   the ids of the Widgets
+     * @return the Widgets found on the board, in no particular order
+     */
+    @Query("SELECT new Widget(w.id, w.width, w.height, w.z, w.x, w.y, w.revision, w.version, w.board) FROM Widget w "
+            + "WHERE w.board=:board AND w.id IN :ids")
+    List<Widget> listAllById(@Param("board") Long board, @Param("ids") Collection<Long> ids);
+
+    /**
+     * Lists the {@link Widget}s of a board written after the given board revision.
+     *
+     * @param board    the board of the Widgets
+     * @param revision the revision after which to list
+     * @return the Widgets with a greater revision
+     */
+    List<Widget> findByBoardAndRevisionGreaterThan(Long board, Long revision);
+
+    /**
+     * Finds the board revision of a {@link Widget}, without loading it.
+     *
+     * @param board the board of the Widget
+     * @param id    the id of the Widget
+     * @return the revision, if the Widget is present on the board
+     */
+    @Query("SELECT w.revision FROM Widget w WHERE w.id=:id AND w.board=:board")
+    Optional<Long> findRevisionById(@Param("board") Long board, @Param("id") Long id);
+
+    /**
+     * Finds the maximum revision stored on a board, if any {@link Widget} is present.
+     *
+     * @param board the board of the Widgets
+     * @return the max revision, if any Widget is present on the board
+     */
+    @Query("SELECT max(revision) FROM Widget WHERE board=:board")
+    Optional<Long> findMaxRevision(@Param("board") Long board);
 
     void deleteById(Long id);
 
     /**
-     * Finds the maximum {@code Z} stored, if any {@link Widget} is present.
+     * Finds the maximum {@code Z} stored on a board, if any {@link Widget} is present.
+     *
+     * @param board the board of the Widgets
+     * @return the max Z, if any {@link Widget} is present on the board
+     */
+    @Query("SELECT max(z) FROM Widget WHERE board=:board")
+    Optional<Integer> findMaxZ(@Param("board") Long board);
+
+    /**
+     * Finds the minimum {@code Z} stored on a board, if any {@link Widget} is present.
+     *
+     * @param board the board of the Widgets
+     * @return the min Z, if any {@link Widget} is present on the board
+     */
+    @Query("SELECT min(z) FROM Widget WHERE board=:board")
+    Optional<Integer> findMinZ(@Param("board") Long board);
+
+    /**
+     * Finds the top of the contiguous run of occupied {@code z} values of a board starting at the given argument, i.e.
+     * the lowest stored {@code z} greater than or equal to the argument that is not immediately followed by another
+     * stored one.
+     * <p>
+     * The {@code (board, z)} index lets the scan stop at the first gap, so the cost depends on the run length and not
+     * on the number of stored {@link Widget}s.
+     *
+     * @param board the board of the run
+     * @param z     the bottom of the run
+     * @param limit the maximum number of results, only the first one being the top of the run
+     * @return the top of the run first, if any {@link Widget} is stored at or above the given {@code z}
+     */
+    @Query("SELECT w.z FROM Widget w WHERE w.board=:board AND w.z>=:z "
+            + "AND NOT EXISTS (SELECT n FROM Widget n WHERE n.board=:board AND n.z=w.z+1) ORDER BY w.z")
+    List<Integer> findTopOfZRun(@Param("board") Long board, @Param("z") Integer z, Limit limit);
+
+    default Optional<Integer> findTopOfZRun(Long board, Integer z) {
+        return findTopOfZRun(board, z, Limit.of(1)).stream().findFirst();
+    }
+
+    /**
+     * Finds the bottom of the contiguous run of occupied {@code z} values of a board ending at the given argument, i.e.
+     * the highest stored {@code z} less than or equal to the argument that is not immediately preceded by another
+     * stored one.
+     * <p>
+     * The mirror of {@link #findTopOfZRun(Long, Integer, Limit)}, scanning the {@code (board, z)} index downwards.
+     *
+     * @param board the board of the run
+     * @param z     the top of the run
+     * @param limit the maximum number of results, only the first one being the bottom of the run
+     * @return the bottom of the run first, if any {@link Widget} is stored at or below the given {@code z}
+     */
+    @Query("SELECT w.z FROM Widget w WHERE w.board=:board AND w.z<=:z "
+            + "AND NOT EXISTS (SELECT n FROM Widget n WHERE n.board=:board AND n.z=w.z-1) ORDER BY w.z DESC")
+    List<Integer> findBottomOfZRun(@Param("board") Long board, @Param("z") Integer z, Limit limit);
+
+    default Optional<Integer> findBottomOfZRun(Long board, Integer z) {
+        return findBottomOfZRun(board, z, Limit.of(1)).stream().findFirst();
+    }
+
+    /**
+     * Moves the {@link Widget}s of a board with {@code z} in the given closed range by the given distance, stamping
+     * them with the given board revision.
+     * <p>
+     * The bulk update bypasses the versioning of the persistence context, so the versions are increased by the update
+     * itself: a concurrent modification of a shifted Widget then fails, rather than moving it back.
+     * <p>
+     * As {@code z} is unique on a board, and the uniqueness is checked row by row, the range must not land on any
+     * stored {@code z}, its own included: see {@link #shiftZbyOne(Long, Integer, Integer, Long)} for shifts within the
+     * stored ones.
+     * <p>
+     * The persistence context is flushed before and cleared after the update, which bypasses it.
+     *
+     * @param board    the board of the range
+     * @param from     the bottom of the range to shift
+     * @param to       the top of the range to shift
+     * @param by       the distance to shift by
+     * @param revision the revision of the shift
+     * @return the number of shifted Widgets
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Widget SET z=z+:by, revision=:revision, version=version+1 WHERE board=:board AND z>=:from AND z<=:to")
+    int shiftZ(@Param("board") Long board,
+               @Param("from") Integer from,
+               @Param("to") Integer to,
+               @Param("by") Integer by,
+               @Param("revision") Long revision);
+
+    /**
+     * Moves the {@link Widget}s with the given ids, all on the same board, by the given distance, which must not land
+     * them on any stored {@code z}.
+     * <p>
+     * The persistence context is flushed before the update, but not cleared: the managed Widgets keep their state, so
+     * that they are written again as they are on the next flush. Their versions are left alone, to be increased by
+     * that write.
+     *
+     * @param ids the ids of the Widgets to shift
+     * @param by  the distance to shift by
+     * @return the number of shifted Widgets
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE Widget SET z=z+:by WHERE id IN :ids")
+    int shiftZById(@Param("ids") Collection<Long> ids, @Param("by") Integer by);
+
+    /**
+     * Moves the {@link Widget}s of a board with {@code z} in the given closed range above all the stored ones, keeping
+     * their order, so that their {@code z}s are free for other Widgets.
+     *
+     * @param board    the board of the range
+     * @param from     the bottom of the range to park
+     * @param to       the top of the range to park
+     * @param revision the revision of the move
+     * @return the distance the range has been moved by
+     * @throws NoFreeZException if there is no room above the stored Widgets
+     */
+    default int parkZ(Long board, Integer from, Integer to, Long revision) {
+        int top = Math.max(findMaxZ(board).orElse(to), to);
+        long by = (long) top + 1 - from;
+        if (by > Integer.MAX_VALUE || to + by > Integer.MAX_VALUE) {
+            throw new NoFreeZException("There is no free Z left above " + top);
+        }
+
+        shiftZ(board, from, to, (int) by, revision);
+        return (int) by;
+    }
+
+    /**
+     * Increment the {@code z} property of all {@link Widget} of a board with {@code z} in the given closed range by
+     * one.
+     * <p>
+     * The range is parked above the stored Widgets first, then moved back in place: two updates whatever the length of
+     * the range, none of them ever holding two Widgets on the same {@code z}.
+     *
+     * @param board    the board of the range
+     * @param from     the bottom of the range to shift
+     * @param to       the top of the range to shift
+     * @param revision the revision of the shift
+     * @return the number of shifted Widgets
+     */
+    default int shiftZbyOne(Long board, Integer from, Integer to, Long revision) {
+        int parked = parkZ(board, from, to, revision);
+        return shiftZ(board, from + parked, to + parked, 1 - parked, revision);
+    }
+
+    /**
+     * Decrement the {@code z} property of all {@link Widget} of a board with {@code z} in the given closed range by
+     * one.
+     * <p>
+     * As {@link #shiftZbyOne(Long, Integer, Integer, Long)}, the range is parked above the stored Widgets first.
+     *
+     * @param board    the board of the range
+     * @param from     the bottom of the range to shift
+     * @param to       the top of the range to shift
+     * @param revision the revision of the shift
+     * @return the number of shifted Widgets
+     */
+    default int shiftZbyMinusOne(Long board, Integer from, Integer to, Long revision) {
+        int parked = parkZ(board, from, to, revision);
+        return shiftZ(board, from + parked, to + parked, -1 - parked, revision);
+    }
+
+    /**
+     * Writes the pending changes to the storage layer, within the current transaction.
+     */
+    void flush();
+
+    /**
+     * Tells whether the writes take part in the current transaction, and are rolled back with it.
      *
-     * @return the max Z, if any {@link Widget} is present
+     * @return true for the relational store
      */
-    @Query("SELECT max(z) FROM Widget")
-    Optional<Widget> findMaxZ();
+    default boolean isTransactional() {
+        return true;
+    }
 
     /**
-     * Increment the {@code z} property of all {@link Widget} with {@code z} greater than or equal to the given argument
-     * by one.
+     * Tells whether the given failure is the collision of two {@link Widget}s on the same {@code z} of a board, which
+     * a concurrent write can cause, rather than any other violated constraint.
+     * <p>
+     * The in-memory stores report it as a {@link DuplicateKeyException}, the relational store as a violation of the
+     * {@value Widget#Z_INDEX} index, whose name the database may decorate.
      *
-     * @param z the threshold for the shift
+     * @param e the failure of a write
+     * @return whether the failure is a {@code z} collision
      */
-    @Modifying
-    @Query("UPDATE Widget SET z=z+1 WHERE z>=:z_to_free")
-    void shiftZbyOne(@Param("z_to_free") Integer z);
+    static boolean isZCollision(DataIntegrityViolationException e) {
+        if (e instanceof DuplicateKeyException) {
+            return true;
+        }
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException violation) {
+                var name = violation.getConstraintName();
+                return name != null && name.toLowerCase(Locale.ROOT).contains(Widget.Z_INDEX);
+            }
+        }
+        return false;
+    }
 }
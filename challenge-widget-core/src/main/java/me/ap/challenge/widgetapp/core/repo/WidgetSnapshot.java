@@ -0,0 +1,149 @@
+package me.ap.challenge.widgetapp.core.repo;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * A compact copy of all the {@link Widget}s of a {@link FileWidgetRepo}, as fixed size binary records.
+ * <p>
+ * A snapshot is written to a temporary file, forced to disk, then renamed in place, so that it is either whole or
+ * missing, and the directory forced to disk in turn, so that the renaming survives a crash of the machine. It is loaded by mapping it in memory, so that a million Widgets are read without copying the file through
+ * the heap. The records of the {@link WidgetLog} encode the Widgets in the same format.
+ */
+final class WidgetSnapshot {
+    /**
+     * The size of an encoded Widget.
+     */
+    static final int WIDGET_SIZE = Long.BYTES * 4 + Integer.BYTES * 5;
+
+    private static final int MAGIC = 0x57494447;
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES * 2;
+    private static final int WRITE_BUFFER = 1 << 20;
+    // the Widgets mapped at a time, well below the 2 GB limit of a mapping
+    private static final int WIDGETS_PER_MAPPING = (1 << 26) / WIDGET_SIZE;
+    // the encoding of a missing revision
+    private static final long NONE = Long.MIN_VALUE;
+
+    private WidgetSnapshot() {
+    }
+
+    /**
+     * Encodes a Widget, in {@value #WIDGET_SIZE} bytes.
+     */
+    static void write(ByteBuffer buffer, Widget widget) {
+        buffer.putLong(widget.id())
+                .putLong(widget.board())
+                .putInt(widget.z())
+                .putInt(widget.x())
+                .putInt(widget.y())
+                .putInt(widget.width())
+                .putInt(widget.height())
+                .putLong(widget.revision() == null ? NONE : widget.revision())
+                .putLong(widget.version());
+    }
+
+    /**
+     * Decodes a Widget written by {@link #write(ByteBuffer, Widget)}.
+     */
+    static Widget read(ByteBuffer buffer) {
+        long id = buffer.getLong();
+        long board = buffer.getLong();
+        int z = buffer.getInt();
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        long revision = buffer.getLong();
+        long version = buffer.getLong();
+        return new Widget(id, width, height, z, x, y, revision == NONE ? null : revision, version, board);
+    }
+
+    /**
+     * Writes a snapshot of the given Widgets.
+     *
+     * @param path    the snapshot file, replaced if present
+     * @param lastId  the last id assigned
+     * @param widgets all the stored Widgets
+     */
+    static void write(Path path, long lastId, Collection<Widget> widgets) {
+        var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            var buffer = ByteBuffer.allocateDirect(WRITE_BUFFER);
+            buffer.putInt(MAGIC).putInt(FORMAT).putLong(lastId).putLong(widgets.size());
+            for (var widget : widgets) {
+                if (buffer.remaining() < WIDGET_SIZE) {
+                    drain(channel, buffer);
+                }
+                write(buffer, widget);
+            }
+            drain(channel, buffer);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the snapshot " + path, e);
+        }
+
+        try {
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            try (var directory = FileChannel.open(path.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+                directory.force(true);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the snapshot " + path, e);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Loads a snapshot, feeding its Widgets to the given action.
+     *
+     * @param path   the snapshot file
+     * @param action the action restoring every Widget
+     * @return the last id assigned
+     * @throws IllegalStateException if the file is not a whole snapshot
+     */
+    static long load(Path path, Consumer<Widget> action) {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT) {
+                throw new IllegalStateException("Not a Widget snapshot: " + path);
+            }
+            long lastId = header.getLong();
+            long count = header.getLong();
+            if (channel.size() != HEADER_SIZE + count * WIDGET_SIZE) {
+                throw new IllegalStateException("Incomplete Widget snapshot: " + path);
+            }
+
+            for (long loaded = 0; loaded < count; ) {
+                int mapped = (int) Math.min(count - loaded, WIDGETS_PER_MAPPING);
+                var buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + loaded * WIDGET_SIZE,
+                        (long) mapped * WIDGET_SIZE);
+                for (int i = 0; i < mapped; i++) {
+                    action.accept(read(buffer));
+                }
+                loaded += mapped;
+            }
+            return lastId;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load the snapshot " + path, e);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+
+/**
+ * Thrown when a modification is refused, as the {@link Widget} it applies to has been written since the revision the
+ * caller expects it to have.
+ */
+public class PreconditionFailedException extends RuntimeException {
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,17 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+/**
+ * Thrown when a modification is refused, as the {@link Widget} it applies to has been written since the version the
+ * caller based it on.
+ * <p>
+ * Unlike the other {@link OptimisticLockingFailureException}s, reporting a concurrent write found by the storage
+ * layer, the modification fails again if retried.
+ */
+public class StaleVersionException extends OptimisticLockingFailureException {
+    public StaleVersionException(String message) {
+        super(message);
+    }
+}
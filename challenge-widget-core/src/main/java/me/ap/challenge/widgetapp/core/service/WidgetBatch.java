@@ -0,0 +1,311 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.repo.NoFreeZException;
+import me.ap.challenge.widgetapp.core.repo.WidgetRepo;
+import org.springframework.data.domain.Limit;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Applies a batch of {@link WidgetOperation}s to the {@link Widget}s of a board in a single pass.
+ * <p>
+ * The operations are applied in order, with the same outcome as applying them one at a time through
+ * {@link WidgetService}, on an in-memory layout of the {@code Z} space. The layout only holds the {@code Z}s the batch
+ * needs to know about, loaded in chunks while the runs of occupied {@code Z}s to shift are walked. Every stored
+ * {@link Widget} is then written at most once, besides a single update parking the ones changing {@code Z}, and the
+ * new ones are inserted together.
+ * <p>
+ * A Widget updated to a higher {@code Z} sinks the run of Widgets ending there, a lower {@code Z} lifts the run starting
+ * there: either way the run stops at the {@code Z} the Widget leaves, as in {@link WidgetService#update(Widget, Widget)}.
+ * <p>
+ * Widgets created without {@code Z} are placed on top of the highest {@code Z} known to the batch, which is never
+ * lower than the one stored when the batch started.
+ * <p>
+ * Widgets of other boards are not found by the batch.
+ * <p>
+ * Not thread safe: meant to be used once, within a transaction.
+ */
+class WidgetBatch {
+    private static final int CHUNK = 64;
+
+    private final WidgetRepo widgetRepo;
+    private final long board;
+    private final int zGap;
+    private final long revision;
+    // Z -> occupant, for every Z the batch knows about; a null occupant means the Z is free
+    private final NavigableMap<Integer, Widget> layout = new TreeMap<>();
+    // the stored Widgets loaded so far, by id, with their stored Z
+    private final Map<Long, Widget> loaded = new HashMap<>();
+    private final Map<Long, Integer> storedZs = new HashMap<>();
+    private final Set<Long> modifiedIds = new LinkedHashSet<>();
+    // the stored Widgets shifted to make space for others
+    private final Set<Long> shiftedIds = new HashSet<>();
+    private final List<Widget> created = new ArrayList<>();
+    private final Set<Long> deletedIds = new LinkedHashSet<>();
+    private int topZ;
+
+    WidgetBatch(WidgetRepo widgetRepo, long board, int zGap, int topZ, long revision) {
+        this.widgetRepo = widgetRepo;
+        this.board = board;
+        this.zGap = zGap;
+        this.topZ = topZ;
+        this.revision = revision;
+    }
+
+    /**
+     * Applies an operation to the layout, to be written by {@link #write()}.
+     *
+     * @param operation the operation
+     * @return the state of the Widget created or updated by the operation once the batch is written, or null for a
+     * deletion
+     * @throws NoSuchElementException if the Widget to update does not exist
+     * @throws StaleVersionException if the Widget to update does not have the expected version
+     * @throws NoFreeZException if the Widgets to shift would go past the limit of an integer
+     */
+    Supplier<Widget> apply(WidgetOperation operation) {
+        if (operation instanceof WidgetOperation.Create create) {
+            var widget = create.widget().toBuilder()
+                    .id(null)
+                    .version(null)
+                    .board(board)
+                    .x(Optional.ofNullable(create.widget().x()).orElse(0))
+                    .y(Optional.ofNullable(create.widget().y()).orElse(0))
+                    .build();
+            if (widget.z() == null) {
+                // above all the Widgets, stored or not, so the Z is free without looking it up
+                if (topZ == Integer.MAX_VALUE) {
+                    throw new NoFreeZException("There is no free Z left above " + topZ);
+                }
+                topZ = (long) topZ + zGap > Integer.MAX_VALUE ? topZ + 1 : topZ + zGap;
+                layout.put(topZ, widget.z(topZ));
+            } else {
+                place(widget, widget.z());
+            }
+            created.add(widget);
+            return () -> widget;
+        } else if (operation instanceof WidgetOperation.Update update) {
+            var widget = load(update.widget().id())
+                    .orElseThrow(() -> new NoSuchElementException(
+                            String.format("Widget(%d) does not exist", update.widget().id())));
+            WidgetService.checkVersion(widget, update.expectedVersion());
+            int from = widget.z();
+            int to = Optional.ofNullable(update.widget().z()).orElse(from);
+            layout.put(from, null);
+            widget.width(update.widget().width())
+                    .height(update.widget().height())
+                    .x(Optional.ofNullable(update.widget().x()).orElse(widget.x()))
+                    .y(Optional.ofNullable(update.widget().y()).orElse(widget.y()));
+            if (to > from) {
+                sink(to);
+            }
+            place(widget, to);
+            modifiedIds.add(widget.id());
+            // the instance written, once saved
+            return () -> loaded.get(widget.id());
+        } else if (operation instanceof WidgetOperation.Delete delete) {
+            load(delete.id()).ifPresent(widget -> {
+                layout.put(widget.z(), null);
+                modifiedIds.remove(widget.id());
+                deletedIds.add(widget.id());
+            });
+        }
+        return () -> null;
+    }
+
+    /**
+     * Writes all the changes to the storage layer.
+     * <p>
+     * As {@code Z} is unique, the deletions are written first, and the stored Widgets changing {@code Z} are parked
+     * above all the others before being written in their new state, with the new ones: no two Widgets ever hold the
+     * same {@code Z}, whatever the order the storage layer writes them in. Every Widget written is stamped with the
+     * revision of the batch.
+     * <p>
+     * Everything that can fail is checked before the first write, so that on a non transactional storage layer, whose
+     * modifications of a board are serialized, a batch is applied either entirely or not at all, barring a failure of
+     * the storage layer itself.
+     *
+     * @return the outcome of the batch
+     * @throws NoFreeZException if there is no room above the stored Widgets to park the ones changing {@code Z}
+     */
+    WidgetBatchResult write() {
+        var modified = modifiedIds.stream().map(loaded::get).toList();
+        var moving = modified.stream()
+                .filter(widget -> !widget.z().equals(storedZs.get(widget.id())))
+                .toList();
+        int parking = 0;
+        if (!moving.isEmpty()) {
+            int bottom = moving.stream().mapToInt(widget -> storedZs.get(widget.id())).min().orElseThrow();
+            // the deleted Widgets are still stored: the top is never lower than the one after the deletions
+            int top = Math.max(topZ, widgetRepo.findMaxZ(board).orElse(topZ));
+            long by = (long) top + 1 - bottom;
+            if (by > Integer.MAX_VALUE || top + by > Integer.MAX_VALUE) {
+                throw new NoFreeZException("There is no free Z left above " + top);
+            }
+            parking = (int) by;
+        }
+
+        widgetRepo.deleteAllById(deletedIds);
+        widgetRepo.flush();
+        if (!moving.isEmpty()) {
+            widgetRepo.shiftZById(moving.stream().map(Widget::id).toList(), parking);
+        }
+        modified.forEach(widget -> widget.revision(revision));
+        created.forEach(widget -> widget.revision(revision));
+        // the stored instances, whose versions are increased by the write
+        widgetRepo.saveAll(modified).forEach(saved -> loaded.put(saved.id(), saved));
+        widgetRepo.saveAll(created);
+
+        var widgets = new ArrayList<>(modifiedIds.stream().map(loaded::get).toList());
+        widgets.addAll(created);
+        return new WidgetBatchResult(widgets, List.copyOf(deletedIds));
+    }
+
+    /**
+     * Lists the changes written by the batch: the deletions, the new state of the stored Widgets modified, shifted
+     * ones included, and the new Widgets.
+     */
+    List<WidgetChange> changes() {
+        var changes = new ArrayList<WidgetChange>();
+        deletedIds.forEach(id -> changes.add(new WidgetChange.Deleted(revision, id)));
+        modifiedIds.forEach(id -> changes.add(new WidgetChange.Updated(loaded.get(id))));
+        created.forEach(widget -> changes.add(new WidgetChange.Created(widget)));
+        return changes;
+    }
+
+    /**
+     * Lists the {@code Z}s of the Widgets written by the batch, once written.
+     */
+    Set<Integer> takenZs() {
+        var taken = new HashSet<Integer>();
+        modifiedIds.forEach(id -> taken.add(loaded.get(id).z()));
+        created.forEach(widget -> taken.add(widget.z()));
+        return taken;
+    }
+
+    /**
+     * Lists the stored {@code Z}s of the Widgets deleted or modified by the batch, some of them taken again.
+     */
+    Set<Integer> leftZs() {
+        var left = new HashSet<Integer>();
+        deletedIds.forEach(id -> left.add(storedZs.get(id)));
+        modifiedIds.forEach(id -> left.add(storedZs.get(id)));
+        return left;
+    }
+
+    /**
+     * Counts the stored Widgets shifted to make space for others, and not deleted afterwards.
+     */
+    int shifted() {
+        return (int) shiftedIds.stream().filter(id -> !deletedIds.contains(id)).count();
+    }
+
+    /**
+     * Loads a stored Widget, unless already loaded or deleted.
+     */
+    private Optional<Widget> load(Long id) {
+        if (deletedIds.contains(id)) {
+            return Optional.empty();
+        }
+
+        if (loaded.containsKey(id)) {
+            return Optional.of(loaded.get(id));
+        }
+
+        var widget = widgetRepo.findById(id).filter(stored -> stored.board() == board);
+        // its Z cannot be in the layout yet, otherwise the Widget would have been loaded with it
+        widget.ifPresent(this::register);
+        return widget.map(stored -> loaded.get(stored.id()));
+    }
+
+    private void register(Widget stored) {
+        // a copy, so that the changes are only written by write()
+        var widget = stored.toBuilder().build();
+        loaded.put(widget.id(), widget);
+        storedZs.put(widget.id(), widget.z());
+        layout.put(widget.z(), widget);
+    }
+
+    /**
+     * Finds the Widget occupying the given {@code Z}, loading the chunk of the layout starting there if unknown.
+     */
+    private Widget occupant(int z) {
+        if (!layout.containsKey(z)) {
+            loadLayout(z, (int) Math.min((long) z + CHUNK - 1, Integer.MAX_VALUE));
+        }
+
+        return layout.get(z);
+    }
+
+    /**
+     * Finds the Widget occupying the given {@code Z}, loading the chunk of the layout ending there if unknown.
+     */
+    private Widget occupantBelow(int z) {
+        if (!layout.containsKey(z)) {
+            loadLayout((int) Math.max((long) z - CHUNK + 1, Integer.MIN_VALUE), z);
+        }
+
+        return layout.get(z);
+    }
+
+    private void loadLayout(int from, int to) {
+        widgetRepo.findByBoardAndZBetweenOrderByZ(board, from, to, Limit.unlimited()).stream()
+                .filter(widget -> !layout.containsKey(widget.z()))
+                .forEach(this::register);
+        for (long known = from; known <= to; known++) {
+            layout.putIfAbsent((int) known, null);
+        }
+    }
+
+    /**
+     * Frees the given {@code Z}, shifting down by one the run of Widgets ending there.
+     */
+    private void sink(int z) {
+        if (occupantBelow(z) != null) {
+            int bottom = z;
+            while (bottom > Integer.MIN_VALUE && occupantBelow(bottom - 1) != null) {
+                bottom--;
+            }
+            if (bottom == Integer.MIN_VALUE) {
+                throw new NoFreeZException("There is no free Z left below " + z);
+            }
+            for (int shifting = bottom; shifting <= z; shifting++) {
+                var shifted = layout.get(shifting);
+                layout.put(shifting - 1, shifted.z(shifting - 1));
+                if (shifted.id() != null) {
+                    modifiedIds.add(shifted.id());
+                    shiftedIds.add(shifted.id());
+                }
+            }
+            layout.put(z, null);
+        }
+    }
+
+    /**
+     * Places the given Widget at the given {@code Z}, shifting up by one the run of Widgets occupying it.
+     */
+    private void place(Widget widget, int z) {
+        if (occupant(z) != null) {
+            int top = z;
+            while (top < Integer.MAX_VALUE && occupant(top + 1) != null) {
+                top++;
+            }
+            if (top == Integer.MAX_VALUE) {
+                throw new NoFreeZException("There is no free Z left above " + z);
+            }
+            for (int shifting = top; shifting >= z; shifting--) {
+                var shifted = layout.get(shifting);
+                layout.put(shifting + 1, shifted.z(shifting + 1));
+                if (shifted.id() != null) {
+                    modifiedIds.add(shifted.id());
+                    shiftedIds.add(shifted.id());
+                }
+            }
+            topZ = Math.max(topZ, top + 1);
+        }
+
+        layout.put(z, widget.z(z));
+        topZ = Math.max(topZ, z);
+    }
+}
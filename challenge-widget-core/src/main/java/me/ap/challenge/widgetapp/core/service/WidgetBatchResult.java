@@ -0,0 +1,15 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+
+import java.util.Collection;
+
+/**
+ * The outcome of a batch of {@link WidgetOperation}s.
+ *
+ * @param widgets    the new state of every {@link Widget} created or modified by the batch, including the ones moved to
+ *                   make space for others
+ * @param deletedIds the ids of the Widgets deleted by the batch
+ */
+public record WidgetBatchResult(Collection<Widget> widgets, Collection<Long> deletedIds) {
+}
@@ -0,0 +1,162 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.search.Search;
+import me.ap.challenge.widgetapp.core.model.Widget;
+
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of the committed {@link Widget}s by id, in front of the storage layer, evicting by size.
+ * <p>
+ * The Widgets written by a modification are evicted once it has committed, as given by its {@link WidgetChange}s. The
+ * Widgets shifted by a bulk update are not known by id: they are found by their {@code Z} range in an index of the
+ * cached ones. A Widget loaded while a modification commits might be older than it, so it is cached only if no
+ * eviction has happened since the load started: the check and the evictions are serialized by a lock.
+ * <p>
+ * Only the storage layer knows of the modifications made by other service instances: the cache is meant for a single
+ * one. Hits and misses are recorded as the Micrometer cache metrics named {@value #NAME}, tagged with the board.
+ */
+class WidgetCache {
+    static final String NAME = "widgets";
+
+    private final Cache<Long, Widget> cache;
+    private final MeterRegistry registry;
+    private final String board;
+    // the z and id of every cached Widget, possibly of a few evicted ones too
+    private final NavigableSet<ZKey> zIndex = new ConcurrentSkipListSet<>();
+    private final Lock lock = new ReentrantLock();
+    private volatile long evictions;
+
+    private record ZKey(int z, long id) implements Comparable<ZKey> {
+        @Override
+        public int compareTo(ZKey other) {
+            int byZ = Integer.compare(z, other.z);
+            return byZ != 0 ? byZ : Long.compare(id, other.id);
+        }
+    }
+
+    /**
+     * @param size  the maximum number of Widgets cached, 0 to disable the cache
+     * @param board the board of the cached Widgets
+     */
+    WidgetCache(int size, MeterRegistry registry, long board) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The cache size must not be negative, was " + size);
+        }
+
+        this.registry = registry;
+        this.board = Long.toString(board);
+        cache = size == 0 ? null : Caffeine.newBuilder()
+                .maximumSize(size)
+                .evictionListener((Long id, Widget widget, RemovalCause cause) -> zIndex.remove(new ZKey(widget.z(), id)))
+                .recordStats()
+                .build();
+        if (cache != null) {
+            CaffeineCacheMetrics.monitor(registry, cache, NAME, WidgetMetrics.BOARD, this.board);
+        }
+    }
+
+    private static Widget copy(Widget widget) {
+        return widget.toBuilder().build();
+    }
+
+    /**
+     * Gets a cached Widget, without loading it.
+     */
+    Optional<Widget> getIfPresent(Long id) {
+        return cache == null ? Optional.empty() : Optional.ofNullable(cache.getIfPresent(id)).map(WidgetCache::copy);
+    }
+
+    /**
+     * Gets a Widget, loading it with the given function if not cached.
+     *
+     * @param id     the id of the Widget
+     * @param loader loads a committed Widget from the storage layer
+     * @return a copy of the Widget, if present
+     */
+    Optional<Widget> get(Long id, Function<Long, Optional<Widget>> loader) {
+        if (cache == null) {
+            return loader.apply(id);
+        }
+
+        var cached = cache.getIfPresent(id);
+        if (cached != null) {
+            return Optional.of(copy(cached));
+        }
+
+        long seen = evictions;
+        var loaded = loader.apply(id);
+        loaded.ifPresent(widget -> {
+            lock.lock();
+            try {
+                if (seen == evictions && cache.asMap().putIfAbsent(id, copy(widget)) == null) {
+                    zIndex.add(new ZKey(widget.z(), id));
+                }
+            } finally {
+                lock.unlock();
+            }
+        });
+        return loaded;
+    }
+
+    /**
+     * Evicts the Widgets written by a committed modification.
+     */
+    void evict(List<? extends WidgetChange> changes) {
+        if (cache == null || changes.isEmpty()) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            evictions++;
+            for (var change : changes) {
+                switch (change) {
+                    case WidgetChange.Updated updated -> evict(updated.widget().id());
+                    case WidgetChange.Deleted deleted -> evict(deleted.id());
+                    case WidgetChange.Shifted shifted -> {
+                        var range = zIndex.subSet(new ZKey(shifted.fromZ(), Long.MIN_VALUE), true,
+                                new ZKey(shifted.toZ(), Long.MAX_VALUE), true);
+                        List.copyOf(range).forEach(key -> evict(key.id()));
+                        range.clear();
+                    }
+                    case WidgetChange.Created created -> {
+                        // not cached before existing
+                    }
+                    case WidgetChange.Overflowed overflowed -> {
+                        // not a modification
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the cache meters of the board from the registry, once the board is evicted.
+     */
+    void close() {
+        if (cache != null) {
+            Search.in(registry).tags("cache", NAME, WidgetMetrics.BOARD, board).meters().forEach(registry::remove);
+        }
+    }
+
+    private void evict(Long id) {
+        var evicted = cache.asMap().remove(id);
+        if (evicted != null) {
+            zIndex.remove(new ZKey(evicted.z(), id));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+
+/**
+ * A committed change to the stored {@link Widget}s, as published by {@link WidgetChangeFeed}.
+ * <p>
+ * Applying the changes in order to a copy of the Widgets brings it up to date: Widgets created or updated are given
+ * with their whole new state, while the Widgets shifted to make space for others are given as a {@code Z} range.
+ * <p>
+ * Every change is stamped with the board revision of the modification that made it, and the changes are published in
+ * revision order: a {@link Shifted} range is only meaningful against the Widgets as of the preceding revision.
+ */
+public sealed interface WidgetChange {
+    /**
+     * Gets the board revision of the modification that made the change.
+     */
+    long revision();
+
+    /**
+     * A Widget has been created.
+     *
+     * @param widget the new Widget state
+     */
+    record Created(Widget widget) implements WidgetChange {
+        @Override
+        public long revision() {
+            return widget.revision();
+        }
+    }
+
+    /**
+     * A Widget has been updated.
+     *
+     * @param widget the new Widget state
+     */
+    record Updated(Widget widget) implements WidgetChange {
+        @Override
+        public long revision() {
+            return widget.revision();
+        }
+    }
+
+    /**
+     * A Widget has been deleted.
+     *
+     * @param revision the revision of the deletion
+     * @param id       the id of the deleted Widget
+     */
+    record Deleted(long revision, Long id) implements WidgetChange {
+    }
+
+    /**
+     * The Widgets with {@code Z} in the given closed range have been shifted by the given distance, to make space for
+     * another one.
+     *
+     * @param revision the revision of the shift
+     * @param fromZ    the bottom of the range, before the shift
+     * @param toZ      the top of the range, before the shift
+     * @param by       the distance the range has been shifted by
+     */
+    record Shifted(long revision, int fromZ, int toZ, int by) implements WidgetChange {
+        /**
+         * Counts the shifted Widgets: the range is a run of occupied {@code Z}s.
+         */
+        public int count() {
+            return toZ - fromZ + 1;
+        }
+    }
+
+    /**
+     * Some changes have been dropped, as the subscriber did not keep up with them: the Widgets must be read again.
+     *
+     * @param revision the revision of the last change dropped
+     */
+    record Overflowed(long revision) implements WidgetChange {
+    }
+}
@@ -0,0 +1,193 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Broadcasts the committed {@link WidgetChange}s to subscribers, each with its own bounded buffer.
+ * <p>
+ * A subscriber is notified when changes become available in its empty buffer, and drains them at its own pace. A change
+ * to a Widget with a change still buffered replaces it, moved to the end of the buffer, so that a slow subscriber only
+ * gets the latest state: created and updated Widgets come with their whole state, so applying only the last change of
+ * each Widget, after the shifts, yields the same Widgets. A Widget created and deleted while buffered is dropped.
+ * <p>
+ * When a buffer overflows its changes are dropped, and the subscriber gets a single {@link WidgetChange.Overflowed}
+ * instead, then the changes following it.
+ * <p>
+ * As modifications might commit out of revision order, their changes are held until every modification up to their
+ * revision has completed, then published in revision order: see {@link #hold(List)} and {@link #release(long)}.
+ * <p>
+ * The feed of an evicted board is closed, closing all its subscriptions: see {@link Subscription#isClosed()}.
+ */
+public class WidgetChangeFeed {
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final Lock lock = new ReentrantLock();
+    // revision -> changes committed, not published yet
+    private final NavigableMap<Long, List<WidgetChange>> held = new TreeMap<>();
+
+    /**
+     * Subscribes to the changes published from now on.
+     *
+     * @param capacity    the maximum number of changes buffered, once coalesced
+     * @param onAvailable notified, on the publishing thread, when changes become available in the empty buffer
+     * @return the subscription, to drain and eventually close
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public Subscription subscribe(int capacity, Runnable onAvailable) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The change buffer capacity must be positive, was " + capacity);
+        }
+
+        var subscription = new Subscription(capacity, onAvailable);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Holds the changes of a committed modification, until released.
+     */
+    void hold(List<? extends WidgetChange> changes) {
+        lock.lock();
+        try {
+            changes.forEach(change -> held.computeIfAbsent(change.revision(), key -> new ArrayList<>()).add(change));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Publishes the held changes up to the given revision, in revision order.
+     *
+     * @param stable the revision up to which every modification has completed
+     */
+    void release(long stable) {
+        lock.lock();
+        try {
+            var released = held.headMap(stable, true);
+            released.values().forEach(this::publish);
+            released.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes all subscriptions, notifying their subscribers.
+     */
+    void close() {
+        subscriptions.forEach(Subscription::end);
+    }
+
+    /**
+     * Publishes the changes of a modification to every subscriber, in order.
+     */
+    void publish(List<? extends WidgetChange> changes) {
+        if (!changes.isEmpty()) {
+            subscriptions.forEach(subscription -> subscription.offer(changes));
+        }
+    }
+
+    public class Subscription implements AutoCloseable {
+        private final int capacity;
+        private final Runnable onAvailable;
+        private final Lock lock = new ReentrantLock();
+        // the buffered changes in order, keyed by Widget id, or by a key of their own for the shifts
+        private final SequencedMap<Object, WidgetChange> buffer = new LinkedHashMap<>();
+        private boolean overflowed;
+        private long dropped;
+        private volatile boolean closed;
+
+        private Subscription(int capacity, Runnable onAvailable) {
+            this.capacity = capacity;
+            this.onAvailable = onAvailable;
+        }
+
+        private void offer(List<? extends WidgetChange> changes) {
+            boolean available;
+            lock.lock();
+            try {
+                available = buffer.isEmpty() && !overflowed;
+                changes.forEach(this::buffer);
+                if (buffer.size() > capacity) {
+                    buffer.clear();
+                    overflowed = true;
+                    dropped = changes.get(changes.size() - 1).revision();
+                }
+                available &= !buffer.isEmpty() || overflowed;
+            } finally {
+                lock.unlock();
+            }
+
+            if (available) {
+                onAvailable.run();
+            }
+        }
+
+        private void buffer(WidgetChange change) {
+            if (change instanceof WidgetChange.Created created) {
+                buffer.put(created.widget().id(), created);
+            } else if (change instanceof WidgetChange.Updated updated) {
+                var previous = buffer.remove(updated.widget().id());
+                buffer.put(updated.widget().id(), previous instanceof WidgetChange.Created
+                        ? new WidgetChange.Created(updated.widget())
+                        : updated);
+            } else if (change instanceof WidgetChange.Deleted deleted) {
+                if (!(buffer.remove(deleted.id()) instanceof WidgetChange.Created)) {
+                    buffer.put(deleted.id(), deleted);
+                }
+            } else {
+                buffer.put(new Object(), change);
+            }
+        }
+
+        /**
+         * Takes the oldest buffered changes, a {@link WidgetChange.Overflowed} first if changes have been dropped.
+         *
+         * @param max the maximum number of changes to take
+         * @return the changes taken, empty if none is buffered
+         */
+        public List<WidgetChange> drain(long max) {
+            lock.lock();
+            try {
+                var drained = new ArrayList<WidgetChange>();
+                if (overflowed && max > 0) {
+                    drained.add(new WidgetChange.Overflowed(dropped));
+                    overflowed = false;
+                }
+                while (drained.size() < max && !buffer.isEmpty()) {
+                    drained.add(buffer.pollFirstEntry().getValue());
+                }
+                return drained;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Tells whether the subscription is closed, by the subscriber or by the feed: no more changes are received,
+         * but the buffered ones can still be drained.
+         */
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Closes the subscription on behalf of the feed, notifying the subscriber.
+         */
+        private void end() {
+            close();
+            onAvailable.run();
+        }
+
+        /**
+         * Stops receiving changes.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package me.ap.challenge.widgetapp.core.service;
+
+/**
+ * The outcome of compacting a chunk of the {@code Z}s of a board, see {@link WidgetService#compact(Integer, int)}.
+ *
+ * @param floor   the {@code Z} of the last Widget of the chunk, to compact the next chunk above; null if the board
+ *                is empty
+ * @param scanned the Widgets in the chunk
+ * @param moved   the Widgets moved down
+ * @param last    if the chunk is the last one, i.e. the board is compacted up to its top
+ */
+public record WidgetCompaction(Integer floor, int scanned, int moved, boolean last) {
+}
@@ -0,0 +1,321 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.ap.challenge.widgetapp.core.model.Widget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compacts the {@code Z} space of the boards, closing the gaps left by deletions and moves, a chunk at a time, see
+ * {@link WidgetService#compact(Integer, int)}.
+ * <p>
+ * Every chunk is renumbered in a transaction of its own, followed by a pause: readers are never held up for longer
+ * than a chunk, and writers get to run between chunks. A board is compacted by one run at a time.
+ * <p>
+ * The boards whose {@code Z} span exceeds {@code maxSparsity} times the one they would have if compacted are
+ * compacted every {@code widgetapp.compaction.interval}, when scheduling is enabled: see
+ * {@link #compactSparseBoards()}. Any board can be compacted on demand, see {@link #start(long)}.
+ * <p>
+ * The progress is measured in the given {@link MeterRegistry}, tagged with the {@value WidgetMetrics#BOARD}, until the
+ * board is evicted, see {@link WidgetService#onBoard(long)}:
+ * <ul>
+ *     <li>{@value #SCANNED}: the Widgets scanned by the runs;</li>
+ *     <li>{@value #MOVED}: the Widgets moved down by the runs;</li>
+ *     <li>{@value #PROGRESS}: the fraction of the Widgets scanned by the current run, or by the last one.</li>
+ * </ul>
+ */
+@Component
+public class WidgetCompactor {
+    static final String SCANNED = "widgetapp.z.compaction.scanned";
+    static final String MOVED = "widgetapp.z.compaction.moved";
+    static final String PROGRESS = "widgetapp.z.compaction.progress";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WidgetCompactor.class);
+    private static final int CHUNK_ATTEMPTS = 3;
+
+    private final WidgetService widgetService;
+    private final MeterRegistry meterRegistry;
+    private final int chunk;
+    private final Duration pause;
+    private final double maxSparsity;
+    private final ConcurrentMap<Long, Run> runs = new ConcurrentHashMap<>();
+
+    /**
+     * The state of the compaction of a board, and its metrics.
+     */
+    private static class Run {
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final Counter scannedCounter;
+        private final Counter movedCounter;
+        private final Gauge progressGauge;
+        // the board has been evicted while running: the run is dropped once done, guarded by the entry of the board
+        private boolean retired;
+        private volatile long scanned;
+        private volatile long moved;
+        private volatile long total;
+
+        Run(MeterRegistry registry, long board) {
+            var tags = Tags.of(WidgetMetrics.BOARD, Long.toString(board));
+            scannedCounter = Counter.builder(SCANNED)
+                    .description("The Widgets scanned by the Z compaction")
+                    .tags(tags)
+                    .register(registry);
+            movedCounter = Counter.builder(MOVED)
+                    .description("The Widgets moved down by the Z compaction")
+                    .tags(tags)
+                    .register(registry);
+            progressGauge = Gauge.builder(PROGRESS, this, Run::progress)
+                    .description("The fraction of the Widgets scanned by the current, or last, Z compaction")
+                    .tags(tags)
+                    .register(registry);
+        }
+
+        /**
+         * Starts a run over the given number of Widgets, unless one is running already.
+         */
+        boolean begin(long widgets) {
+            if (!running.compareAndSet(false, true)) {
+                return false;
+            }
+            scanned = 0;
+            moved = 0;
+            total = widgets;
+            return true;
+        }
+
+        double progress() {
+            long all = total;
+            return all == 0 ? 1 : Math.min(1, (double) scanned / all);
+        }
+
+        /**
+         * Removes the metrics of the run.
+         */
+        void close(MeterRegistry registry) {
+            registry.remove(scannedCounter);
+            registry.remove(movedCounter);
+            registry.remove(progressGauge);
+        }
+    }
+
+    /**
+     * The state of the compaction of a board.
+     *
+     * @param board    the board
+     * @param running  if the board is being compacted
+     * @param scanned  the Widgets scanned by the current run, or by the last one
+     * @param moved    the Widgets moved down by the current run, or by the last one
+     * @param progress the fraction of the Widgets scanned by the current run, or by the last one
+     */
+    public record Status(long board, boolean running, long scanned, long moved, double progress) {
+    }
+
+    @Autowired
+    public WidgetCompactor(WidgetService widgetService,
+                           ObjectProvider<MeterRegistry> meterRegistry,
+                           @Value("${widgetapp.compaction.chunk:500}") int chunk,
+                           @Value("${widgetapp.compaction.pause:10ms}") Duration pause,
+                           @Value("${widgetapp.compaction.max-sparsity:4}") double maxSparsity) {
+        this(widgetService, meterRegistry.getIfAvailable(SimpleMeterRegistry::new), chunk, pause, maxSparsity);
+    }
+
+    /**
+     * Creates a compactor of the boards of the given service, renumbering up to {@code chunk} Widgets at a time and
+     * pausing for {@code pause} in between, compacting on schedule the boards whose {@code Z} span exceeds
+     * {@code maxSparsity} times the one they would have if compacted.
+     */
+    public WidgetCompactor(WidgetService widgetService,
+                           MeterRegistry meterRegistry,
+                           int chunk,
+                           Duration pause,
+                           double maxSparsity) {
+        if (chunk < 1) {
+            throw new IllegalArgumentException("The compaction chunk must be positive, was " + chunk);
+        }
+        if (maxSparsity < 1) {
+            throw new IllegalArgumentException("The maximum sparsity must be at least 1, was " + maxSparsity);
+        }
+
+        this.widgetService = widgetService;
+        this.meterRegistry = meterRegistry;
+        this.chunk = chunk;
+        this.pause = pause;
+        this.maxSparsity = maxSparsity;
+        run(Widget.DEFAULT_BOARD);
+        widgetService.onRetired(this::retire);
+    }
+
+    private Run run(long board) {
+        return runs.computeIfAbsent(board, key -> new Run(meterRegistry, key));
+    }
+
+    /**
+     * Drops the run of an evicted board along with its metrics, once done if running.
+     */
+    private void retire(long board) {
+        runs.computeIfPresent(board, (key, run) -> {
+            if (run.running.get()) {
+                run.retired = true;
+                return run;
+            }
+            run.close(meterRegistry);
+            return null;
+        });
+    }
+
+    /**
+     * Ends a run, dropping it along with its metrics if the board has been evicted meanwhile.
+     */
+    private void end(long board, Run run) {
+        // within the entry of the board, so that retire(long) either finds the run running, or drops it itself
+        runs.compute(board, (key, current) -> {
+            run.running.set(false);
+            if (current == run && run.retired) {
+                run.close(meterRegistry);
+                return null;
+            }
+            return current;
+        });
+    }
+
+    /**
+     * Gets the state of the compaction of a board.
+     *
+     * @param board the board
+     * @return the state of the current run, or of the last one, or an idle state if the board has never been
+     * compacted
+     */
+    public Status getStatus(long board) {
+        var run = runs.get(board);
+        if (run == null) {
+            return new Status(board, false, 0, 0, 1);
+        }
+        return new Status(board, run.running.get(), run.scanned, run.moved, run.progress());
+    }
+
+    /**
+     * Tells if a board is sparse enough to be compacted: the span from its top {@code Z} down to its bottom one, or to 0
+     * if higher, exceeds {@code maxSparsity} times the one it would have if compacted.
+     *
+     * @param board the board
+     * @return if the board should be compacted
+     */
+    public boolean isSparse(long board) {
+        var service = widgetService.onBoardForReading(board);
+        Optional<Integer> top = service.getMaxZ();
+        Optional<Integer> bottom = service.getMinZ();
+        if (top.isEmpty() || bottom.isEmpty()) {
+            return false;
+        }
+
+        long span = (long) top.get() - Math.min(bottom.get(), 0);
+        return span > maxSparsity * Math.max(service.count(), 1) * service.zGap();
+    }
+
+    /**
+     * Compacts the sparse boards kept in memory, one after the other, as by {@link #isSparse(long)}: a board not used
+     * for long enough to be evicted is not written to either, so its gaps do not grow.
+     */
+    @Scheduled(fixedDelayString = "${widgetapp.compaction.interval:PT1H}",
+            initialDelayString = "${widgetapp.compaction.interval:PT1H}")
+    public void compactSparseBoards() {
+        for (var service : widgetService.getBoards()) {
+            if (isSparse(service.getBoard())) {
+                compact(service.getBoard());
+            }
+        }
+    }
+
+    /**
+     * Starts compacting a board in the background, unless it is being compacted already, or has no Widgets.
+     *
+     * @param board the board
+     * @return the state of the compaction
+     */
+    public Status start(long board) {
+        long widgets = widgetService.onBoardForReading(board).count();
+        if (widgets == 0) {
+            return getStatus(board);
+        }
+
+        var run = run(board);
+        if (run.begin(widgets)) {
+            Thread.ofVirtual().name("widget-compaction-" + board).start(() -> compact(board, run));
+        }
+        return getStatus(board);
+    }
+
+    /**
+     * Compacts a board, unless it is being compacted already, or has no Widgets.
+     *
+     * @param board the board
+     * @return the state of the compaction once done, or of the one already running
+     */
+    public Status compact(long board) {
+        long widgets = widgetService.onBoardForReading(board).count();
+        if (widgets == 0) {
+            return getStatus(board);
+        }
+
+        var run = run(board);
+        if (run.begin(widgets)) {
+            compact(board, run);
+        }
+        return getStatus(board);
+    }
+
+    private void compact(long board, Run run) {
+        var service = widgetService.onBoard(board);
+        try {
+            Integer floor = null;
+            int failures = 0;
+            while (true) {
+                WidgetCompaction compaction;
+                try {
+                    compaction = service.compact(floor, chunk);
+                } catch (RuntimeException e) {
+                    // conflicting with a write that has not been retried long enough: try the chunk again later
+                    if (++failures >= CHUNK_ATTEMPTS) {
+                        throw e;
+                    }
+                    Thread.sleep(pause.multipliedBy(1L << failures));
+                    continue;
+                }
+
+                failures = 0;
+                floor = compaction.floor();
+                run.scanned += compaction.scanned();
+                run.moved += compaction.moved();
+                run.scannedCounter.increment(compaction.scanned());
+                run.movedCounter.increment(compaction.moved());
+                if (compaction.last()) {
+                    LOGGER.info("Compacted the Z of board {}: {} Widgets moved out of {}", board, run.moved,
+                            run.scanned);
+                    return;
+                }
+                Thread.sleep(pause);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Cannot compact the Z of board {}", board, e);
+        } finally {
+            end(board, run);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+
+import java.util.Collection;
+
+/**
+ * The changes to the board since a revision, see {@link WidgetService#getChangesSince(long)}.
+ *
+ * @param revision   the revision to ask the next changes since
+ * @param resync     if the changes since the asked revision are unknown: all the Widgets must be read again, and the
+ *                   next changes asked since the given revision
+ * @param widgets    the current state of every {@link Widget} written since the asked revision, including the ones
+ *                   moved to make space for others
+ * @param deletedIds the ids of the Widgets deleted since the asked revision
+ */
+public record WidgetDelta(long revision, boolean resync, Collection<Widget> widgets, Collection<Long> deletedIds) {
+}
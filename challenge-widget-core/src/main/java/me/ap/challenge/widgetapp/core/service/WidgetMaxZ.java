@@ -0,0 +1,115 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.repo.NoFreeZException;
+import me.ap.challenge.widgetapp.core.repo.WidgetRepo;
+
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The maximum {@code Z} among the stored {@link Widget}s of a board, kept in memory so that placing a Widget on top
+ * is a pure insert.
+ * <p>
+ * The value is loaded from the storage layer when first needed, then raised as Widgets are placed above it. When the
+ * top Widget leaves its {@code Z} the value is forgotten instead, and loaded again by the next read: the new top is
+ * unknown, but this is rare.
+ * <p>
+ * Allocating a {@code Z} on top raises the value immediately, so that concurrent allocations never get the same
+ * {@code Z}. Changes of transactions rolled back must be discarded by forgetting the value.
+ * <p>
+ * Guarded by a {@link Lock} rather than by {@code synchronized}, as loading the value queries the storage layer, which
+ * would pin the carrier of a virtual thread.
+ */
+class WidgetMaxZ {
+    private final WidgetRepo widgetRepo;
+    private final long board;
+    private final Lock lock = new ReentrantLock();
+    private boolean known;
+    // null when no Widget is stored
+    private Integer max;
+
+    WidgetMaxZ(WidgetRepo widgetRepo, long board) {
+        this.widgetRepo = widgetRepo;
+        this.board = board;
+    }
+
+    Optional<Integer> get() {
+        lock.lock();
+        try {
+            ensureKnown();
+            return Optional.ofNullable(max);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Allocates the {@code Z} at the given distance above the top one, or from 0 if no Widget is stored, or right above
+     * the top one if the distance would go past the limit of an integer.
+     *
+     * @param gap the distance from the top
+     * @return the allocated Z, now the top one
+     * @throws NoFreeZException if the top one is at the limit of an integer
+     */
+    int allocate(int gap) {
+        lock.lock();
+        try {
+            ensureKnown();
+            int top = Optional.ofNullable(max).orElse(0);
+            if (top == Integer.MAX_VALUE) {
+                throw new NoFreeZException("There is no free Z left above " + top);
+            }
+            max = (long) top + gap > Integer.MAX_VALUE ? top + 1 : top + gap;
+            return max;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a Widget now occupies the given {@code Z}.
+     */
+    void raise(int z) {
+        lock.lock();
+        try {
+            if (known && (max == null || z > max)) {
+                max = z;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a Widget left the given {@code Z}.
+     */
+    void leave(int z) {
+        lock.lock();
+        try {
+            if (known && max != null && z >= max) {
+                forget();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void forget() {
+        lock.lock();
+        try {
+            known = false;
+            max = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureKnown() {
+        if (!known) {
+            max = widgetRepo.findMaxZ(board).orElse(null);
+            known = true;
+        }
+    }
+}
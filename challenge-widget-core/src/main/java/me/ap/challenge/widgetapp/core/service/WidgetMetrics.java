@@ -0,0 +1,105 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import me.ap.challenge.widgetapp.core.model.Widget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * The {@link Widget} metrics recorded by {@link WidgetService}:
+ * <ul>
+ *     <li>{@value #SHIFTED}: the distribution of Widgets shifted to make space for a write, by operation;</li>
+ *     <li>{@value #CREATED}: the Widgets created, by whether their {@code Z} was given or placed on top;</li>
+ *     <li>{@value #COUNT}: the Widgets stored;</li>
+ *     <li>{@value #Z_SPAN}: the distance between the lowest and highest {@code Z} stored.</li>
+ * </ul>
+ * All of them are tagged with the {@value #BOARD} they are recorded for. The gauges are only evaluated when the
+ * metrics are read: the count comes from the spatial index, the span from the top and bottom {@code Z} kept in memory.
+ * The meters are removed from the registry once the board is evicted, see {@link #close()}.
+ */
+class WidgetMetrics {
+    static final String SHIFTED = "widgetapp.z.shifted";
+    static final String CREATED = "widgetapp.widgets.created";
+    static final String COUNT = "widgetapp.widgets";
+    static final String Z_SPAN = "widgetapp.z.span";
+    static final String BOARD = "board";
+
+    private final DistributionSummary createShifts;
+    private final DistributionSummary updateShifts;
+    private final DistributionSummary batchShifts;
+    private final Counter autoZCreates;
+    private final Counter explicitZCreates;
+    private final MeterRegistry registry;
+    private final List<Meter> meters = new ArrayList<>();
+
+    WidgetMetrics(MeterRegistry registry,
+                  long board,
+                  WidgetSpatialIndex spatialIndex,
+                  Supplier<Optional<Integer>> maxZ,
+                  Supplier<Optional<Integer>> minZ) {
+        this.registry = registry;
+        var tags = Tags.of(BOARD, Long.toString(board));
+        createShifts = shifts(registry, tags, "create");
+        updateShifts = shifts(registry, tags, "update");
+        batchShifts = shifts(registry, tags, "batch");
+        autoZCreates = created(registry, tags, "auto");
+        explicitZCreates = created(registry, tags, "explicit");
+        meters.addAll(List.of(createShifts, updateShifts, batchShifts, autoZCreates, explicitZCreates));
+
+        meters.add(Gauge.builder(COUNT, spatialIndex, WidgetSpatialIndex::size)
+                .description("The Widgets stored")
+                .tags(tags)
+                .register(registry));
+        meters.add(Gauge.builder(Z_SPAN, () -> maxZ.get()
+                        .flatMap(top -> minZ.get().map(bottom -> (double) top - bottom))
+                        .orElse(0.0))
+                .description("The distance between the lowest and highest Z stored")
+                .tags(tags)
+                .register(registry));
+    }
+
+    private static DistributionSummary shifts(MeterRegistry registry, Tags tags, String operation) {
+        return DistributionSummary.builder(SHIFTED)
+                .description("The Widgets shifted to make space for a write")
+                .tags(tags)
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static Counter created(MeterRegistry registry, Tags tags, String z) {
+        return Counter.builder(CREATED)
+                .description("The Widgets created")
+                .tags(tags)
+                .tag("z", z)
+                .register(registry);
+    }
+
+    void created(boolean autoZ, int shifted) {
+        (autoZ ? autoZCreates : explicitZCreates).increment();
+        createShifts.record(shifted);
+    }
+
+    void updated(int shifted) {
+        updateShifts.record(shifted);
+    }
+
+    void batched(int shifted) {
+        batchShifts.record(shifted);
+    }
+
+    /**
+     * Removes the meters of the board from the registry.
+     */
+    void close() {
+        meters.forEach(registry::remove);
+    }
+}
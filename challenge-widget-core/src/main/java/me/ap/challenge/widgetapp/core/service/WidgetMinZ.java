@@ -0,0 +1,81 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.repo.WidgetRepo;
+
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The minimum {@code Z} among the stored {@link Widget}s of a board, kept in memory as {@link WidgetMaxZ} keeps the
+ * maximum one, so that reading the span of the board does not query the storage layer.
+ * <p>
+ * The value is loaded from the storage layer when first needed, then lowered as Widgets are placed below it. When the
+ * bottom Widget leaves its {@code Z} the value is forgotten instead, and loaded again by the next read. Changes of
+ * transactions rolled back must be discarded by forgetting the value.
+ */
+class WidgetMinZ {
+    private final WidgetRepo widgetRepo;
+    private final long board;
+    private final Lock lock = new ReentrantLock();
+    private boolean known;
+    // null when no Widget is stored
+    private Integer min;
+
+    WidgetMinZ(WidgetRepo widgetRepo, long board) {
+        this.widgetRepo = widgetRepo;
+        this.board = board;
+    }
+
+    Optional<Integer> get() {
+        lock.lock();
+        try {
+            if (!known) {
+                min = widgetRepo.findMinZ(board).orElse(null);
+                known = true;
+            }
+            return Optional.ofNullable(min);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a Widget now occupies the given {@code Z}.
+     */
+    void lower(int z) {
+        lock.lock();
+        try {
+            if (known && (min == null || z < min)) {
+                min = z;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a Widget left the given {@code Z}.
+     */
+    void leave(int z) {
+        lock.lock();
+        try {
+            if (known && min != null && z <= min) {
+                forget();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void forget() {
+        lock.lock();
+        try {
+            known = false;
+            min = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+
+/**
+ * An operation on {@link Widget}s, part of a batch applied by {@link WidgetService#apply(java.util.List)}.
+ */
+public sealed interface WidgetOperation {
+    /**
+     * Creates a Widget like the given one, as {@link WidgetService#create(Widget)}.
+     *
+     * @param widget the new Widget desired state, without id
+     */
+    record Create(Widget widget) implements WidgetOperation {
+    }
+
+    /**
+     * Replaces the state of the Widget with the given id, as {@link WidgetService#update(Widget, Widget)}.
+     *
+     * @param widget          the desired new state, with the id of the Widget to replace; a {@code null} {@code Z} or
+     *                        position keeps the current one
+     * @param expectedVersion the version the Widget must still have, or null for any
+     */
+    record Update(Widget widget, Long expectedVersion) implements WidgetOperation {
+        public Update(Widget widget) {
+            this(widget, null);
+        }
+    }
+
+    /**
+     * Deletes the Widget with the given id, if it exists, as {@link WidgetService#delete(Long)}.
+     *
+     * @param id the id of the Widget to delete
+     */
+    record Delete(Long id) implements WidgetOperation {
+    }
+}
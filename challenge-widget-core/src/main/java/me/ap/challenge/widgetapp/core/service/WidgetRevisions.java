@@ -0,0 +1,187 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.repo.WidgetRepo;
+
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * The revision of a board, increased by every modification, and the ids of the {@link Widget}s recently deleted.
+ * <p>
+ * Every modification gets a revision of its own when it starts, stamped on the Widgets it writes. As modifications
+ * are not serialized, they might commit out of revision order: the stable revision is the highest one such that every
+ * modification up to it has completed, so that a reader having seen every Widget written up to it never misses a later
+ * commit with a lower revision.
+ * <p>
+ * The deletions are kept as tombstones, up to the given retention: older ones are dropped, and the revision of the
+ * last one dropped is the horizon, below which the deletions are unknown. The tombstones are not stored: a previous
+ * service of the board, before a restart or an eviction, might have given revisions above the last one stored, to
+ * deletions now unknown. So the revisions start from the clock when first needed, {@value #PER_MILLI} per
+ * millisecond, unless the stored ones are already above: the first horizon, above any revision given before as long as
+ * the board has had fewer modifications per millisecond than that. They also start above the given floor, the highest
+ * revision given by the evicted services, so that a board evicted and used again never gets a revision twice.
+ * <p>
+ * The modifications committed are also counted, so that a reader can tell if any has committed since.
+ */
+class WidgetRevisions {
+    static final long PER_MILLI = 1000;
+
+    private final WidgetRepo widgetRepo;
+    private final long board;
+    private final int retention;
+    private final LongSupplier floor;
+    private final Lock lock = new ReentrantLock();
+    private boolean known;
+    private long last;
+    private long horizon;
+    // the revisions of the modifications in progress
+    private final NavigableSet<Long> pending = new TreeSet<>();
+    // revision -> ids of the Widgets deleted
+    private final NavigableMap<Long, List<Long>> tombstones = new TreeMap<>();
+    private int tombstoneCount;
+    private long committed;
+
+    WidgetRevisions(WidgetRepo widgetRepo, long board, int retention, LongSupplier floor) {
+        if (retention < 0) {
+            throw new IllegalArgumentException("The tombstone retention must not be negative, was " + retention);
+        }
+
+        this.widgetRepo = widgetRepo;
+        this.board = board;
+        this.retention = retention;
+        this.floor = floor;
+    }
+
+    /**
+     * Starts a modification.
+     *
+     * @return the revision of the modification, pending until {@link #end(long, boolean)}
+     */
+    long begin() {
+        lock.lock();
+        try {
+            ensureKnown();
+            pending.add(++last);
+            return last;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the deletion of a Widget by a pending modification.
+     */
+    void deleted(long revision, Long id) {
+        lock.lock();
+        try {
+            tombstones.computeIfAbsent(revision, key -> new ArrayList<>()).add(id);
+            if (++tombstoneCount > retention) {
+                var dropped = tombstones.pollFirstEntry();
+                tombstoneCount -= dropped.getValue().size();
+                horizon = Math.max(horizon, dropped.getKey());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a modification, discarding its deletions if it has not committed.
+     */
+    void end(long revision, boolean committed) {
+        lock.lock();
+        try {
+            pending.remove(revision);
+            if (committed) {
+                this.committed++;
+            } else {
+                Optional.ofNullable(tombstones.remove(revision)).ifPresent(ids -> tombstoneCount -= ids.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the highest revision such that every modification up to it has completed.
+     */
+    long stable() {
+        lock.lock();
+        try {
+            ensureKnown();
+            return pending.isEmpty() ? last : pending.first() - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the last revision given, or 0 if none has been given yet.
+     */
+    long given() {
+        lock.lock();
+        try {
+            return known ? last : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the modifications committed since the service started.
+     */
+    long committed() {
+        lock.lock();
+        try {
+            return committed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the revision below which the deletions are unknown.
+     */
+    long horizon() {
+        lock.lock();
+        try {
+            ensureKnown();
+            return horizon;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lists the ids of the Widgets deleted by the modifications in the given range of revisions.
+     *
+     * @param after the revision after which to list
+     * @param upTo  the last revision to list
+     * @return the deleted ids, in revision order
+     */
+    List<Long> deletedBetween(long after, long upTo) {
+        lock.lock();
+        try {
+            if (after >= upTo) {
+                return List.of();
+            }
+            return tombstones.subMap(after, false, upTo, true).values().stream()
+                    .flatMap(Collection::stream)
+                    .toList();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureKnown() {
+        if (!known) {
+            last = Math.max(widgetRepo.findMaxRevision(board).orElse(0L) + 1,
+                    Math.max(System.currentTimeMillis() * PER_MILLI, floor.getAsLong()));
+            horizon = last;
+            known = true;
+        }
+    }
+}
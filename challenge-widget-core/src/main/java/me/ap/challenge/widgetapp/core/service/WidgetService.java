@@ -1,33 +1,424 @@
 package me.ap.challenge.widgetapp.core.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.transaction.Transactional;
 import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.repo.NoFreeZException;
 import me.ap.challenge.widgetapp.core.repo.WidgetRepo;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.Collection;
-import java.util.NoSuchElementException;
-import java.util.Optional;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
- * Business logic for {@link Widget}s.
+ * Business logic for the {@link Widget}s of a board.
+ * <p>
+ * Every board has a {@code Z} space of its own, and a service of its own, see {@link #onBoard(long)}: the state kept in
+ * memory below is per board, so that the modifications of a board never wait for, nor conflict with, the ones of
+ * another. The Spring bean serves the {@link Widget#DEFAULT_BOARD default board}. The services of the other boards are
+ * kept for up to {@code maxBoards} of them, each for {@code boardIdle} since last used, and are not created to read a
+ * board without Widgets, see {@link #onBoardForReading(long)}.
+ * <p>
+ * The {@code Z} space is kept sparse: Widgets created without an explicit {@code Z} are placed {@code zGap} above the
+ * current top, and freeing a {@code Z} only shifts the contiguous run of occupied {@code Z}s above it, up to the first
+ * gap. A typical insert then rewrites a handful of Widgets instead of all the ones above it. Moving a Widget to another
+ * {@code Z} only shifts the Widgets between its current and new {@code Z}, and only if the new one is taken.
+ * <p>
+ * The top {@code Z} is kept in memory, so that placing a Widget on top does not query the storage layer.
+ * <p>
+ * Modifications are not serialized: the uniqueness of {@code Z} is enforced by the storage layer, and a modification
+ * conflicting with a concurrent one is retried in a new transaction, up to {@code writeAttempts} times. Placing Widgets
+ * on top never conflicts within a service instance, as every one gets its own {@code Z}. Every write of a Widget, shifts
+ * included, increases its version: an update based on a version since written fails instead, and is not retried.
+ * <p>
+ * On a storage layer whose writes are not rolled back, see {@link WidgetRepo#isTransactional()}, the modifications of a
+ * board are serialized instead: a modification failing half way through would leave its first writes behind, for the
+ * next attempt to start from.
+ * <p>
+ * Widgets are also indexed by their rectangle on the plane, in memory, to quickly find the ones in a viewport. The
+ * index is loaded at startup and updated after every committed modification.
+ * <p>
+ * Committed modifications are measured in the given {@link MeterRegistry}, see {@link WidgetMetrics}, and published
+ * as {@link WidgetChange}s to the subscribers of the change feed, in revision order.
+ * <p>
+ * Every modification gets a board revision, stamped on the Widgets it writes, shifted ones included, so that clients
+ * can ask for the changes since the revision they have seen, see {@link WidgetRevisions}.
+ * <p>
+ * Widgets retrieved by id outside of a transaction are cached, up to {@code cacheSize} of them, and evicted once a
+ * modification writing them commits, see {@link WidgetCache}. Listed Widgets are read as plain objects rather than
+ * managed entities, see {@link WidgetRepo#listAll()}: modifying them does not modify the stored ones.
+ * <p>
+ * Single modifications {@link #submit(WidgetOperation) submitted} concurrently can be grouped into batches of up to
+ * {@code pipelineBatch} of them, waiting up to {@code pipelineLinger} for one another, each applied in a single
+ * transaction, see {@link WidgetWritePipeline}. They are applied one at a time if {@code pipelineBatch} is 0. The
+ * workers grouping them are started on demand, and stopped by {@link #close()}.
  */
 @Component
 public class WidgetService {
+    private static final int LOAD_CHUNK = 1000;
+    private static final int DEFAULT_WRITE_ATTEMPTS = 8;
+    private static final long BACKOFF_NANOS = 100_000;
+    private static final int DEFAULT_TOMBSTONES = 10_000;
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
+    private static final int DEFAULT_MAX_BOARDS = 1000;
+    private static final Duration DEFAULT_BOARD_IDLE = Duration.ofHours(1);
+
     private final WidgetRepo widgetRepo;
+    private final long board;
+    // the service of the default board
+    private final WidgetService root;
+    // the services of the other boards kept in memory, shared by all of them
+    private final Cache<Long, WidgetService> boards;
+    // the services of the other boards created so far, counted by the root
+    private final AtomicLong boardsCreated = new AtomicLong();
+    // the highest revision given by the services of the boards evicted so far, kept by the root
+    private final AtomicLong evictedRevision = new AtomicLong();
+    // run with the board of every service removed from memory, shared by all of them
+    private final List<LongConsumer> retirementActions;
+    // a service of a board without Widgets, serving reads only
+    private final boolean detached;
+    private final MeterRegistry meterRegistry;
+    private final int zGap;
+    private final int cellSize;
+    private final int tombstones;
+    private final int cacheSize;
+    private final WidgetSpatialIndex spatialIndex;
+    private final WidgetMaxZ maxZ;
+    private final WidgetMinZ minZ;
+    private final WidgetRevisions revisions;
+    // tells the board versions of this service instance apart from the ones of previous instances
+    private final String epoch;
+    private final TransactionTemplate transactionTemplate;
+    private final int writeAttempts;
+    // serializes the modifications of the board on a non transactional storage layer, null otherwise
+    private final Lock serial;
+    // held shared by the modifications in progress, and exclusively to retire the service
+    private final ReadWriteLock retirement = new ReentrantReadWriteLock();
+    // guarded by retirement
+    private boolean retired;
+    // null if detached
+    private final WidgetMetrics metrics;
+    private final WidgetChangeFeed changeFeed = new WidgetChangeFeed();
+    private final WidgetCache cache;
+    private final int pipelineBatch;
+    private final Duration pipelineLinger;
+    // null if single modifications are not grouped
+    private final WidgetWritePipeline pipeline;
+
+    /**
+     * Creates a service on a non transactional storage layer, with its own metrics and without cache.
+     */
+    public WidgetService(WidgetRepo widgetRepo,
+                         int zGap,
+                         int cellSize) {
+        this(widgetRepo, null, new SimpleMeterRegistry(), zGap, cellSize, DEFAULT_WRITE_ATTEMPTS, DEFAULT_TOMBSTONES, 0);
+    }
+
+    @Autowired
+    public WidgetService(WidgetRepo widgetRepo,
+                         PlatformTransactionManager transactionManager,
+                         ObjectProvider<MeterRegistry> meterRegistry,
+                         @Value("${widgetapp.z.gap:10}") int zGap,
+                         @Value("${widgetapp.spatial.cell-size:256}") int cellSize,
+                         @Value("${widgetapp.write.attempts:" + DEFAULT_WRITE_ATTEMPTS + "}") int writeAttempts,
+                         @Value("${widgetapp.sync.tombstones:" + DEFAULT_TOMBSTONES + "}") int tombstones,
+                         @Value("${widgetapp.cache.size:" + DEFAULT_CACHE_SIZE + "}") int cacheSize,
+                         @Value("${widgetapp.write.pipeline.max-batch:0}") int pipelineBatch,
+                         @Value("${widgetapp.write.pipeline.linger:0ms}") Duration pipelineLinger,
+                         @Value("${widgetapp.boards.max:" + DEFAULT_MAX_BOARDS + "}") int maxBoards,
+                         @Value("${widgetapp.boards.idle:PT1H}") Duration boardIdle) {
+        this(widgetRepo, transactionManager, meterRegistry.getIfAvailable(SimpleMeterRegistry::new),
+                zGap, cellSize, writeAttempts, tombstones, cacheSize, pipelineBatch, pipelineLinger,
+                maxBoards, boardIdle);
+    }
+
+    /**
+     * Creates a service of the default board as by the constructor below, applying the single modifications one at
+     * a time.
+     */
+    public WidgetService(WidgetRepo widgetRepo,
+                         PlatformTransactionManager transactionManager,
+                         MeterRegistry meterRegistry,
+                         int zGap,
+                         int cellSize,
+                         int writeAttempts,
+                         int tombstones,
+                         int cacheSize) {
+        this(widgetRepo, transactionManager, meterRegistry, zGap, cellSize, writeAttempts, tombstones, cacheSize,
+                0, Duration.ZERO);
+    }
+
+    /**
+     * Creates a service of the default board as by the constructor below, keeping the services of up to
+     * {@value #DEFAULT_MAX_BOARDS} other boards, for an hour since last used.
+     */
+    public WidgetService(WidgetRepo widgetRepo,
+                         PlatformTransactionManager transactionManager,
+                         MeterRegistry meterRegistry,
+                         int zGap,
+                         int cellSize,
+                         int writeAttempts,
+                         int tombstones,
+                         int cacheSize,
+                         int pipelineBatch,
+                         Duration pipelineLinger) {
+        this(widgetRepo, transactionManager, meterRegistry, zGap, cellSize, writeAttempts, tombstones, cacheSize,
+                pipelineBatch, pipelineLinger, DEFAULT_MAX_BOARDS, DEFAULT_BOARD_IDLE);
+    }
+
+    /**
+     * Creates a service of the default board recording its metrics in the given registry, on a non transactional
+     * storage layer if no transaction manager is given, keeping up to {@code tombstones} deleted ids for the changes
+     * since a revision, caching up to {@code cacheSize} Widgets by id, none if 0, and grouping up to
+     * {@code pipelineBatch} single modifications submitted within {@code pipelineLinger}, none if 0. The services of
+     * up to {@code maxBoards} other boards are kept, each for {@code boardIdle} since last used.
+     */
+    public WidgetService(WidgetRepo widgetRepo,
+                         PlatformTransactionManager transactionManager,
+                         MeterRegistry meterRegistry,
+                         int zGap,
+                         int cellSize,
+                         int writeAttempts,
+                         int tombstones,
+                         int cacheSize,
+                         int pipelineBatch,
+                         Duration pipelineLinger,
+                         int maxBoards,
+                         Duration boardIdle) {
+        if (zGap < 1) {
+            throw new IllegalArgumentException("The Z gap must be positive, was " + zGap);
+        }
+        if (writeAttempts < 1) {
+            throw new IllegalArgumentException("The write attempts must be positive, were " + writeAttempts);
+        }
+        if (pipelineBatch < 0) {
+            throw new IllegalArgumentException("The pipeline batch size must not be negative, was " + pipelineBatch);
+        }
+        if (maxBoards < 1) {
+            throw new IllegalArgumentException("The maximum number of boards must be positive, was " + maxBoards);
+        }
+        if (!boardIdle.isPositive()) {
+            throw new IllegalArgumentException("The idle time of the boards must be positive, was " + boardIdle);
+        }
 
-    public WidgetService(WidgetRepo widgetRepo) {
         this.widgetRepo = widgetRepo;
+        this.board = Widget.DEFAULT_BOARD;
+        this.root = this;
+        this.retirementActions = new CopyOnWriteArrayList<>();
+        this.boards = Caffeine.newBuilder()
+                .maximumSize(maxBoards)
+                .expireAfterAccess(boardIdle)
+                .scheduler(Scheduler.systemScheduler())
+                .executor(Runnable::run)
+                .evictionListener((Long key, WidgetService service, RemovalCause cause) -> service.drain())
+                .removalListener((Long key, WidgetService service, RemovalCause cause) -> service.retire(cause.wasEvicted()))
+                .build();
+        this.detached = false;
+        this.epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+        this.meterRegistry = meterRegistry;
+        this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+        this.writeAttempts = writeAttempts;
+        this.serial = widgetRepo.isTransactional() ? null : new ReentrantLock();
+        this.zGap = zGap;
+        this.cellSize = cellSize;
+        this.tombstones = tombstones;
+        this.cacheSize = cacheSize;
+        this.spatialIndex = new WidgetSpatialIndex(cellSize);
+        this.maxZ = new WidgetMaxZ(widgetRepo, board);
+        this.minZ = new WidgetMinZ(widgetRepo, board);
+        this.revisions = new WidgetRevisions(widgetRepo, board, tombstones, evictedRevision::get);
+        this.metrics = new WidgetMetrics(meterRegistry, board, spatialIndex, maxZ::get, minZ::get);
+        this.cache = new WidgetCache(cacheSize, meterRegistry, board);
+        this.pipelineBatch = pipelineBatch;
+        this.pipelineLinger = pipelineLinger;
+        this.pipeline = pipelineBatch > 0 ? new WidgetWritePipeline(this, pipelineBatch, pipelineLinger) : null;
+    }
+
+    /**
+     * Creates the service of another board, with the storage layer and the settings of the given root one.
+     * <p>
+     * A detached service has neither metrics nor cache nor pipeline, and only serves reads: its versions are all the
+     * same, as it is only used for a board without Widgets.
+     */
+    private WidgetService(WidgetService root, long board, boolean detached) {
+        this.widgetRepo = root.widgetRepo;
+        this.board = board;
+        this.root = root;
+        this.retirementActions = root.retirementActions;
+        this.boards = root.boards;
+        this.detached = detached;
+        this.epoch = root.epoch + "-" + (detached ? 0 : root.boardsCreated.incrementAndGet());
+        this.meterRegistry = root.meterRegistry;
+        this.transactionTemplate = root.transactionTemplate;
+        this.writeAttempts = root.writeAttempts;
+        this.serial = widgetRepo.isTransactional() ? null : new ReentrantLock();
+        this.zGap = root.zGap;
+        this.cellSize = root.cellSize;
+        this.tombstones = root.tombstones;
+        this.cacheSize = root.cacheSize;
+        this.spatialIndex = new WidgetSpatialIndex(cellSize);
+        this.maxZ = new WidgetMaxZ(widgetRepo, board);
+        this.minZ = new WidgetMinZ(widgetRepo, board);
+        this.revisions = new WidgetRevisions(widgetRepo, board, tombstones, root.evictedRevision::get);
+        this.metrics = detached ? null : new WidgetMetrics(meterRegistry, board, spatialIndex, maxZ::get, minZ::get);
+        this.cache = new WidgetCache(detached ? 0 : cacheSize, meterRegistry, board);
+        this.pipelineBatch = root.pipelineBatch;
+        this.pipelineLinger = root.pipelineLinger;
+        this.pipeline = pipelineBatch > 0 && !detached
+                ? new WidgetWritePipeline(this, pipelineBatch, pipelineLinger)
+                : null;
     }
 
     /**
-     * Retrieves a {@link Widget} by its id, if present.
+     * Gets the service of the {@link Widget}s on the given board, created with its spatial index on first use.
+     * <p>
+     * All the services of the boards share the storage layer and the settings of this one, but nothing else: each
+     * has its own top {@code Z}, revisions, spatial index, cache and change feed.
+     * <p>
+     * Besides the default one, the services of the least recently used boards are evicted, beyond the maximum number
+     * of boards or once idle for too long: their pipeline is closed, their meters removed, and the subscriptions to
+     * their changes closed. The next use of the board creates a new service, loaded from the storage layer, once the
+     * modifications in progress on the evicted one have completed: the modifications still to come on the evicted
+     * one, the ones queued in its pipeline included, are applied by the new one instead.
+     *
+     * @param board the board
+     * @return the service of the board
+     */
+    public WidgetService onBoard(long board) {
+        if (board == root.board) {
+            return root;
+        }
+
+        return boards.get(board, key -> {
+            var service = new WidgetService(root, key, false);
+            service.loadSpatialIndex();
+            return service;
+        });
+    }
+
+    /**
+     * Gets a service of the {@link Widget}s on the given board to read them, without keeping any state in memory for a
+     * board without Widgets.
+     * <p>
+     * The service of the board is returned if kept in memory, or if the board has Widgets, as by
+     * {@link #onBoard(long)}. Otherwise a detached service is returned, reading straight from the storage layer: it
+     * cannot modify the Widgets, nor subscribe to their changes.
+     *
+     * @param board the board
+     * @return a service of the board, to read it
+     */
+    public WidgetService onBoardForReading(long board) {
+        if (board == root.board) {
+            return root;
+        }
+
+        var service = boards.getIfPresent(board);
+        if (service != null) {
+            return service;
+        }
+        return widgetRepo.findMaxZ(board).isPresent() ? onBoard(board) : new WidgetService(root, board, true);
+    }
+
+    /**
+     * Registers an action to run with the board of every service removed from memory, once retired, see
+     * {@link #onBoard(long)}.
+     *
+     * @param action the action, given the board
+     */
+    public void onRetired(LongConsumer action) {
+        retirementActions.add(action);
+    }
+
+    /**
+     * Lists the services of the default board and of the other boards kept in memory.
+     *
+     * @return the services of the boards
+     */
+    public Collection<WidgetService> getBoards() {
+        var services = new ArrayList<WidgetService>();
+        services.add(root);
+        services.addAll(boards.asMap().values());
+        return services;
+    }
+
+    /**
+     * Gets the board of the {@link Widget}s served.
+     *
+     * @return the board
+     */
+    public long getBoard() {
+        return board;
+    }
+
+    /**
+     * Gets the distance left between the Widgets placed on top.
+     */
+    int zGap() {
+        return zGap;
+    }
+
+    private boolean isOnBoard(Widget widget) {
+        return widget.board() == board;
+    }
+
+    /**
+     * Loads the spatial index with the stored {@link Widget}s of the board, a chunk at a time.
+     */
+    @PostConstruct
+    void loadSpatialIndex() {
+        spatialIndex.clear();
+        List<Widget> chunk = getPage(null, null, null, LOAD_CHUNK);
+        while (!chunk.isEmpty()) {
+            chunk.forEach(spatialIndex::put);
+            chunk = getPage(chunk.get(chunk.size() - 1).z(), null, null, LOAD_CHUNK);
+        }
+    }
+
+    /**
+     * Retrieves a {@link Widget} by its id, if present on the board.
+     * <p>
+     * Outside of a transaction the Widget is read through the cache: within one, it might not be committed yet.
      *
      * @param id the id of the desired Widget
      * @return the desired Widget, if present
      */
     public Optional<Widget> findById(Long id) {
-        return widgetRepo.findById(id);
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return widgetRepo.findById(id).filter(this::isOnBoard);
+        }
+        return cache.get(id, key -> widgetRepo.findById(key).filter(this::isOnBoard));
     }
 
     /**
@@ -42,21 +433,239 @@ public class WidgetService {
     }
 
     /**
-     * Lists all stored {@link Widget}s.
+     * Lists all stored {@link Widget}s of the board.
      *
-     * @return a collection containing all stored Widgets
+     * @return a collection containing all stored Widgets of the board
      */
     public Collection<Widget> getAll() {
-        return widgetRepo.findAll();
+        return widgetRepo.listAll(board);
     }
 
     /**
-     * Computes the maximum {@code Z} among all stored {@link Widget}s.
+     * Feeds all stored {@link Widget}s of the board, in ascending {@code Z} order, to the given action.
+     * <p>
+     * The Widgets are streamed from the storage layer while the action consumes them, so that they are never all
+     * in memory at the same time, within a transaction of their own unless one is already active.
+     *
+     * @param action the action to perform on each Widget
+     */
+    public void forEachInZOrder(Consumer<? super Widget> action) {
+        if (transactionTemplate == null) {
+            streamInZOrder(action);
+        } else {
+            transactionTemplate.executeWithoutResult(status -> streamInZOrder(action));
+        }
+    }
+
+    private void streamInZOrder(Consumer<? super Widget> action) {
+        try (var widgets = widgetRepo.streamAllOrderedByZ(board)) {
+            widgets.forEach(action);
+        }
+    }
+
+    /**
+     * Lists the stored {@link Widget}s in ascending {@code Z} order, optionally within a {@code Z} range.
+     * <p>
+     * Pages are chained by keyset: the next page is the one after the {@code Z} of the last Widget of the previous one.
+     *
+     * @param afterZ if present, only Widgets above this {@code Z} are listed
+     * @param minZ   if present, only Widgets at or above this {@code Z} are listed
+     * @param maxZ   if present, only Widgets at or below this {@code Z} are listed
+     * @param limit  the maximum number of Widgets to list
+     * @return the page of Widgets
+     * @throws IllegalArgumentException if the limit is not positive
+     */
+    public List<Widget> getPage(Integer afterZ,
+                                Integer minZ,
+                                Integer maxZ,
+                                int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The page limit must be positive, was " + limit);
+        }
+
+        if (afterZ != null && afterZ == Integer.MAX_VALUE) {
+            return List.of();
+        }
+
+        int fromZ = Math.max(
+                Optional.ofNullable(minZ).orElse(Integer.MIN_VALUE),
+                Optional.ofNullable(afterZ).map(z -> z + 1).orElse(Integer.MIN_VALUE));
+        int toZ = Optional.ofNullable(maxZ).orElse(Integer.MAX_VALUE);
+
+        return widgetRepo.listByZBetween(board, fromZ, toZ, Limit.of(limit));
+    }
+
+    /**
+     * Lists the stored {@link Widget}s intersecting the given viewport, as by
+     * {@link Widget#intersects(int, int, int, int)}, in ascending {@code Z} order.
+     *
+     * @param x1 the left border of the viewport
+     * @param y1 the bottom border of the viewport
+     * @param x2 the right border of the viewport
+     * @param y2 the top border of the viewport
+     * @return the Widgets in the viewport
+     * @throws IllegalArgumentException if the viewport borders are swapped
+     */
+    public List<Widget> getInViewport(int x1, int y1, int x2, int y2) {
+        if (x1 > x2 || y1 > y2) {
+            throw new IllegalArgumentException(
+                    String.format("The viewport (%d, %d) - (%d, %d) is empty", x1, y1, x2, y2));
+        }
+
+        var ids = spatialIndex.query(x1, y1, x2, y2);
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
+        // the index might be slightly behind the storage layer
+        return widgetRepo.listAllById(board, ids).stream()
+                .filter(widget -> widget.intersects(x1, y1, x2, y2))
+                .sorted(Comparator.comparing(Widget::z))
+                .toList();
+    }
+
+    /**
+     * Gets the maximum {@code Z} among all stored {@link Widget}s.
+     * <p>
+     * The value is kept in memory, and only loaded from the storage layer when the top Widget has left its {@code Z}.
      *
      * @return the maximum {@code Z}, if any Widget exists
      */
     public Optional<Integer> getMaxZ() {
-        return widgetRepo.findMaxZ().map(Widget::z);
+        return maxZ.get();
+    }
+
+    /**
+     * Gets the minimum {@code Z} among all stored {@link Widget}s.
+     * <p>
+     * As the maximum one, the value is kept in memory, and only loaded from the storage layer when the bottom Widget
+     * has left its {@code Z}.
+     *
+     * @return the minimum {@code Z}, if any Widget exists
+     */
+    public Optional<Integer> getMinZ() {
+        return minZ.get();
+    }
+
+    /**
+     * Counts the stored {@link Widget}s, as known from the spatial index, without querying the storage layer.
+     *
+     * @return the number of Widgets
+     */
+    public int count() {
+        return spatialIndex.size();
+    }
+
+    /**
+     * Finds the board revision of the last modification writing a {@link Widget}, shifts included, without loading it.
+     * <p>
+     * Outside of a transaction the revision of a cached Widget is known without querying the storage layer.
+     *
+     * @param id the id of the Widget
+     * @return the revision, if the Widget is present
+     */
+    public Optional<Long> findRevisionById(Long id) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return widgetRepo.findRevisionById(board, id);
+        }
+        return cache.getIfPresent(id).map(Widget::revision).or(() -> widgetRepo.findRevisionById(board, id));
+    }
+
+    /**
+     * Gets an opaque version of the board, changing whenever a modification commits: reads made with the same version
+     * see the same Widgets.
+     * <p>
+     * Known from memory, without querying the storage layer. Only the modifications made through this service instance
+     * are accounted for.
+     *
+     * @return the version of the board
+     */
+    public String getBoardVersion() {
+        return epoch + "." + revisions.committed();
+    }
+
+    /**
+     * Lists the changes since the given board revision: the {@link Widget}s written after it, shifted ones included,
+     * and the ids of the ones deleted.
+     * <p>
+     * The Widgets are read after the returned revision is taken, so that some of them might be listed again by the
+     * next changes. The deletions are only known within the tombstone retention, and since the service started: a
+     * revision older than that, or unknown, requires a full resync, as does any revision given before the service
+     * started, see {@link WidgetRevisions}.
+     *
+     * @param since the revision after which to list the changes
+     * @return the changes, and the revision to ask the next ones since
+     * @throws IllegalArgumentException if the revision is negative
+     */
+    public WidgetDelta getChangesSince(long since) {
+        if (since < 0) {
+            throw new IllegalArgumentException("The revision must not be negative, was " + since);
+        }
+
+        long revision = revisions.stable();
+        if (since < revisions.horizon() || since > revision) {
+            return new WidgetDelta(revision, true, List.of(), List.of());
+        }
+
+        return new WidgetDelta(revision,
+                false,
+                widgetRepo.findByBoardAndRevisionGreaterThan(board, since),
+                revisions.deletedBetween(since, revision));
+    }
+
+    /**
+     * Subscribes to the feed of the committed {@link WidgetChange}s, as by
+     * {@link WidgetChangeFeed#subscribe(int, Runnable)}.
+     *
+     * @param capacity    the maximum number of changes buffered for the subscriber
+     * @param onAvailable notified when changes become available
+     * @return the subscription, to drain and eventually close
+     */
+    public WidgetChangeFeed.Subscription subscribe(int capacity, Runnable onAvailable) {
+        ensureAttached();
+        return changeFeed.subscribe(capacity, onAvailable);
+    }
+
+    /**
+     * Checks the maximum {@code Z} kept in memory against the one in the storage layer.
+     * <p>
+     * Meant for tests and diagnostics, when no modification is in progress.
+     *
+     * @throws IllegalStateException if the two differ
+     */
+    public void checkMaxZ() {
+        var stored = widgetRepo.findMaxZ(board);
+        var kept = maxZ.get();
+        if (!stored.equals(kept)) {
+            throw new IllegalStateException(
+                    String.format("The max Z is %s, but %s is kept in memory", stored, kept));
+        }
+    }
+
+    /**
+     * Forgets the maximum and minimum {@code Z} kept in memory, to be loaded again from the storage layer.
+     */
+    private void forgetZ() {
+        maxZ.forget();
+        minZ.forget();
+    }
+
+    /**
+     * Records the {@code Z}s taken and left by a modification in the maximum and minimum ones kept in memory, which
+     * are only forgotten if the top or bottom one is left for good.
+     *
+     * @param taken the {@code Z}s of the Widgets written
+     * @param left  the {@code Z}s the Widgets written or deleted were stored at, taken again or not
+     */
+    private void movedZs(Set<Integer> taken, Set<Integer> left) {
+        taken.forEach(z -> {
+            maxZ.raise(z);
+            minZ.lower(z);
+        });
+        left.stream().filter(z -> !taken.contains(z)).forEach(z -> {
+            maxZ.leave(z);
+            minZ.leave(z);
+        });
     }
 
     /**
@@ -65,72 +674,598 @@ public class WidgetService {
      * The creation might entail changing some of the properties of the given Widget
      * and/or of some other already in the persistence layer.
      * <p>
-     * The new Widget will have a newly generated id.
+     * The new Widget will have a newly generated id, and is placed at the origin unless otherwise specified.
      * <p>
-     * The method is not synchronized, it delegates thread safety to the mutator.
+     * The method is not synchronized: it is retried if it conflicts with a concurrent modification.
      *
      * @param widget the new Widget desired state
      * @return the actual new Widget state
      */
-    @Transactional
     public Widget create(Widget widget) {
-        return widgetRepo.save(ensureZ(widget));
+        return write(service -> service.create(widget), revision -> {
+            var desired = ensurePosition(widget.toBuilder().board(board).revision(revision).version(null).build());
+            boolean autoZ = desired.z() == null;
+            var shifted = ensureZ(desired, revision);
+            minZ.lower(desired.z());
+            var created = widgetRepo.save(desired);
+            afterCompletion(() -> {
+                spatialIndex.put(created);
+                metrics.created(autoZ, shifted.map(WidgetChange.Shifted::count).orElse(0));
+                published(withShift(shifted, new WidgetChange.Created(created)));
+            }, this::forgetZ);
+            return created;
+        });
     }
 
+    private Widget ensurePosition(Widget widget) {
+        return widget
+                .x(Optional.ofNullable(widget.x()).orElse(0))
+                .y(Optional.ofNullable(widget.y()).orElse(0));
+    }
+
+    /**
+     * Places the given Widget on top if it has no {@code Z}, or makes space for it at its {@code Z}.
+     *
+     * @return the Widgets shifted to make space, if any
+     */
     @Transactional
-    protected Widget ensureZ(Widget widget) {
+    protected Optional<WidgetChange.Shifted> ensureZ(Widget widget, long revision) {
         if (widget.z() == null) {
-            return widget.z(getMaxZ().orElse(0) + 1);
+            widget.z(maxZ.allocate(zGap));
+            return Optional.empty();
         } else {
-            makeSpaceForZ(widget.z());
-            return widget;
+            var shifted = makeSpaceForZ(widget.z(), revision);
+            maxZ.raise(widget.z());
+            return shifted;
         }
     }
 
+    private static List<WidgetChange> withShift(Optional<WidgetChange.Shifted> shifted, WidgetChange change) {
+        return shifted.<List<WidgetChange>>map(shift -> List.of(shift, change)).orElse(List.of(change));
+    }
+
     /**
      * Deletes a {@link Widget} by id.
      * <p>
-     * This operation does not fail if no Widget exists with the given id.
+     * This operation does not fail if no Widget exists on the board with the given id.
      *
      * @param id the id of the Widget to delete
      */
     public void delete(Long id) {
-        widgetRepo.deleteById(id);
+        write(service -> {
+            service.delete(id);
+            return null;
+        }, revision -> {
+            widgetRepo.findById(id).filter(this::isOnBoard).ifPresent(widget -> {
+                widgetRepo.delete(widget);
+                revisions.deleted(revision, id);
+                maxZ.leave(widget.z());
+                minZ.leave(widget.z());
+                // leave again, in case the max or min Z has been loaded by another transaction in the meanwhile
+                afterCompletion(() -> {
+                    spatialIndex.remove(id);
+                    maxZ.leave(widget.z());
+                    minZ.leave(widget.z());
+                    published(List.of(new WidgetChange.Deleted(revision, id)));
+                }, this::forgetZ);
+            });
+            return null;
+        });
     }
 
     /**
      * Updates the given stored {@link Widget} state with the desired new one.
      * <p>
      * As with {@link #create(Widget)}, the new actual state may differ from the desired one
-     * and/or other Widgets might have been modified.
+     * and/or other Widgets might have been modified. A desired state without position, or without {@code Z}, keeps the
+     * current one.
+     * <p>
+     * A Widget moving to a taken {@code Z} is moved in place within the {@code Z} order: the Widgets between its
+     * current and new {@code Z} shift by one towards the current one, up to the first gap, and no other Widget moves.
+     * <p>
+     * The current state is read again from the storage layer, as concurrent modifications might have shifted it.
      *
      * @param original the currently stored state
      * @param updated  the new desired state
      * @return the actual new state
+     * @throws NoSuchElementException if the Widget does not exist anymore
      */
-    @Transactional
     public Widget update(Widget original,
                          Widget updated) {
-        // if the z index need change, remove old widget and make space for new Z
-        if (!original.z().equals(updated.z())) {
-            widgetRepo.deleteById(original.id());
-            makeSpaceForZ(updated.z());
+        return update(original, updated, null, null);
+    }
+
+    /**
+     * Updates the given stored {@link Widget} state with the desired new one, as by {@link #update(Widget, Widget)},
+     * provided that it has not been written since the given board revision, nor since the given version.
+     * <p>
+     * The preconditions are checked against the stored Widget within the modification, so that only the id of the
+     * original state is needed.
+     *
+     * @param original         the currently stored state, or just its id
+     * @param updated          the new desired state
+     * @param expectedRevision the revision the Widget must still have, or null for any
+     * @param expectedVersion  the version the Widget must still have, or null for any
+     * @return the actual new state
+     * @throws NoSuchElementException            if the Widget does not exist anymore
+     * @throws PreconditionFailedException       if the Widget has been written since the expected revision
+     * @throws StaleVersionException            if the Widget has been written since the expected version
+     */
+    public Widget update(Widget original,
+                         Widget updated,
+                         Long expectedRevision,
+                         Long expectedVersion) {
+        return write(service -> service.update(original, updated, expectedRevision, expectedVersion), revision -> {
+            var stored = widgetRepo.findById(original.id())
+                    .filter(this::isOnBoard)
+                    .orElseThrow(NoSuchElementException::new);
+            if (expectedRevision != null && !expectedRevision.equals(stored.revision())) {
+                throw new PreconditionFailedException(String.format(
+                        "Widget(%d) has been modified since revision %d", original.id(), expectedRevision));
+            }
+            checkVersion(stored, expectedVersion);
+            var desired = updated.toBuilder()
+                    .z(Optional.ofNullable(updated.z()).orElse(stored.z()))
+                    .x(Optional.ofNullable(updated.x()).orElse(stored.x()))
+                    .y(Optional.ofNullable(updated.y()).orElse(stored.y()))
+                    .board(board)
+                    .revision(revision)
+                    .version(stored.version())
+                    .build();
+
+            int from = stored.z();
+            var shifted = Optional.<WidgetChange.Shifted>empty();
+            if (from != desired.z()) {
+                shifted = makeSpaceForMove(from, desired.z(), revision);
+                if (shifted.isPresent()) {
+                    // parked out of the way by a bulk update, which has increased the version
+                    desired.version(stored.version() + 1);
+                }
+                maxZ.raise(desired.z());
+                maxZ.leave(from);
+                minZ.lower(desired.z());
+                minZ.leave(from);
+            }
+
+            var saved = widgetRepo.save(desired);
+            var moveShifted = shifted;
+            afterCompletion(() -> {
+                spatialIndex.put(saved);
+                if (from != saved.z()) {
+                    maxZ.leave(from);
+                    minZ.leave(from);
+                }
+                metrics.updated(moveShifted.map(WidgetChange.Shifted::count).orElse(0));
+                published(withShift(moveShifted, new WidgetChange.Updated(saved)));
+            }, this::forgetZ);
+            return saved;
+        });
+    }
+
+    /**
+     * Checks that a stored {@link Widget} has not been written since the given version, if any.
+     *
+     * @throws StaleVersionException if the stored Widget has another version
+     */
+    static void checkVersion(Widget stored, Long version) {
+        if (version != null && !version.equals(stored.version())) {
+            throw new StaleVersionException(String.format(
+                    "Widget(%d) has been modified since version %d", stored.id(), version));
+        }
+    }
+
+    /**
+     * Applies a batch of {@link WidgetOperation}s in a single transaction.
+     * <p>
+     * The outcome is the same as applying the operations one at a time, in order, except for Widgets created without
+     * {@code Z} after the top one has been moved or deleted by the batch: these are still placed on top, but might not
+     * be as close to it. The {@code Z} shifts of the whole batch are computed in memory and every affected Widget is
+     * written once.
+     * <p>
+     * On a non transactional storage layer the batch is not rolled back: the operations are all checked before the
+     * first write, and no other modification of the board runs meanwhile, so that only a failure of the storage layer
+     * itself, as an I/O error of the file store, leaves the batch half applied.
+     *
+     * @param operations the operations to apply, in order
+     * @return the new state of every Widget created or modified, and the ids of the ones deleted
+     * @throws NoSuchElementException if a Widget to update does not exist, in which case nothing is applied
+     */
+    public WidgetBatchResult apply(List<? extends WidgetOperation> operations) {
+        return applyBatch(operations).result();
+    }
+
+    /**
+     * Applies a batch of {@link WidgetOperation}s as {@link #apply(List)}.
+     *
+     * @return the outcome of every operation, in order: the new state of the Widget created or updated, or null for a
+     * deletion
+     */
+    List<Widget> applyEach(List<? extends WidgetOperation> operations) {
+        return applyBatch(operations).outcomes();
+    }
+
+    private record Applied(WidgetBatchResult result, List<Widget> outcomes) {
+    }
+
+    private Applied applyBatch(List<? extends WidgetOperation> operations) {
+        return write(service -> service.applyBatch(operations), revision -> {
+            var batch = new WidgetBatch(widgetRepo, board, zGap, getMaxZ().orElse(0), revision);
+            var outcomes = operations.stream().map(batch::apply).toList();
+            var result = batch.write();
+            result.deletedIds().forEach(id -> revisions.deleted(revision, id));
+            var taken = batch.takenZs();
+            var left = batch.leftZs();
+            movedZs(taken, left);
+            // leave again, in case the max or min Z has been loaded by another transaction in the meanwhile
+            afterCompletion(() -> {
+                result.deletedIds().forEach(spatialIndex::remove);
+                result.widgets().forEach(spatialIndex::put);
+                movedZs(taken, left);
+                metrics.batched(batch.shifted());
+                published(batch.changes());
+            }, this::forgetZ);
+            return new Applied(result, outcomes.stream().map(Supplier::get).toList());
+        });
+    }
+
+    /**
+     * Renumbers the {@code Z} of a chunk of {@link Widget}s, in a single transaction, to close the gaps left by
+     * deletions and moves: the Widgets above the given floor are moved down, in ascending {@code Z} order, to be at
+     * most {@code zGap} above the previous one, and the bottom one at most {@code zGap} above 0.
+     * <p>
+     * A Widget is only moved down into the free {@code Z}s between the previous one and itself, the Widgets of the
+     * chunk being written in ascending {@code Z} order: the {@code Z} order is kept, no other Widget is shifted, and no
+     * room is needed above the top, unlike {@link #apply(List)}, so that a board whose {@code Z}s approach the limit of
+     * an integer can be compacted too. The moves are published as any other modification. Compacting a whole board is
+     * then a matter of calling this method again with the floor it returns, until it returns the last chunk.
+     *
+     * @param floor the {@code Z} the chunk starts above, i.e. the one returned for the previous chunk, or null to start
+     *              from the bottom
+     * @param chunk the maximum number of Widgets to renumber
+     * @return the outcome of the chunk
+     * @throws IllegalArgumentException if the chunk is not positive
+     */
+    public WidgetCompaction compact(Integer floor, int chunk) {
+        if (chunk < 1) {
+            throw new IllegalArgumentException("The compaction chunk must be positive, was " + chunk);
+        }
+        if (floor != null && floor == Integer.MAX_VALUE) {
+            return new WidgetCompaction(floor, 0, 0, true);
+        }
+
+        return write(service -> service.compact(floor, chunk), revision -> {
+            var listed = widgetRepo.findByBoardAndZBetweenOrderByZ(board,
+                    floor == null ? Integer.MIN_VALUE : floor + 1, Integer.MAX_VALUE, Limit.of(chunk));
+            var moved = new ArrayList<Widget>();
+            var left = new HashSet<Integer>();
+            Integer last = floor;
+            for (var widget : listed) {
+                int z = (int) Math.min(widget.z(), last == null ? zGap : (long) last + zGap);
+                if (z != widget.z()) {
+                    left.add(widget.z());
+                    moved.add(widgetRepo.save(widget.toBuilder().z(z).revision(revision).build()));
+                    // before the next one might take the Z this one leaves
+                    widgetRepo.flush();
+                }
+                last = z;
+            }
+
+            if (!moved.isEmpty()) {
+                var taken = moved.stream().map(Widget::z).collect(Collectors.toSet());
+                movedZs(taken, left);
+                afterCompletion(() -> {
+                    moved.forEach(spatialIndex::put);
+                    movedZs(taken, left);
+                    published(moved.stream().<WidgetChange>map(WidgetChange.Updated::new).toList());
+                }, this::forgetZ);
+            }
+            return new WidgetCompaction(last, listed.size(), moved.size(), listed.size() < chunk);
+        });
+    }
+
+    /**
+     * Applies a single {@link WidgetOperation}, grouped with the ones submitted concurrently if enabled.
+     * <p>
+     * A grouped operation is applied in order with the others, within a batch, with the outcome of
+     * {@link #apply(List)}, and is applied on its own if another one of the batch fails. Once the service is
+     * {@link #close() closed}, operations are applied on their own.
+     *
+     * @param operation the operation
+     * @return the new state of the Widget created or updated, or null for a deletion; failed as the operation
+     * applied on its own
+     */
+    public CompletableFuture<Widget> submit(WidgetOperation operation) {
+        if (pipeline != null && !TransactionSynchronizationManager.isActualTransactionActive()) {
+            var queued = pipeline.submit(operation);
+            if (queued.isPresent()) {
+                return queued.get();
+            }
+        }
+
+        try {
+            return CompletableFuture.completedFuture(applyAlone(operation));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Applies a single {@link WidgetOperation}, as the method it stands for.
+     *
+     * @return the new state of the Widget created or updated, or null for a deletion
+     */
+    Widget applyAlone(WidgetOperation operation) {
+        return switch (operation) {
+            case WidgetOperation.Create create -> create(create.widget());
+            case WidgetOperation.Update update ->
+                    update(update.widget(), update.widget(), null, update.expectedVersion());
+            case WidgetOperation.Delete delete -> {
+                delete(delete.id());
+                yield null;
+            }
+        };
+    }
+
+    /**
+     * Stops grouping the single modifications of all the boards, failing the ones still queued, and evicts the
+     * services of the boards other than the default one.
+     */
+    @PreDestroy
+    public void close() {
+        if (root.pipeline != null) {
+            root.pipeline.close();
         }
+        boards.invalidateAll();
+    }
 
-        return widgetRepo.save(updated);
+    /**
+     * Waits for the modifications of an evicted board in progress to complete, and hands the next ones over to the next
+     * service of the board, whose revisions start above the ones given by this one.
+     * <p>
+     * Called as the board is evicted, before the next service of the board can be created.
+     */
+    private void drain() {
+        var exclusive = retirement.writeLock();
+        exclusive.lock();
+        try {
+            if (!retired) {
+                retired = true;
+                root.evictedRevision.accumulateAndGet(revisions.given(), Math::max);
+            }
+        } finally {
+            exclusive.unlock();
+        }
+    }
+
+    /**
+     * Releases the state of a board removed from memory: stops grouping its single modifications, removes its meters,
+     * and closes the subscriptions to its changes, so that their subscribers subscribe again to the next service of the
+     * board. The actions registered by {@link #onRetired(LongConsumer)} are run last.
+     * <p>
+     * The single modifications still queued are handed over to the next service of the board if evicted, or failed if
+     * the services are closed.
+     */
+    private void retire(boolean evicted) {
+        if (pipeline != null && evicted) {
+            pipeline.retire();
+        } else if (pipeline != null) {
+            pipeline.close();
+        }
+        metrics.close();
+        cache.close();
+        changeFeed.close();
+        retirementActions.forEach(action -> action.accept(board));
     }
 
     /**
      * Ensures the storage layer has no {@link Widget} with the given {@code Z} by rearranging the existing Widgets.
+     * <p>
+     * Only the Widgets between {@code Z} and the first free {@code Z} above it are moved.
      *
-     * @param z the Z to free up
+     * @param z        the Z to free up
+     * @param revision the revision of the modification
+     * @return the Widgets moved, if any
+     * @throws NoFreeZException if the run reaches the limit of an integer
      */
     @Transactional
-    private void makeSpaceForZ(int z) {
+    private Optional<WidgetChange.Shifted> makeSpaceForZ(int z, long revision) {
         // find if the new widget Z already exists
-        if (widgetRepo.existsWidgetByZ(z)) {
-            // move widgets from Z to inf by 1
-            widgetRepo.shiftZbyOne(z);
+        if (!widgetRepo.existsWidgetByBoardAndZ(board, z)) {
+            return Optional.empty();
+        }
+
+        // move the run of widgets from Z to the first gap by 1
+        return widgetRepo.findTopOfZRun(board, z).map(top -> {
+            if (top == Integer.MAX_VALUE) {
+                throw new NoFreeZException("There is no free Z left above " + top);
+            }
+            widgetRepo.shiftZbyOne(board, z, top, revision);
+            maxZ.raise(top + 1);
+            return new WidgetChange.Shifted(revision, z, top, 1);
+        });
+    }
+
+    /**
+     * Ensures the storage layer has no {@link Widget} with the given target {@code Z}, other than the one moving there
+     * from the given current {@code Z}, by shifting by one towards the current {@code Z} the Widgets in between.
+     * <p>
+     * Only the run of Widgets adjacent to the target is moved: the current {@code Z}, freed by parking the moving
+     * Widget out of the way, bounds it.
+     *
+     * @param from     the current Z of the moving Widget
+     * @param to       the Z to free up
+     * @param revision the revision of the modification
+     * @return the Widgets moved besides the moving one, if any
+     */
+    private Optional<WidgetChange.Shifted> makeSpaceForMove(int from, int to, long revision) {
+        if (!widgetRepo.existsWidgetByBoardAndZ(board, to)) {
+            return Optional.empty();
+        }
+
+        widgetRepo.parkZ(board, from, from, revision);
+        if (to > from) {
+            return widgetRepo.findBottomOfZRun(board, to).map(bottom -> {
+                widgetRepo.shiftZbyMinusOne(board, bottom, to, revision);
+                return new WidgetChange.Shifted(revision, bottom, to, -1);
+            });
+        } else {
+            return widgetRepo.findTopOfZRun(board, to).map(top -> {
+                widgetRepo.shiftZbyOne(board, to, top, revision);
+                return new WidgetChange.Shifted(revision, to, top, 1);
+            });
+        }
+    }
+
+    /**
+     * Runs the given modification in a transaction, retrying it in a new one when it conflicts with a concurrent
+     * modification, after a random delay growing with the attempts. Of the violated constraints, only the collision of
+     * two Widgets on the same {@code z} is such a conflict.
+     * <p>
+     * Within an outer transaction the modification joins it, and is not retried: a conflict dooms the whole
+     * transaction, so retrying is up to its owner.
+     * <p>
+     * On a non transactional storage layer the modification holds the lock of the board throughout, so that it never
+     * conflicts with another one of the board.
+     * <p>
+     * Once the service is evicted, the modification is handed over to the next service of the board instead.
+     *
+     * @param elsewhere    the modification to run on the next service of the board
+     * @param modification the modification to run, given its revision
+     * @return the outcome of the modification
+     */
+    private <T> T write(Function<WidgetService, T> elsewhere, LongFunction<T> modification) {
+        ensureAttached();
+        var shared = retirement.readLock();
+        shared.lock();
+        try {
+            if (!retired) {
+                return serialized(modification);
+            }
+        } finally {
+            shared.unlock();
+        }
+        return elsewhere.apply(root.onBoard(board));
+    }
+
+    private <T> T serialized(LongFunction<T> modification) {
+        if (serial == null) {
+            return attempt(modification);
+        }
+
+        serial.lock();
+        try {
+            return attempt(modification);
+        } finally {
+            serial.unlock();
+        }
+    }
+
+    private <T> T attempt(LongFunction<T> modification) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return revise(modification);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate == null
+                        ? revise(modification)
+                        : transactionTemplate.execute(status -> revise(modification));
+            } catch (DataIntegrityViolationException e) {
+                // only a concurrent write landing on the same z may succeed again, any other violation fails as well
+                if (attempt >= writeAttempts || !WidgetRepo.isZCollision(e)) {
+                    throw e;
+                }
+                backOff(attempt);
+            } catch (TransientDataAccessException e) {
+                // a Widget written since the version given by the caller fails again, unlike a concurrent write found
+                // by the storage layer
+                if (attempt >= writeAttempts || e instanceof StaleVersionException) {
+                    throw e;
+                }
+                backOff(attempt);
+            }
+        }
+    }
+
+    /**
+     * Forgets the {@code Z}s kept in memory, then waits a random delay growing with the failed attempts, so that the
+     * modifications conflicting with one another do not meet again.
+     */
+    private void backOff(int attempt) {
+        forgetZ();
+        LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(BACKOFF_NANOS << Math.min(attempt, 10)));
+    }
+
+    /**
+     * @throws IllegalStateException if the service is detached, as by {@link #onBoardForReading(long)}
+     */
+    private void ensureAttached() {
+        if (detached) {
+            throw new IllegalStateException(String.format("The service of board %d only reads it", board));
+        }
+    }
+
+    /**
+     * Runs the given modification with a new revision, ended once the current transaction completes, or once the
+     * modification returns if there is no transaction: the writes of a non transactional storage layer are never
+     * rolled back.
+     */
+    private <T> T revise(LongFunction<T> modification) {
+        long revision = revisions.begin();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            try {
+                return modification.apply(revision);
+            } finally {
+                // registered last, so that the changes of the modification are held by then
+                afterCompletion(() -> ended(revision, true), () -> ended(revision, false));
+            }
+        }
+
+        try {
+            return modification.apply(revision);
+        } finally {
+            ended(revision, true);
+        }
+    }
+
+    /**
+     * Ends a modification, then publishes the changes held up to the revision now stable.
+     */
+    private void ended(long revision, boolean committed) {
+        revisions.end(revision, committed);
+        changeFeed.release(revisions.stable());
+    }
+
+    /**
+     * Evicts the Widgets written by a committed modification from the cache, then holds its changes for the feed, to
+     * be published in revision order.
+     */
+    private void published(List<WidgetChange> changes) {
+        cache.evict(changes);
+        changeFeed.hold(changes);
+    }
+
+    /**
+     * Runs one of the given actions once the current transaction completes, or the committed one immediately if there
+     * is no transaction.
+     *
+     * @param committed  the action to run if the transaction commits
+     * @param rolledBack the action to run otherwise
+     */
+    private void afterCompletion(Runnable committed, Runnable rolledBack) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        committed.run();
+                    } else {
+                        rolledBack.run();
+                    }
+                }
+            });
+        } else {
+            committed.run();
         }
     }
 }
@@ -0,0 +1,139 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory spatial index of {@link Widget} rectangles, as a uniform grid of square cells.
+ * <p>
+ * Each Widget id is listed in the cells its rectangle overlaps, so a query only looks at the Widgets in the cells
+ * covered by the queried rectangle. Widgets overlapping more than {@value #MAX_CELLS_PER_WIDGET} cells are not
+ * listed in cells, but checked by every query, to keep huge Widgets from bloating the grid.
+ * <p>
+ * Queries never block, while modifications are serialized. A query concurrent with a modification sees a Widget
+ * either in its previous or new position, or in none of them.
+ */
+class WidgetSpatialIndex {
+    static final int MAX_CELLS_PER_WIDGET = 64;
+
+    private final int cellSize;
+    private final Map<Long, Set<Long>> cells = new ConcurrentHashMap<>();
+    private final Map<Long, Widget> indexed = new ConcurrentHashMap<>();
+    private final Set<Long> oversized = ConcurrentHashMap.newKeySet();
+
+    WidgetSpatialIndex(int cellSize) {
+        if (cellSize < 1) {
+            throw new IllegalArgumentException("The spatial index cell size must be positive, was " + cellSize);
+        }
+
+        this.cellSize = cellSize;
+    }
+
+    private static long cellKey(long column, long row) {
+        return column << 32 | (row & 0xFFFFFFFFL);
+    }
+
+    private long cell(long coordinate) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+
+    /**
+     * Indexes the given Widget in its current position, replacing any previous one.
+     */
+    synchronized void put(Widget widget) {
+        remove(widget.id());
+
+        var stored = widget.toBuilder().build();
+        long fromColumn = cell(stored.x());
+        long toColumn = cell((long) stored.x() + stored.width());
+        long fromRow = cell(stored.y());
+        long toRow = cell((long) stored.y() + stored.height());
+
+        indexed.put(stored.id(), stored);
+        if ((toColumn - fromColumn + 1) * (toRow - fromRow + 1) > MAX_CELLS_PER_WIDGET) {
+            oversized.add(stored.id());
+            return;
+        }
+
+        for (long column = fromColumn; column <= toColumn; column++) {
+            for (long row = fromRow; row <= toRow; row++) {
+                cells.computeIfAbsent(cellKey(column, row), key -> ConcurrentHashMap.newKeySet()).add(stored.id());
+            }
+        }
+    }
+
+    /**
+     * Counts the indexed Widgets.
+     */
+    int size() {
+        return indexed.size();
+    }
+
+    /**
+     * Removes the Widget with the given id from the index, if present.
+     */
+    synchronized void remove(Long id) {
+        var removed = indexed.remove(id);
+        if (removed == null || oversized.remove(id)) {
+            return;
+        }
+
+        for (long column = cell(removed.x()); column <= cell((long) removed.x() + removed.width()); column++) {
+            for (long row = cell(removed.y()); row <= cell((long) removed.y() + removed.height()); row++) {
+                cells.computeIfPresent(cellKey(column, row), (key, ids) -> {
+                    ids.remove(id);
+                    return ids.isEmpty() ? null : ids;
+                });
+            }
+        }
+    }
+
+    synchronized void clear() {
+        cells.clear();
+        indexed.clear();
+        oversized.clear();
+    }
+
+    /**
+     * Finds the ids of the Widgets whose rectangle intersects the given one, as by
+     * {@link Widget#intersects(int, int, int, int)}.
+     */
+    Set<Long> query(int x1, int y1, int x2, int y2) {
+        long fromColumn = cell(x1);
+        long toColumn = cell(x2);
+        long fromRow = cell(y1);
+        long toRow = cell(y2);
+
+        var candidates = new HashSet<>(oversized);
+        // as a double, since a huge viewport overflows a long
+        if ((double) (toColumn - fromColumn + 1) * (toRow - fromRow + 1) > cells.size()) {
+            // the viewport spans more cells than the occupied ones
+            cells.forEach((key, ids) -> {
+                long column = key >> 32;
+                long row = (int) (long) key;
+                if (column >= fromColumn && column <= toColumn && row >= fromRow && row <= toRow) {
+                    candidates.addAll(ids);
+                }
+            });
+        } else {
+            for (long column = fromColumn; column <= toColumn; column++) {
+                for (long row = fromRow; row <= toRow; row++) {
+                    var ids = cells.get(cellKey(column, row));
+                    if (ids != null) {
+                        candidates.addAll(ids);
+                    }
+                }
+            }
+        }
+
+        candidates.removeIf(id -> {
+            var widget = indexed.get(id);
+            return widget == null || !widget.intersects(x1, y1, x2, y2);
+        });
+        return candidates;
+    }
+}
@@ -0,0 +1,185 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Groups the single {@link WidgetOperation}s submitted concurrently to a {@link WidgetService} into batches, each
+ * applied in a single transaction by {@link WidgetService#apply(List)}.
+ * <p>
+ * The operations are queued, and applied in the order they are submitted by a worker thread: the first one waiting
+ * starts a batch, which takes the ones queued meanwhile, then the ones submitted within {@code linger}, up to
+ * {@code maxBatch} of them. The {@code Z} shifts of the whole batch are then computed together, and every Widget they
+ * affect is written once, instead of once per operation.
+ * <p>
+ * Every caller gets the outcome of its own operation. If the batch fails, as one of its operations conflicts with the
+ * stored Widgets, its operations are applied again one at a time, so that only the conflicting ones fail.
+ * <p>
+ * The worker is started by the first submission, and stopped by {@link #close()}, or by {@link #retire()} once the
+ * operations queued are applied.
+ */
+class WidgetWritePipeline {
+    private final WidgetService service;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final BlockingQueue<Submitted> queue = new LinkedBlockingQueue<>();
+    // guards the start and the stop of the worker
+    private final Lock lock = new ReentrantLock();
+    private Thread worker;
+    private boolean closed;
+
+    private record Submitted(WidgetOperation operation, CompletableFuture<Widget> outcome) {
+    }
+
+    // queued last by retire()
+    private static final Submitted END = new Submitted(null, null);
+
+    WidgetWritePipeline(WidgetService service, int maxBatch, Duration linger) {
+        this.service = service;
+        this.maxBatch = maxBatch;
+        this.lingerNanos = linger.toNanos();
+    }
+
+    /**
+     * Queues an operation, starting the worker if not running yet.
+     *
+     * @param operation the operation
+     * @return the state of the Widget created or updated by the operation, or null for a deletion, once applied;
+     * empty if the pipeline is closed
+     */
+    Optional<CompletableFuture<Widget>> submit(WidgetOperation operation) {
+        var submitted = new Submitted(operation, new CompletableFuture<>());
+        lock.lock();
+        try {
+            if (closed) {
+                return Optional.empty();
+            }
+            if (worker == null) {
+                worker = Thread.ofVirtual().name("widget-writes-" + service.getBoard()).start(this::run);
+            }
+            queue.add(submitted);
+        } finally {
+            lock.unlock();
+        }
+        return Optional.of(submitted.outcome());
+    }
+
+    /**
+     * Stops the worker, and fails the operations still queued: no operation is accepted any more.
+     */
+    void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (worker != null) {
+                worker.interrupt();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        var pending = new ArrayList<Submitted>();
+        queue.drainTo(pending);
+        fail(pending);
+    }
+
+    /**
+     * Stops the worker once the operations still queued are applied, as the service is evicted: no operation is
+     * accepted any more, and the service applies the queued ones on the next service of the board.
+     */
+    void retire() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (worker != null) {
+                queue.add(END);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(List<Submitted> submitted) {
+        var closedException = new IllegalStateException(
+                "The write pipeline of board " + service.getBoard() + " is closed");
+        submitted.forEach(each -> each.outcome().completeExceptionally(closedException));
+    }
+
+    private void run() {
+        var batch = new ArrayList<Submitted>(maxBatch);
+        boolean ended = false;
+        while (!ended) {
+            try {
+                ended = collect(batch, queue.take());
+                long deadline = System.nanoTime() + lingerNanos;
+                while (!ended && batch.size() < maxBatch) {
+                    var next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    ended = collect(batch, next);
+                }
+            } catch (InterruptedException e) {
+                // closed
+                fail(batch);
+                return;
+            }
+
+            apply(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Adds the given operation to the batch, then the ones queued meanwhile, up to the size of a batch.
+     *
+     * @return whether the end of the queue has been reached, as queued by {@link #retire()}
+     */
+    private boolean collect(List<Submitted> batch, Submitted next) {
+        for (; next != null; next = batch.size() < maxBatch ? queue.poll() : null) {
+            if (next == END) {
+                return true;
+            }
+            batch.add(next);
+        }
+        return false;
+    }
+
+    private void apply(List<Submitted> batch) {
+        if (batch.size() > 1) {
+            try {
+                var outcomes = service.applyEach(batch.stream().map(Submitted::operation).toList());
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).outcome().complete(outcomes.get(i));
+                }
+                return;
+            } catch (RuntimeException e) {
+                // applied again one at a time below, so that only the failing operations fail
+            }
+        }
+
+        for (var submitted : batch) {
+            try {
+                submitted.outcome().complete(service.applyAlone(submitted.operation()));
+            } catch (RuntimeException e) {
+                submitted.outcome().completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -2,11 +2,11 @@ package me.ap.challenge.widgetapp.core.model;
 
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 class WidgetTest {
 
-    private final Widget widget = new Widget(1L, 2, 3, 4);
+    private final Widget widget = new Widget(1L, 2, 3, 4, 5, 6, null, null, Widget.DEFAULT_BOARD);
 
     @Test
     void baseToBuilderableContract() {
@@ -17,4 +17,16 @@ class WidgetTest {
     void builderModifiesPreviousProperties() {
         assertEquals(33, widget.toBuilder().z(33).build().z());
     }
-}
\ No newline at end of file
+
+    @Test
+    void intersects() {
+        // spans (5, 6) to (7, 9)
+        assertTrue(widget.intersects(0, 0, 10, 10));
+        assertTrue(widget.intersects(6, 7, 6, 7));
+        assertTrue(widget.intersects(7, 9, 8, 10));
+        assertTrue(widget.intersects(0, 0, 5, 6));
+        assertFalse(widget.intersects(8, 0, 10, 10));
+        assertFalse(widget.intersects(0, 10, 10, 12));
+        assertFalse(widget.intersects(0, 0, 4, 10));
+    }
+}
@@ -0,0 +1,157 @@
+package me.ap.challenge.widgetapp.core.repo;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static me.ap.challenge.widgetapp.core.model.Widget.DEFAULT_BOARD;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileWidgetRepoTest {
+    @TempDir
+    private Path directory;
+    private FileWidgetRepo repo;
+
+    private Widget widget(int z) {
+        return Widget.builder().width(1).height(2).z(z).x(3).y(4).build();
+    }
+
+    private FileWidgetRepo reopen(long snapshotEvery) {
+        if (repo != null) {
+            repo.close();
+        }
+        repo = new FileWidgetRepo(directory, true, snapshotEvery);
+        return repo;
+    }
+
+    private List<Widget> stored() {
+        return repo.findAll().stream().sorted(Comparator.comparing(Widget::id)).toList();
+    }
+
+    private List<String> files() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        repo.close();
+    }
+
+    @Test
+    void writesSurviveReopening() {
+        reopen(1_000);
+        var moved = repo.save(widget(1));
+        var deleted = repo.save(widget(2));
+        repo.save(widget(5).board(7L));
+        repo.save(moved.toBuilder().z(3).build());
+        repo.deleteById(deleted.id());
+        repo.shiftZbyOne(DEFAULT_BOARD, 3, 3, 2L);
+        var written = stored();
+
+        reopen(1_000);
+
+        assertEquals(written, stored());
+        assertEquals(written.stream().map(Widget::version).toList(), stored().stream().map(Widget::version).toList());
+        assertEquals(Optional.of(2L), repo.findRevisionById(DEFAULT_BOARD, moved.id()));
+        assertEquals(Optional.of(4), repo.findMaxZ(DEFAULT_BOARD));
+        assertTrue(repo.save(widget(1)).id() > deleted.id());
+    }
+
+    @Test
+    void snapshotReplacesTheLog() throws IOException {
+        reopen(1_000);
+        IntStream.rangeClosed(1, 5).mapToObj(this::widget).forEach(repo::save);
+        repo.snapshot();
+        var last = repo.save(widget(6));
+        repo.deleteById(last.id());
+        var written = stored();
+
+        assertEquals(List.of("widgets-1.log", "widgets-1.snapshot"), files());
+        reopen(1_000);
+
+        assertEquals(written, stored());
+        assertTrue(repo.save(widget(6)).id() > last.id());
+    }
+
+    @Test
+    void incompleteSnapshotIsDeleted() throws IOException {
+        reopen(1_000);
+        repo.save(widget(1));
+        var written = stored();
+        repo.close();
+        Files.write(directory.resolve("widgets-1.snapshot.tmp"), new byte[]{1, 2, 3});
+        repo = null;
+
+        reopen(1_000);
+
+        assertEquals(written, stored());
+        assertEquals(List.of("widgets-0.log"), files());
+    }
+
+    @Test
+    void failedSnapshotIsCountedAndKeepsTheLogs() throws Exception {
+        reopen(2);
+        // takes the place of the snapshot to write
+        Files.createDirectory(directory.resolve("widgets-1.snapshot.tmp"));
+        repo.save(widget(1));
+        repo.save(widget(2));
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (repo.snapshotFailures() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        var written = stored();
+
+        assertEquals(1, repo.snapshotFailures());
+        reopen(1_000);
+
+        assertEquals(written, stored());
+    }
+
+    @Test
+    void tornRecordIsDiscarded() throws IOException {
+        reopen(1_000);
+        repo.save(widget(1));
+        var written = stored();
+        repo.close();
+        Files.write(directory.resolve("widgets-0.log"), new byte[]{0, 0, 0, 53, 1, 2, 3}, StandardOpenOption.APPEND);
+        repo = null;
+
+        reopen(1_000);
+        assertEquals(written, stored());
+        repo.save(widget(2));
+        reopen(1_000);
+
+        assertEquals(List.of(1, 2), stored().stream().map(Widget::z).toList());
+    }
+
+    @Test
+    void concurrentWritesAreAllDurable() throws Exception {
+        reopen(100);
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int z = 1; z <= 1_000; z++) {
+                int taken = z;
+                executor.submit(() -> repo.save(widget(taken)));
+            }
+        }
+        var written = stored();
+
+        reopen(100);
+
+        assertEquals(1_000, written.size());
+        assertEquals(written, stored());
+    }
+}
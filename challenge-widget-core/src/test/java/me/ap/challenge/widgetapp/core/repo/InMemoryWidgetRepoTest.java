@@ -0,0 +1,153 @@
+package me.ap.challenge.widgetapp.core.repo;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static me.ap.challenge.widgetapp.core.model.Widget.DEFAULT_BOARD;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryWidgetRepoTest {
+    private final InMemoryWidgetRepo repo = new InMemoryWidgetRepo();
+
+    private Widget widget(int z) {
+        return Widget.builder().width(1).height(2).z(z).build();
+    }
+
+    private List<Integer> zs() {
+        return repo.findAll().stream().map(Widget::z).sorted().toList();
+    }
+
+    @Test
+    void createGet() {
+        var newWidget = repo.save(widget(-3));
+        assertNotNull(newWidget.id());
+
+        var widget = repo.findById(newWidget.id())
+                .orElseThrow(() -> new AssertionError("Created Widget cannot be found"));
+
+        assertEquals(newWidget, widget);
+        assertNotSame(newWidget, widget);
+        assertTrue(repo.existsWidgetByBoardAndZ(DEFAULT_BOARD, -3));
+    }
+
+    @Test
+    void storedWidgetsCannotBeModifiedFromOutside() {
+        var widget = repo.save(widget(1));
+        widget.z(2);
+        repo.findById(widget.id()).orElseThrow().z(3);
+
+        assertEquals(1, repo.findById(widget.id()).orElseThrow().z());
+    }
+
+    @Test
+    void parkingFailsPastTheLimit() {
+        repo.save(widget(Integer.MIN_VALUE));
+        repo.save(widget(-1));
+
+        // the distance to park the range by is past the limit, even if its top would not be
+        assertThrows(NoFreeZException.class, () -> repo.parkZ(DEFAULT_BOARD, Integer.MIN_VALUE, -1, 1L));
+        assertEquals(List.of(Integer.MIN_VALUE, -1), zs());
+    }
+
+    @Test
+    void saveMovesAnExistingWidget() {
+        var widget = repo.save(widget(1));
+        repo.save(widget.toBuilder().z(5).build());
+
+        assertFalse(repo.existsWidgetByBoardAndZ(DEFAULT_BOARD, 1));
+        assertTrue(repo.existsWidgetByBoardAndZ(DEFAULT_BOARD, 5));
+        assertEquals(1, repo.count());
+    }
+
+    @Test
+    void boardsHaveTheirOwnZSpace() {
+        var widget = repo.save(widget(1));
+        var other = repo.save(widget(1).board(7L));
+        repo.save(widget(2).board(7L));
+
+        assertEquals(2, repo.shiftZbyOne(7L, 1, 2, 1L));
+        assertEquals(Optional.of(1), repo.findMaxZ(DEFAULT_BOARD));
+        assertEquals(Optional.of(3), repo.findMaxZ(7L));
+        assertEquals(List.of(widget), repo.listAll(DEFAULT_BOARD));
+        assertEquals(List.of(), repo.listAllById(DEFAULT_BOARD, List.of(other.id())));
+        assertEquals(Optional.empty(), repo.findRevisionById(DEFAULT_BOARD, other.id()));
+        assertEquals(Optional.of(1L), repo.findRevisionById(7L, other.id()));
+    }
+
+    @Test
+    void saveRejectsATakenZ() {
+        repo.save(widget(1));
+
+        assertThrows(DuplicateKeyException.class, () -> repo.save(widget(1)));
+        assertEquals(1, repo.count());
+    }
+
+    @Test
+    void shiftRejectsATakenZ() {
+        IntStream.of(1, 2, 5).mapToObj(this::widget).forEach(repo::save);
+
+        assertThrows(DuplicateKeyException.class, () -> repo.shiftZ(DEFAULT_BOARD, 1, 2, 3, 1L));
+        assertThrows(DuplicateKeyException.class, () -> repo.shiftZById(
+                List.of(repo.findByBoardAndZBetweenOrderByZ(DEFAULT_BOARD, 1, 1, Limit.of(1)).get(0).id()), 1));
+        assertEquals(List.of(1, 2, 5), zs());
+
+        assertEquals(2, repo.shiftZ(DEFAULT_BOARD, 1, 2, 5, 1L));
+        assertEquals(List.of(5, 6, 7), zs());
+    }
+
+    @Test
+    void deleteFreesZ() {
+        var widget = repo.save(widget(1));
+        repo.deleteById(widget.id());
+
+        assertFalse(repo.existsWidgetByBoardAndZ(DEFAULT_BOARD, 1));
+        assertTrue(repo.findById(widget.id()).isEmpty());
+        assertEquals(Optional.empty(), repo.findMaxZ(DEFAULT_BOARD));
+    }
+
+    @Test
+    void findMaxZ() {
+        IntStream.of(3, -1, 7, 2).mapToObj(this::widget).forEach(repo::save);
+
+        assertEquals(Optional.of(7), repo.findMaxZ(DEFAULT_BOARD));
+    }
+
+    @Test
+    void shiftMovesTheRangeOnly() {
+        IntStream.of(1, 2, 3, 5, 6, 9).mapToObj(this::widget).forEach(repo::save);
+
+        assertEquals(Optional.of(3), repo.findTopOfZRun(DEFAULT_BOARD, 1));
+        assertEquals(Optional.of(6), repo.findTopOfZRun(DEFAULT_BOARD, 4));
+        assertEquals(Optional.empty(), repo.findTopOfZRun(DEFAULT_BOARD, 10));
+
+        assertEquals(4, repo.shiftZbyOne(DEFAULT_BOARD, 2, 6, 1L));
+        assertEquals(List.of(1, 3, 4, 6, 7, 9), zs());
+        repo.findAll().forEach(widget -> assertEquals(widget, repo.findById(widget.id()).orElseThrow()));
+        assertEquals(6, IntStream.rangeClosed(0, 10)
+                .filter(z -> repo.existsWidgetByBoardAndZ(DEFAULT_BOARD, z))
+                .count());
+    }
+
+    @Test
+    void shiftDownMovesTheRangeOnly() {
+        IntStream.of(1, 2, 3, 5, 6, 9).mapToObj(this::widget).forEach(repo::save);
+
+        assertEquals(Optional.of(1), repo.findBottomOfZRun(DEFAULT_BOARD, 3));
+        assertEquals(Optional.of(5), repo.findBottomOfZRun(DEFAULT_BOARD, 8));
+        assertEquals(Optional.empty(), repo.findBottomOfZRun(DEFAULT_BOARD, 0));
+
+        repo.deleteById(repo.findByBoardAndZBetweenOrderByZ(DEFAULT_BOARD, 1, 1, Limit.of(1)).get(0).id());
+        assertEquals(4, repo.shiftZbyMinusOne(DEFAULT_BOARD, 2, 6, 1L));
+        assertEquals(List.of(1, 2, 4, 5, 9), zs());
+        repo.findAll().forEach(widget -> assertEquals(widget, repo.findById(widget.id()).orElseThrow()));
+        assertEquals(5, IntStream.rangeClosed(0, 10)
+                .filter(z -> repo.existsWidgetByBoardAndZ(DEFAULT_BOARD, z))
+                .count());
+    }
+}
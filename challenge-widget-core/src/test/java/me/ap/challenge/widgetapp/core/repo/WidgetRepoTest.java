@@ -5,16 +5,28 @@ import me.ap.challenge.widgetapp.core.model.Widget;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.test.context.ContextConfiguration;
 
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static me.ap.challenge.widgetapp.core.model.Widget.DEFAULT_BOARD;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @DataJpaTest
 @ContextConfiguration(classes = WidgetAppCoreTestConfiguration.class)
 public class WidgetRepoTest {
     @Autowired
     private WidgetRepo repo;
+    @Autowired
+    private TestEntityManager entityManager;
 
     @Test
     void createGet() {
@@ -29,4 +41,58 @@ public class WidgetRepoTest {
         assertEquals(2, widget.width());
         assertEquals(-3, widget.z());
     }
-}
\ No newline at end of file
+
+    @Test
+    void zIsUnique() {
+        repo.save(Widget.builder().height(1).width(1).z(1).x(0).y(0).build());
+        repo.save(Widget.builder().height(1).width(1).z(1).x(0).y(0).build());
+
+        assertTrue(WidgetRepo.isZCollision(assertThrows(DataIntegrityViolationException.class, repo::flush)));
+    }
+
+    @Test
+    void zIsUniquePerBoard() {
+        IntStream.rangeClosed(1, 3).forEach(z -> {
+            repo.save(Widget.builder().height(1).width(1).z(z).x(0).y(0).build());
+            repo.save(Widget.builder().height(1).width(1).z(z).x(0).y(0).board(7L).build());
+        });
+        repo.flush();
+
+        assertEquals(2, repo.shiftZbyOne(7L, 2, 3, 1L));
+        assertEquals(List.of(1, 2, 3), repo.listAll(DEFAULT_BOARD).stream().map(Widget::z).sorted().toList());
+        assertEquals(List.of(1, 3, 4), repo.listAll(7L).stream().map(Widget::z).sorted().toList());
+        assertEquals(4, repo.findMaxZ(7L).orElseThrow());
+        assertEquals(List.of(1), repo.findTopOfZRun(7L, 1, Limit.of(1)));
+        assertTrue(repo.findMaxRevision(DEFAULT_BOARD).isEmpty());
+    }
+
+    @Test
+    void shiftsKeepZUnique() {
+        IntStream.rangeClosed(1, 3)
+                .forEach(z -> repo.save(Widget.builder().height(1).width(1).z(z).x(0).y(0).build()));
+
+        assertEquals(3, repo.shiftZbyOne(DEFAULT_BOARD, 1, 3, 1L));
+        assertEquals(List.of(2, 3, 4), repo.findAll().stream().map(Widget::z).sorted().toList());
+        assertEquals(3, repo.shiftZbyMinusOne(DEFAULT_BOARD, 2, 4, 2L));
+        assertEquals(List.of(1, 2, 3), repo.findAll().stream().map(Widget::z).sorted().toList());
+        assertEquals(3, repo.findByBoardAndRevisionGreaterThan(DEFAULT_BOARD, 1L).size());
+        assertEquals(2L, repo.findMaxRevision(DEFAULT_BOARD).orElseThrow());
+    }
+
+    @Test
+    void listingsAreNotManaged() {
+        var saved = repo.save(Widget.builder().height(1).width(1).z(1).x(0).y(0).build());
+        repo.flush();
+
+        var listed = repo.listAll(DEFAULT_BOARD);
+        assertEquals(List.of(saved), listed);
+        assertEquals(List.of(saved), repo.listByZBetween(DEFAULT_BOARD, 0, 1, Limit.of(1)));
+        assertEquals(List.of(saved), repo.listAllById(DEFAULT_BOARD, List.of(saved.id())));
+        assertFalse(entityManager.getEntityManager().contains(listed.get(0)));
+
+        listed.get(0).width(5);
+        repo.flush();
+        entityManager.clear();
+        assertEquals(1, repo.findById(saved.id()).orElseThrow().width());
+    }
+}
@@ -0,0 +1,113 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WidgetChangeFeedTest {
+    private final WidgetChangeFeed feed = new WidgetChangeFeed();
+    private final AtomicInteger available = new AtomicInteger();
+
+    private Widget widget(long id, int width) {
+        return Widget.builder().id(id).width(width).height(1).z((int) id).x(0).y(0).revision(1L).build();
+    }
+
+    @Test
+    void successiveUpdatesAreCoalesced() {
+        var subscription = feed.subscribe(10, available::incrementAndGet);
+
+        feed.publish(List.of(new WidgetChange.Updated(widget(1, 1))));
+        feed.publish(List.of(new WidgetChange.Updated(widget(2, 1))));
+        feed.publish(List.of(new WidgetChange.Shifted(1, 1, 2, 1)));
+        feed.publish(List.of(new WidgetChange.Updated(widget(1, 2))));
+
+        assertEquals(1, available.get());
+        assertEquals(List.of(
+                new WidgetChange.Updated(widget(2, 1)),
+                new WidgetChange.Shifted(1, 1, 2, 1),
+                new WidgetChange.Updated(widget(1, 2))
+        ), subscription.drain(10));
+        assertEquals(List.of(), subscription.drain(10));
+    }
+
+    @Test
+    void createdThenUpdatedStaysCreated() {
+        var subscription = feed.subscribe(10, available::incrementAndGet);
+
+        feed.publish(List.of(new WidgetChange.Created(widget(1, 1)), new WidgetChange.Created(widget(2, 1))));
+        feed.publish(List.of(new WidgetChange.Updated(widget(1, 2))));
+        feed.publish(List.of(new WidgetChange.Deleted(2, 2L), new WidgetChange.Deleted(3, 3L)));
+
+        assertEquals(List.of(
+                new WidgetChange.Created(widget(1, 2)),
+                new WidgetChange.Deleted(3, 3L)
+        ), subscription.drain(10));
+    }
+
+    @Test
+    void drainTakesTheOldestChanges() {
+        var subscription = feed.subscribe(10, available::incrementAndGet);
+
+        feed.publish(List.of(new WidgetChange.Deleted(1, 1L), new WidgetChange.Deleted(2, 2L)));
+        assertEquals(List.of(new WidgetChange.Deleted(1, 1L)), subscription.drain(1));
+        feed.publish(List.of(new WidgetChange.Deleted(3, 3L)));
+
+        // the buffer never got empty
+        assertEquals(1, available.get());
+        assertEquals(List.of(new WidgetChange.Deleted(2, 2L), new WidgetChange.Deleted(3, 3L)), subscription.drain(10));
+    }
+
+    @Test
+    void overflowDropsTheBufferedChanges() {
+        var subscription = feed.subscribe(2, available::incrementAndGet);
+
+        feed.publish(List.of(new WidgetChange.Deleted(1, 1L), new WidgetChange.Deleted(2, 2L)));
+        feed.publish(List.of(new WidgetChange.Deleted(3, 3L)));
+        feed.publish(List.of(new WidgetChange.Deleted(4, 4L)));
+
+        assertEquals(1, available.get());
+        assertEquals(List.of(new WidgetChange.Overflowed(3), new WidgetChange.Deleted(4, 4L)), subscription.drain(10));
+    }
+
+    @Test
+    void heldChangesAreReleasedInRevisionOrder() {
+        var subscription = feed.subscribe(10, available::incrementAndGet);
+
+        // revision 2 commits before revision 1
+        feed.hold(List.of(new WidgetChange.Shifted(2, 1, 1, 1), new WidgetChange.Deleted(2, 3L)));
+        feed.release(0);
+        assertEquals(List.of(), subscription.drain(10));
+
+        feed.hold(List.of(new WidgetChange.Deleted(1, 1L)));
+        feed.release(2);
+        assertEquals(List.of(
+                new WidgetChange.Deleted(1, 1L),
+                new WidgetChange.Shifted(2, 1, 1, 1),
+                new WidgetChange.Deleted(2, 3L)
+        ), subscription.drain(10));
+
+        feed.release(3);
+        assertEquals(List.of(), subscription.drain(10));
+    }
+
+    @Test
+    void closedSubscriptionsGetNothing() {
+        var subscription = feed.subscribe(10, available::incrementAndGet);
+        subscription.close();
+
+        feed.publish(List.of(new WidgetChange.Deleted(1, 1L)));
+
+        assertEquals(0, available.get());
+        assertEquals(List.of(), subscription.drain(10));
+    }
+
+    @Test
+    void subscribeValidatesCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> feed.subscribe(0, available::incrementAndGet));
+    }
+}
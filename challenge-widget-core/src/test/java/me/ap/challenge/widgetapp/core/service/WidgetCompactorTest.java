@@ -0,0 +1,103 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.repo.InMemoryWidgetRepo;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WidgetCompactorTest {
+    private final InMemoryWidgetRepo repo = new InMemoryWidgetRepo();
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final WidgetService service = new WidgetService(repo, null, registry, 10, 256, 8, 10, 0);
+    private final WidgetCompactor compactor = new WidgetCompactor(service, registry, 3, Duration.ZERO, 4);
+
+    private Widget widget(int z) {
+        return Widget.builder().width(1).height(1).z(z).x(0).y(0).build();
+    }
+
+    private List<Integer> zs(long board) {
+        return repo.findAll().stream()
+                .filter(widget -> widget.board() == board)
+                .map(Widget::z)
+                .sorted(Comparator.naturalOrder())
+                .toList();
+    }
+
+    private double meter(String name, long board) {
+        return registry.get(name).tag(WidgetMetrics.BOARD, Long.toString(board)).meter().measure().iterator().next()
+                .getValue();
+    }
+
+    @Test
+    void sparseBoardsAreCompacted() {
+        IntStream.rangeClosed(1, 10).forEach(i -> service.create(widget(i * 1000)));
+        var dense = service.onBoard(7);
+        IntStream.rangeClosed(1, 10).forEach(i -> dense.create(widget(i * 20)));
+        assertTrue(compactor.isSparse(Widget.DEFAULT_BOARD));
+        assertFalse(compactor.isSparse(7));
+
+        compactor.compactSparseBoards();
+
+        assertEquals(IntStream.rangeClosed(1, 10).mapToObj(i -> i * 10).toList(), zs(Widget.DEFAULT_BOARD));
+        assertEquals(IntStream.rangeClosed(1, 10).mapToObj(i -> i * 20).toList(), zs(7));
+        assertFalse(compactor.isSparse(Widget.DEFAULT_BOARD));
+        assertEquals(new WidgetCompactor.Status(Widget.DEFAULT_BOARD, false, 10, 10, 1), compactor.getStatus(0));
+        assertEquals(10, meter(WidgetCompactor.MOVED, Widget.DEFAULT_BOARD));
+        assertEquals(10, meter(WidgetCompactor.SCANNED, Widget.DEFAULT_BOARD));
+        assertEquals(1, meter(WidgetCompactor.PROGRESS, Widget.DEFAULT_BOARD));
+    }
+
+    @Test
+    void unknownBoardsAreNeitherCompactedNorKept() {
+        assertFalse(compactor.isSparse(9));
+        assertEquals(new WidgetCompactor.Status(9, false, 0, 0, 1), compactor.getStatus(9));
+        assertEquals(new WidgetCompactor.Status(9, false, 0, 0, 1), compactor.start(9));
+        assertEquals(new WidgetCompactor.Status(9, false, 0, 0, 1), compactor.compact(9));
+
+        assertEquals(List.of(service), List.copyOf(service.getBoards()));
+        assertTrue(registry.find(WidgetCompactor.PROGRESS).tag(WidgetMetrics.BOARD, "9").gauges().isEmpty());
+    }
+
+    @Test
+    void compactionStartedOnDemandRunsInTheBackground() throws InterruptedException {
+        var board = service.onBoard(3);
+        IntStream.of(5, 7, 500, 501, 90_000).forEach(z -> board.create(widget(z)));
+
+        compactor.start(3);
+        while (compactor.getStatus(3).running()) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of(5, 7, 17, 27, 37), zs(3));
+        assertEquals(new WidgetCompactor.Status(3, false, 5, 3, 1), compactor.getStatus(3));
+        assertEquals(37, board.getMaxZ().orElseThrow());
+    }
+
+    @Test
+    void evictedBoardsLoseTheirCompactionMetrics() {
+        var bounded = new WidgetService(repo, null, registry, 10, 256, 8, 10, 0, 0, Duration.ZERO, 1,
+                Duration.ofHours(1));
+        var boundedCompactor = new WidgetCompactor(bounded, registry, 3, Duration.ZERO, 4);
+        IntStream.of(5, 500).forEach(z -> bounded.onBoard(1).create(widget(z)));
+        boundedCompactor.compact(1);
+        assertEquals(1, meter(WidgetCompactor.MOVED, 1));
+
+        bounded.onBoard(2).create(widget(1));
+
+        assertEquals(List.of(0L, 2L), bounded.getBoards().stream().map(WidgetService::getBoard).toList());
+        assertTrue(registry.find(WidgetCompactor.MOVED).tag(WidgetMetrics.BOARD, "1").counters().isEmpty());
+        assertTrue(registry.find(WidgetCompactor.PROGRESS).tag(WidgetMetrics.BOARD, "1").gauges().isEmpty());
+        assertEquals(new WidgetCompactor.Status(1, false, 0, 0, 1), boundedCompactor.getStatus(1));
+        bounded.close();
+    }
+}
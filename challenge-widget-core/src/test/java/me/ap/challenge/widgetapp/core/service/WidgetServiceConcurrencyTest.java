@@ -0,0 +1,158 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.ap.challenge.widgetapp.core.WidgetAppCoreTestConfiguration;
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.repo.InMemoryWidgetRepo;
+import me.ap.challenge.widgetapp.core.repo.WidgetRepo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Stress tests of concurrent modifications, committed as in production.
+ */
+@DataJpaTest
+@ContextConfiguration(classes = WidgetAppCoreTestConfiguration.class)
+@Import(WidgetService.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class WidgetServiceConcurrencyTest {
+    private static final int WRITERS = 200;
+    private static final int WRITES = 10;
+
+    @Autowired
+    private WidgetService service;
+    @Autowired
+    private WidgetRepo repo;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private static Widget widget(Integer z) {
+        return Widget.builder().width(1).height(1).z(z).x(0).y(0).build();
+    }
+
+    /**
+     * Runs the given writes from {@link #WRITERS} threads at once, {@link #WRITES} times each.
+     */
+    private static void runWriters(Runnable write) throws Exception {
+        var executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            var start = new CountDownLatch(1);
+            var writers = new ArrayList<Future<?>>();
+            for (int i = 0; i < WRITERS; i++) {
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < WRITES; j++) {
+                        write.run();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (var writer : writers) {
+                writer.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertUniqueZs(WidgetRepo repo, int expected) {
+        List<Integer> zs = repo.findAll().stream().map(Widget::z).toList();
+        assertEquals(expected, zs.size());
+        assertEquals(expected, new HashSet<>(zs).size());
+    }
+
+    @AfterEach
+    void tearDown() {
+        repo.findAll().forEach(widget -> service.delete(widget.id()));
+    }
+
+    @Test
+    void concurrentCreatesOnTopNeverShareZ() throws Exception {
+        runWriters(() -> service.create(widget(null)));
+
+        assertUniqueZs(repo, WRITERS * WRITES);
+        service.checkMaxZ();
+    }
+
+    @Test
+    void concurrentCreatesAndMovesNeverShareZ() throws Exception {
+        runWriters(() -> {
+            var random = ThreadLocalRandom.current();
+            if (random.nextInt(10) > 0) {
+                service.create(widget(null));
+            } else {
+                var created = service.create(widget(random.nextInt(1, 2000)));
+                service.update(created, created.toBuilder().z(random.nextInt(1, 2000)).build());
+            }
+        });
+
+        assertUniqueZs(repo, WRITERS * WRITES);
+        service.checkMaxZ();
+    }
+
+    @Test
+    void concurrentCreatesInMemoryNeverShareZ() throws Exception {
+        var memoryRepo = new InMemoryWidgetRepo();
+        var memoryService = new WidgetService(memoryRepo, 10, 256);
+
+        runWriters(() -> {
+            var random = ThreadLocalRandom.current();
+            memoryService.create(widget(random.nextInt(10) > 0 ? null : random.nextInt(1, 2000)));
+        });
+
+        assertUniqueZs(memoryRepo, WRITERS * WRITES);
+        memoryService.checkMaxZ();
+    }
+
+    @Test
+    void concurrentMovesInMemoryAreSerialized() throws Exception {
+        var memoryRepo = new InMemoryWidgetRepo();
+        // a single attempt: a modification conflicting with a concurrent one would fail, half applied
+        var memoryService = new WidgetService(memoryRepo, transactionManager, new SimpleMeterRegistry(), 10, 256, 1,
+                10_000, 0);
+
+        runWriters(() -> {
+            var random = ThreadLocalRandom.current();
+            var created = memoryService.create(widget(random.nextInt(1, 2000)));
+            memoryService.update(created, created.toBuilder().z(random.nextInt(1, 2000)).build());
+        });
+
+        assertUniqueZs(memoryRepo, WRITERS * WRITES);
+        memoryService.checkMaxZ();
+    }
+
+    @Test
+    void concurrentPipelinedWritesNeverShareZ() throws Exception {
+        var pipelined = new WidgetService(repo, transactionManager, new SimpleMeterRegistry(), 10, 256, 8, 10_000, 0,
+                64, Duration.ZERO);
+
+        runWriters(() -> {
+            var random = ThreadLocalRandom.current();
+            var created = pipelined.submit(new WidgetOperation.Create(widget(random.nextInt(10) > 0 ? null
+                    : random.nextInt(1, 2000)))).join();
+            if (random.nextInt(10) == 0) {
+                pipelined.submit(new WidgetOperation.Update(created.toBuilder().z(random.nextInt(1, 2000)).build()))
+                        .join();
+            }
+        });
+
+        assertUniqueZs(repo, WRITERS * WRITES);
+        pipelined.checkMaxZ();
+    }
+}
@@ -0,0 +1,882 @@
+package me.ap.challenge.widgetapp.core.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.ap.challenge.widgetapp.core.WidgetAppCoreTestConfiguration;
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.repo.InMemoryWidgetRepo;
+import me.ap.challenge.widgetapp.core.repo.NoFreeZException;
+import me.ap.challenge.widgetapp.core.repo.WidgetRepo;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static me.ap.challenge.widgetapp.core.model.Widget.DEFAULT_BOARD;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest
+@ContextConfiguration(classes = WidgetAppCoreTestConfiguration.class)
+@Import(WidgetService.class)
+class WidgetServiceTest {
+    @Autowired
+    private WidgetService service;
+    @Autowired
+    private WidgetRepo repo;
+    // used outside of the test transaction, for immediate effects on the spatial index
+    private final InMemoryWidgetRepo memoryRepo = new InMemoryWidgetRepo();
+    private final WidgetService memoryService = new WidgetService(memoryRepo, 10, 256);
+
+    private Widget widget(Integer z) {
+        return Widget.builder().width(1).height(1).z(z).x(0).y(0).build();
+    }
+
+    private List<Integer> zs() {
+        return repo.findAll().stream().map(Widget::z).sorted().toList();
+    }
+
+    @Test
+    void createWithoutZGoesOnTopLeavingAGap() {
+        assertEquals(10, service.create(widget(null)).z());
+        assertEquals(20, service.create(widget(null)).z());
+        service.create(widget(100));
+
+        assertEquals(110, service.create(widget(null)).z());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void createWithoutZNearTheLimitGoesRightOnTop() {
+        memoryService.create(widget(Integer.MAX_VALUE - 5));
+
+        assertEquals(Integer.MAX_VALUE - 4, memoryService.create(widget(null)).z());
+        memoryService.create(widget(Integer.MAX_VALUE));
+        assertThrows(NoFreeZException.class, () -> memoryService.create(widget(null)));
+        assertThrows(NoFreeZException.class, () -> memoryService.create(widget(Integer.MAX_VALUE)));
+        assertEquals(List.of(Integer.MAX_VALUE - 5, Integer.MAX_VALUE - 4, Integer.MAX_VALUE),
+                memoryRepo.findAll().stream().map(Widget::z).sorted().toList());
+    }
+
+    @Test
+    void createWithFreeZShiftsNothing() {
+        service.create(widget(1));
+        service.create(widget(3));
+
+        service.create(widget(2));
+
+        assertEquals(List.of(1, 2, 3), zs());
+    }
+
+    @Test
+    void createWithTakenZOnlyShiftsUpToTheFirstGap() {
+        IntStream.of(1, 2, 3, 5, 6, 10).mapToObj(this::widget).forEach(service::create);
+
+        var created = service.create(widget(2));
+
+        assertEquals(2, created.z());
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 10), zs());
+    }
+
+    @Test
+    void shiftTouchesTheRunOnly() {
+        IntStream.of(1, 2, 3, 5, 6).mapToObj(this::widget).forEach(repo::save);
+
+        assertEquals(3, repo.findTopOfZRun(DEFAULT_BOARD, 1).orElseThrow());
+        assertEquals(6, repo.findTopOfZRun(DEFAULT_BOARD, 4).orElseThrow());
+        assertEquals(5, repo.findBottomOfZRun(DEFAULT_BOARD, 6).orElseThrow());
+        assertEquals(1, repo.findBottomOfZRun(DEFAULT_BOARD, 4).orElseThrow());
+        assertEquals(2, repo.shiftZbyOne(DEFAULT_BOARD, 2, 3, 1L));
+        assertEquals(List.of(1, 3, 4, 5, 6), zs());
+    }
+
+    @Test
+    void moveUpShiftsTheIntervalOnly() {
+        var moving = service.create(widget(10));
+        IntStream.of(11, 12, 13, 20).mapToObj(this::widget).forEach(service::create);
+        var below = repo.findByBoardAndZBetweenOrderByZ(DEFAULT_BOARD, 12, 12, Limit.of(1)).get(0);
+
+        var moved = service.update(moving, moving.toBuilder().z(12).build());
+
+        assertEquals(12, moved.z());
+        assertEquals(moving.id(), moved.id());
+        assertEquals(11, repo.findById(below.id()).orElseThrow().z());
+        assertEquals(List.of(10, 11, 12, 13, 20), zs());
+    }
+
+    @Test
+    void moveDownShiftsTheIntervalOnly() {
+        IntStream.of(1, 2, 3, 5).mapToObj(this::widget).forEach(service::create);
+        var moving = service.create(widget(4));
+
+        service.update(moving, moving.toBuilder().z(2).build());
+
+        assertEquals(2, repo.findById(moving.id()).orElseThrow().z());
+        assertEquals(List.of(1, 2, 3, 4, 5), zs());
+    }
+
+    @Test
+    void moveToAFreeZShiftsNothing() {
+        var moving = service.create(widget(1));
+        service.create(widget(3));
+
+        service.update(moving, moving.toBuilder().z(5).build());
+
+        assertEquals(List.of(3, 5), zs());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void moveInStoresWithUniqueZ() {
+        var moving = memoryService.create(widget(1));
+        IntStream.of(2, 3, 4, 8).mapToObj(this::widget).forEach(memoryService::create);
+
+        memoryService.update(moving, moving.toBuilder().z(3).build());
+        assertEquals(List.of(1, 2, 3, 4, 8), memoryService.getPage(null, null, null, 10).stream().map(Widget::z).toList());
+        assertEquals(3, memoryService.getById(moving.id()).z());
+
+        memoryService.update(memoryService.getById(moving.id()), moving.toBuilder().z(1).build());
+        assertEquals(List.of(1, 2, 3, 4, 8), memoryService.getPage(null, null, null, 10).stream().map(Widget::z).toList());
+        assertEquals(1, memoryService.getById(moving.id()).z());
+        assertEquals(5, memoryRepo.count());
+    }
+
+    @Test
+    void applyBatchMovesInPlace() {
+        var moving = service.create(widget(10));
+        var a = service.create(widget(11));
+        var b = service.create(widget(12));
+        service.create(widget(13));
+
+        service.apply(List.of(new WidgetOperation.Update(moving.toBuilder().z(12).build())));
+
+        assertEquals(12, repo.findById(moving.id()).orElseThrow().z());
+        assertEquals(10, repo.findById(a.id()).orElseThrow().z());
+        assertEquals(11, repo.findById(b.id()).orElseThrow().z());
+        assertEquals(List.of(10, 11, 12, 13), zs());
+    }
+
+    @Test
+    void boardsHaveTheirOwnZSpace() {
+        var board = service.onBoard(7);
+        var bottom = service.create(widget(1));
+        var other = board.create(widget(1));
+        board.create(widget(2));
+
+        service.create(widget(1));
+        board.apply(List.of(new WidgetOperation.Create(widget(null))));
+
+        assertEquals(7L, other.board());
+        assertEquals(List.of(1, 2), service.getPage(null, null, null, 10).stream().map(Widget::z).toList());
+        assertEquals(List.of(1, 2, 12), board.getPage(null, null, null, 10).stream().map(Widget::z).toList());
+        assertEquals(2, service.getById(bottom.id()).z());
+        assertTrue(service.findById(other.id()).isEmpty());
+        assertThrows(NoSuchElementException.class, () -> service.update(other, other.toBuilder().z(5).build()));
+        service.delete(other.id());
+        assertEquals(1, board.getById(other.id()).z());
+        assertSame(board, service.onBoard(7));
+        assertEquals(DEFAULT_BOARD, board.onBoard(DEFAULT_BOARD).getBoard());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void readingABoardWithoutWidgetsKeepsNoState() {
+        var reader = memoryService.onBoardForReading(7);
+
+        assertEquals(List.of(), List.copyOf(reader.getAll()));
+        assertTrue(reader.findById(1L).isEmpty());
+        assertEquals(reader.getBoardVersion(), memoryService.onBoardForReading(7).getBoardVersion());
+        assertEquals(List.of(memoryService), List.copyOf(memoryService.getBoards()));
+        assertThrows(IllegalStateException.class, () -> reader.create(widget(1)));
+        assertThrows(IllegalStateException.class, () -> reader.subscribe(10, () -> {
+        }));
+
+        var board = memoryService.onBoard(7);
+        board.create(widget(1));
+        assertSame(board, memoryService.onBoardForReading(7));
+        assertNotEquals(reader.getBoardVersion(), board.getBoardVersion());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void boardsBeyondTheMaximumAreEvicted() {
+        var registry = new SimpleMeterRegistry();
+        var bounded = new WidgetService(new InMemoryWidgetRepo(), null, registry, 10, 256, 1, 10, 10, 8,
+                Duration.ZERO, 1, Duration.ofHours(1));
+        var evicted = bounded.onBoard(1);
+        evicted.create(widget(1));
+        var available = new AtomicInteger();
+        var subscription = evicted.subscribe(10, available::incrementAndGet);
+        assertEquals(1, registry.find(WidgetMetrics.COUNT).tag(WidgetMetrics.BOARD, "1").gauges().size());
+
+        bounded.onBoard(2).create(widget(1));
+
+        assertEquals(List.of(0L, 2L), bounded.getBoards().stream().map(WidgetService::getBoard).toList());
+        assertTrue(registry.find(WidgetMetrics.COUNT).tag(WidgetMetrics.BOARD, "1").gauges().isEmpty());
+        assertTrue(registry.find("cache.size").tag(WidgetMetrics.BOARD, "1").gauges().isEmpty());
+        assertTrue(subscription.isClosed());
+        assertEquals(1, available.get());
+        // loaded again on next use
+        assertEquals(List.of(1), bounded.onBoard(1).getAll().stream().map(Widget::z).toList());
+        bounded.close();
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void evictingABoardWaitsForItsModificationsAndHandsTheNextOnesOver() throws Exception {
+        var applying = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var blockingRepo = new InMemoryWidgetRepo() {
+            @Override
+            public <S extends Widget> S save(S widget) {
+                if (widget.z() == 1) {
+                    applying.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return super.save(widget);
+            }
+        };
+        var bounded = new WidgetService(blockingRepo, null, new SimpleMeterRegistry(), 10, 256, 1, 10, 10, 8,
+                Duration.ZERO, 1, Duration.ofHours(1));
+        var evicted = bounded.onBoard(1);
+        var applied = evicted.submit(new WidgetOperation.Create(widget(1)));
+        applying.await();
+        var queued = evicted.submit(new WidgetOperation.Create(widget(2)));
+
+        var evicting = CompletableFuture.runAsync(() -> bounded.onBoard(2));
+        Thread.sleep(100);
+        assertFalse(evicting.isDone());
+        release.countDown();
+        evicting.join();
+
+        long revision = applied.join().revision();
+        assertTrue(queued.join().revision() > revision);
+        assertTrue(evicted.create(widget(3)).revision() > queued.join().revision());
+        var next = bounded.onBoard(1);
+        assertNotSame(evicted, next);
+        assertEquals(List.of(1, 2, 3), next.getAll().stream().map(Widget::z).sorted().toList());
+        bounded.close();
+    }
+
+    @Test
+    void maxZFollowsEveryModification() {
+        var bottom = service.create(widget(1));
+        service.checkMaxZ();
+        var top = service.create(widget(null));
+        service.checkMaxZ();
+        service.create(widget(11));
+        service.checkMaxZ();
+
+        var stored = repo.findById(top.id()).orElseThrow();
+        service.update(stored, stored.toBuilder().z(1).build());
+        service.checkMaxZ();
+        stored = repo.findById(bottom.id()).orElseThrow();
+        service.update(stored, stored.toBuilder().z(50).build());
+        service.checkMaxZ();
+        service.delete(bottom.id());
+        service.checkMaxZ();
+        service.apply(List.of(new WidgetOperation.Create(widget(null)), new WidgetOperation.Delete(top.id())));
+        service.checkMaxZ();
+
+        assertEquals(zs().get(zs().size() - 1), service.getMaxZ().orElseThrow());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void createOnTopDoesNotQueryMaxZ() {
+        var maxZQueries = new AtomicInteger();
+        var countingService = new WidgetService(new InMemoryWidgetRepo() {
+            @Override
+            public Optional<Integer> findMaxZ(Long board) {
+                maxZQueries.incrementAndGet();
+                return super.findMaxZ(board);
+            }
+        }, 10, 256);
+
+        IntStream.range(0, 10).forEach(i -> countingService.create(widget(null)));
+
+        assertEquals(1, maxZQueries.get());
+        assertEquals(Optional.of(100), countingService.getMaxZ());
+        countingService.checkMaxZ();
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void batchesAndCompactionsKeepTheZsUnlessTheyLeaveTheTopOrBottom() {
+        var zQueries = new AtomicInteger();
+        var countingService = new WidgetService(new InMemoryWidgetRepo() {
+            @Override
+            public Optional<Integer> findMaxZ(Long board) {
+                zQueries.incrementAndGet();
+                return super.findMaxZ(board);
+            }
+
+            @Override
+            public Optional<Integer> findMinZ(Long board) {
+                zQueries.incrementAndGet();
+                return super.findMinZ(board);
+            }
+        }, 10, 256);
+        var moving = countingService.create(widget(50));
+        var deleted = countingService.create(widget(60));
+        IntStream.of(5, 100).forEach(z -> countingService.create(widget(z)));
+        assertEquals(Optional.of(5), countingService.getMinZ());
+
+        countingService.apply(List.of(new WidgetOperation.Create(widget(null)),
+                new WidgetOperation.Update(moving.toBuilder().z(3).build()), new WidgetOperation.Delete(deleted.id())));
+        zQueries.set(0);
+        assertEquals(Optional.of(110), countingService.getMaxZ());
+        assertEquals(Optional.of(3), countingService.getMinZ());
+        countingService.compact(5, 10);
+        assertEquals(Optional.of(25), countingService.getMaxZ());
+        assertEquals(Optional.of(3), countingService.getMinZ());
+        assertEquals(1, zQueries.get());
+        countingService.checkMaxZ();
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void minZFollowsEveryModificationWithoutQueries() {
+        var minZQueries = new AtomicInteger();
+        var countingRepo = new InMemoryWidgetRepo() {
+            @Override
+            public Optional<Integer> findMinZ(Long board) {
+                minZQueries.incrementAndGet();
+                return super.findMinZ(board);
+            }
+        };
+        var countingService = new WidgetService(countingRepo, 10, 256);
+
+        assertEquals(Optional.empty(), countingService.getMinZ());
+        var bottom = countingService.create(widget(5));
+        countingService.create(widget(null));
+        assertEquals(Optional.of(5), countingService.getMinZ());
+        var lowered = countingService.create(widget(-3));
+        assertEquals(Optional.of(-3), countingService.getMinZ());
+        countingService.update(bottom, bottom.toBuilder().z(-7).build());
+        assertEquals(Optional.of(-7), countingService.getMinZ());
+        assertEquals(1, minZQueries.get());
+
+        // the bottom Widget leaving its Z is looked up again, once
+        countingService.delete(bottom.id());
+        assertEquals(Optional.of(-3), countingService.getMinZ());
+        assertEquals(Optional.of(-3), countingService.getMinZ());
+        assertEquals(2, minZQueries.get());
+        countingService.update(lowered, lowered.toBuilder().z(30).build());
+        assertEquals(countingRepo.findMinZ(DEFAULT_BOARD), countingService.getMinZ());
+    }
+
+    @Test
+    void getPageChainsByZ() {
+        IntStream.of(5, -2, 8, 1, 3).mapToObj(this::widget).forEach(service::create);
+
+        assertEquals(List.of(-2, 1), service.getPage(null, null, null, 2).stream().map(Widget::z).toList());
+        assertEquals(List.of(3, 5), service.getPage(1, null, null, 2).stream().map(Widget::z).toList());
+        assertEquals(List.of(8), service.getPage(5, null, null, 2).stream().map(Widget::z).toList());
+        assertEquals(List.of(), service.getPage(8, null, null, 2));
+    }
+
+    @Test
+    void getPageFiltersByZRange() {
+        IntStream.of(5, -2, 8, 1, 3).mapToObj(this::widget).forEach(service::create);
+
+        assertEquals(List.of(1, 3, 5), service.getPage(null, 0, 5, 10).stream().map(Widget::z).toList());
+        assertEquals(List.of(3, 5), service.getPage(1, 0, 5, 10).stream().map(Widget::z).toList());
+        assertEquals(List.of(5), service.getPage(-10, 4, 7, 10).stream().map(Widget::z).toList());
+        assertEquals(List.of(), service.getPage(null, 6, 5, 10));
+        assertThrows(IllegalArgumentException.class, () -> service.getPage(null, null, null, 0));
+    }
+
+    @Test
+    void forEachInZOrder() {
+        IntStream.of(5, -2, 8).mapToObj(this::widget).forEach(service::create);
+        var streamed = new ArrayList<Widget>();
+
+        service.forEachInZOrder(streamed::add);
+
+        assertEquals(List.of(-2, 5, 8), streamed.stream().map(Widget::z).toList());
+        streamed.forEach(widget -> assertEquals(widget, repo.findById(widget.id()).orElseThrow()));
+    }
+
+    @Test
+    void applyBatchAsSequentialOperations() {
+        var a = service.create(widget(1));
+        var b = service.create(widget(2));
+        var c = service.create(widget(3));
+        var d = service.create(widget(5));
+
+        var result = service.apply(List.of(
+                new WidgetOperation.Create(widget(2)),
+                new WidgetOperation.Create(widget(2).width(7)),
+                new WidgetOperation.Update(d.toBuilder().z(1).width(3).build()),
+                new WidgetOperation.Delete(c.id()),
+                new WidgetOperation.Delete(-1L)));
+
+        assertEquals(List.of(c.id()), result.deletedIds());
+        var byZ = result.widgets().stream().collect(Collectors.toMap(Widget::z, Function.identity()));
+        assertEquals(Set.of(1, 2, 3, 4, 5), byZ.keySet());
+        assertEquals(d.id(), byZ.get(1).id());
+        assertEquals(3, byZ.get(1).width());
+        assertEquals(a.id(), byZ.get(2).id());
+        assertEquals(7, byZ.get(3).width());
+        assertEquals(1, byZ.get(4).width());
+        assertEquals(b.id(), byZ.get(5).id());
+        assertEquals(Set.copyOf(result.widgets()), Set.copyOf(repo.findAll()));
+    }
+
+    @Test
+    void applyBatchPlacesWidgetsWithoutZOnTop() {
+        service.create(widget(5));
+
+        var result = service.apply(List.of(
+                new WidgetOperation.Create(widget(null)),
+                new WidgetOperation.Create(widget(null))));
+
+        assertEquals(List.of(15, 25), result.widgets().stream().map(Widget::z).toList());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void applyBatchNearTheLimitPlacesWidgetsRightOnTop() {
+        var top = memoryService.create(widget(Integer.MAX_VALUE - 5));
+
+        var result = memoryService.apply(List.of(
+                new WidgetOperation.Create(widget(null)),
+                new WidgetOperation.Create(widget(null))));
+
+        assertEquals(List.of(Integer.MAX_VALUE - 4, Integer.MAX_VALUE - 3),
+                result.widgets().stream().map(Widget::z).toList());
+        memoryService.create(widget(Integer.MAX_VALUE));
+        assertThrows(NoFreeZException.class, () -> memoryService.apply(List.of(
+                new WidgetOperation.Create(widget(null)))));
+        assertThrows(NoFreeZException.class, () -> memoryService.apply(List.of(
+                new WidgetOperation.Create(widget(Integer.MAX_VALUE - 5)))));
+        assertEquals(Integer.MAX_VALUE - 5, memoryService.getById(top.id()).z());
+    }
+
+    @Test
+    void applyBatchFailsAltogether() {
+        var widget = service.create(widget(1));
+
+        assertThrows(NoSuchElementException.class, () -> service.apply(List.of(
+                new WidgetOperation.Create(widget(1)),
+                new WidgetOperation.Update(widget.toBuilder().id(-1L).build()))));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void applyBatchFailsAltogetherInMemory() {
+        var deleted = memoryService.create(widget(1));
+        var moved = memoryService.create(widget(2));
+        memoryService.create(widget(Integer.MAX_VALUE));
+
+        // no room left above the top to park the moving Widget
+        assertThrows(NoFreeZException.class, () -> memoryService.apply(List.of(
+                new WidgetOperation.Delete(deleted.id()),
+                new WidgetOperation.Update(moved.toBuilder().z(3).build()))));
+
+        assertEquals(List.of(1, 2, Integer.MAX_VALUE),
+                memoryRepo.findAll().stream().map(Widget::z).sorted().toList());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void applyBatchSwapsWidgetsInStoresWithUniqueZ() {
+        var a = memoryService.create(widget(5));
+        var b = memoryService.create(widget(6));
+
+        memoryService.apply(List.of(
+                new WidgetOperation.Update(a.toBuilder().z(6).build()),
+                new WidgetOperation.Update(b.toBuilder().z(5).build())));
+
+        assertEquals(6, memoryService.getById(a.id()).z());
+        assertEquals(5, memoryService.getById(b.id()).z());
+        assertEquals(Optional.of(6), memoryService.getMaxZ());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void pipelineCompletesEveryWriteWithItsOwnOutcome() {
+        var pipelined = new WidgetService(memoryRepo, null, new SimpleMeterRegistry(), 10, 256, 8, 10, 0,
+                16, Duration.ofMillis(200));
+        var stored = pipelined.create(widget(2));
+
+        var created = pipelined.submit(new WidgetOperation.Create(widget(5)));
+        var missing = pipelined.submit(new WidgetOperation.Update(widget(5).id(-1L)));
+        var moved = pipelined.submit(new WidgetOperation.Update(stored.toBuilder().z(1).build(), stored.version()));
+        var stale = pipelined.submit(new WidgetOperation.Update(stored.toBuilder().z(9).build(), stored.version()));
+        var deleted = pipelined.submit(new WidgetOperation.Delete(stored.id()));
+
+        assertEquals(5, created.join().z());
+        assertEquals(1, moved.join().z());
+        assertEquals(stored.id(), moved.join().id());
+        assertNull(deleted.join());
+        var notFound = assertThrows(CompletionException.class, missing::join);
+        assertInstanceOf(NoSuchElementException.class, notFound.getCause());
+        var conflict = assertThrows(CompletionException.class, stale::join);
+        assertInstanceOf(StaleVersionException.class, conflict.getCause());
+        assertEquals(List.of(created.join()), memoryRepo.findAll());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void closingThePipelineFailsTheQueuedWrites() throws InterruptedException {
+        var applying = new CountDownLatch(1);
+        var blockingRepo = new InMemoryWidgetRepo() {
+            @Override
+            public <S extends Widget> S save(S widget) {
+                applying.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+                return super.save(widget);
+            }
+        };
+        var pipelined = new WidgetService(blockingRepo, null, new SimpleMeterRegistry(), 10, 256, 8, 10, 0,
+                16, Duration.ZERO);
+
+        var applied = pipelined.submit(new WidgetOperation.Create(widget(1)));
+        applying.await();
+        var queued = pipelined.submit(new WidgetOperation.Create(widget(2)));
+        pipelined.close();
+
+        var closed = assertThrows(CompletionException.class, queued::join);
+        assertInstanceOf(IllegalStateException.class, closed.getCause());
+        assertThrows(CompletionException.class, applied::join);
+        assertTrue(blockingRepo.findAll().isEmpty());
+    }
+
+    @Test
+    void compactClosesTheGapsKeepingTheZOrder() {
+        var widgets = Stream.of(-5, 3, 100, 101, 1000, 5000).map(z -> service.create(widget(z))).toList();
+
+        Integer floor = null;
+        int moved = 0;
+        WidgetCompaction compaction;
+        do {
+            compaction = service.compact(floor, 2);
+            floor = compaction.floor();
+            moved += compaction.moved();
+        } while (!compaction.last());
+
+        assertEquals(4, moved);
+        assertEquals(List.of(-5, 3, 13, 23, 33, 43), widgets.stream().map(widget -> repo.findById(widget.id())
+                .orElseThrow().z()).toList());
+        assertEquals(Optional.of(43), service.getMaxZ());
+        assertEquals(new WidgetCompaction(43, 0, 0, true), service.compact(43, 2));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void createPlacesAtOriginByDefault() {
+        var widget = memoryService.create(Widget.builder().width(1).height(1).z(1).build());
+
+        assertEquals(0, widget.x());
+        assertEquals(0, widget.y());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void getInViewportInZOrder() {
+        var far = memoryService.create(widget(1).x(1000).y(1000));
+        var top = memoryService.create(widget(7).x(10).y(10).width(5).height(5));
+        var huge = memoryService.create(widget(-3).x(-100_000).y(-100_000).width(200_000).height(200_000));
+        var bottom = memoryService.create(widget(2).x(-20).y(-20).width(10).height(10));
+
+        assertEquals(List.of(huge, bottom, top), memoryService.getInViewport(-10, -10, 10, 10));
+        assertEquals(List.of(huge, far), memoryService.getInViewport(500, 500, 1500, 1500));
+        assertEquals(List.of(huge, far), memoryService.getInViewport(1001, 1001, 1001, 1001));
+        assertThrows(IllegalArgumentException.class, () -> memoryService.getInViewport(1, 0, 0, 0));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void getInViewportFollowsModifications() {
+        var widget = memoryService.create(widget(1).x(0).y(0));
+        memoryService.update(widget, widget.toBuilder().x(1000).y(1000).build());
+        var other = memoryService.create(widget(2).x(1000).y(1000));
+
+        assertEquals(List.of(), memoryService.getInViewport(-1, -1, 0, 0));
+        assertEquals(List.of(widget.id(), other.id()),
+                memoryService.getInViewport(999, 999, 1000, 1000).stream().map(Widget::id).toList());
+
+        memoryService.delete(other.id());
+        memoryService.apply(List.of(new WidgetOperation.Update(widget.toBuilder().x(null).y(-1000).build())));
+
+        assertEquals(List.of(), memoryService.getInViewport(999, 999, 1000, 1000));
+        assertEquals(List.of(widget.id()),
+                memoryService.getInViewport(1000, -1000, 1000, -1000).stream().map(Widget::id).toList());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void spatialIndexIsLoadedFromStoredWidgets() {
+        var widget = memoryRepo.save(widget(1).x(5).y(5));
+
+        memoryService.loadSpatialIndex();
+
+        assertEquals(List.of(widget), memoryService.getInViewport(0, 0, 5, 5));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void metricsMeasureCommittedWrites() {
+        var registry = new SimpleMeterRegistry();
+        var measuredService = new WidgetService(new InMemoryWidgetRepo(), null, registry, 10, 256, 1, 100, 0);
+
+        var bottom = measuredService.create(widget(1));
+        measuredService.create(widget(2));
+        measuredService.create(widget(null));
+        measuredService.create(widget(1));
+        measuredService.update(bottom, bottom.toBuilder().z(1).build());
+
+        assertEquals(1, registry.get(WidgetMetrics.CREATED).tag("z", "auto").counter().count());
+        assertEquals(3, registry.get(WidgetMetrics.CREATED).tag("z", "explicit").counter().count());
+        var createShifts = registry.get(WidgetMetrics.SHIFTED).tag("operation", "create").summary();
+        assertEquals(4, createShifts.count());
+        assertEquals(2, createShifts.totalAmount());
+        assertEquals(2, createShifts.max());
+        var updateShifts = registry.get(WidgetMetrics.SHIFTED).tag("operation", "update").summary();
+        assertEquals(1, updateShifts.count());
+        assertEquals(1, updateShifts.totalAmount());
+        assertEquals(4, registry.get(WidgetMetrics.COUNT).gauge().value());
+        assertEquals(12 - 1, registry.get(WidgetMetrics.Z_SPAN).gauge().value());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void changesArePublishedOnCommit() {
+        var available = new AtomicInteger();
+        try (var subscription = memoryService.subscribe(10, available::incrementAndGet)) {
+            var bottom = memoryService.create(widget(1));
+            var top = memoryService.create(widget(1));
+            memoryService.delete(top.id());
+
+            assertEquals(1, available.get());
+            assertEquals(List.of(
+                    new WidgetChange.Created(bottom),
+                    new WidgetChange.Shifted(top.revision(), 1, 1, 1)
+            ), subscription.drain(10));
+
+            var shifted = memoryService.findById(bottom.id()).orElseThrow();
+            memoryService.update(shifted, shifted.toBuilder().width(5).build());
+            assertEquals(2, available.get());
+            assertEquals(
+                    List.of(new WidgetChange.Updated(shifted.toBuilder().width(5).build())),
+                    subscription.drain(10));
+        }
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void changesSinceARevisionIncludeShiftsAndDeletions() {
+        var initial = memoryService.getChangesSince(0);
+        assertEquals(true, initial.resync());
+        assertEquals(new WidgetDelta(initial.revision(), false, List.of(), List.of()),
+                memoryService.getChangesSince(initial.revision()));
+
+        var bottom = memoryService.create(widget(1));
+        var top = memoryService.create(widget(2));
+        var afterCreates = memoryService.getChangesSince(initial.revision());
+        assertEquals(Set.of(bottom, top), Set.copyOf(afterCreates.widgets()));
+
+        var inserted = memoryService.create(widget(1));
+        memoryService.delete(top.id());
+        var changes = memoryService.getChangesSince(afterCreates.revision());
+
+        assertEquals(false, changes.resync());
+        assertEquals(afterCreates.revision() + 2, changes.revision());
+        assertEquals(Set.of(bottom.toBuilder().z(2).build(), inserted), Set.copyOf(changes.widgets()));
+        assertEquals(List.of(top.id()), changes.deletedIds());
+        assertEquals(new WidgetDelta(changes.revision(), false, List.of(), List.of()),
+                memoryService.getChangesSince(changes.revision()));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void changesBeyondTheTombstonesRequireAResync() {
+        var retainingOne = new WidgetService(new InMemoryWidgetRepo(), null, new SimpleMeterRegistry(), 10, 256, 1, 1, 0);
+        var first = retainingOne.create(widget(1));
+        var second = retainingOne.create(widget(2));
+        retainingOne.delete(first.id());
+        retainingOne.delete(second.id());
+
+        var changes = retainingOne.getChangesSince(first.revision());
+        assertEquals(new WidgetDelta(second.revision() + 2, true, List.of(), List.of()), changes);
+        assertEquals(List.of(second.id()), retainingOne.getChangesSince(second.revision() + 1).deletedIds());
+        assertEquals(true, retainingOne.getChangesSince(second.revision() + 3).resync());
+        assertThrows(IllegalArgumentException.class, () -> retainingOne.getChangesSince(-1));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void revisionsGivenBeforeTheServiceStartedRequireAResync() {
+        var kept = memoryService.create(widget(1));
+        var deleted = memoryService.create(widget(2));
+        memoryService.delete(deleted.id());
+        // the deletion is not stored, and its revision is above the stored ones
+        var seen = memoryService.getChangesSince(kept.revision()).revision();
+        // a restart takes more than a millisecond
+        long stopped = System.currentTimeMillis();
+        while (System.currentTimeMillis() <= stopped) {
+            Thread.onSpinWait();
+        }
+
+        var restarted = new WidgetService(memoryRepo, 10, 256);
+        var created = restarted.create(widget(3));
+
+        assertTrue(created.revision() > seen);
+        assertEquals(true, restarted.getChangesSince(seen).resync());
+        assertEquals(true, restarted.getChangesSince(kept.revision()).resync());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void updateRequiresTheExpectedRevision() {
+        var version = memoryService.getBoardVersion();
+        var widget = memoryService.create(widget(1));
+        assertNotEquals(version, memoryService.getBoardVersion());
+        assertEquals(Optional.of(widget.revision()), memoryService.findRevisionById(widget.id()));
+
+        // shifted by the new Widget
+        memoryService.create(widget(1));
+        var shiftedRevision = memoryService.findRevisionById(widget.id()).orElseThrow();
+        var byId = Widget.builder().id(widget.id()).build();
+        assertThrows(PreconditionFailedException.class,
+                () -> memoryService.update(byId, widget.toBuilder().width(2).z(2).build(), widget.revision(), null));
+        assertEquals(1, memoryService.getById(widget.id()).width());
+
+        var updated = memoryService.update(byId, widget.toBuilder().width(2).z(2).build(), shiftedRevision, null);
+        assertEquals(2, updated.width());
+        assertNotEquals(shiftedRevision, updated.revision());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void updateRequiresTheExpectedVersion() {
+        var widget = memoryService.create(widget(1));
+        assertEquals(0, widget.version());
+
+        // shifted by the new Widget
+        memoryService.create(widget(1));
+        var shifted = memoryService.getById(widget.id());
+        assertEquals(1, shifted.version());
+        assertThrows(StaleVersionException.class,
+                () -> memoryService.update(widget, widget.toBuilder().width(2).build(), null, widget.version()));
+        assertThrows(StaleVersionException.class, () -> memoryService.apply(List.of(
+                new WidgetOperation.Update(widget.toBuilder().width(2).build(), widget.version()))));
+        assertEquals(1, memoryService.getById(widget.id()).width());
+
+        var updated = memoryService.update(shifted, shifted.toBuilder().width(2).build(), null, shifted.version());
+        assertEquals(2, updated.version());
+        var batched = memoryService.apply(List.of(
+                new WidgetOperation.Update(updated.toBuilder().width(3).build(), updated.version())));
+        assertEquals(3, batched.widgets().iterator().next().version());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void onlyZCollisionsAreRetried() {
+        var saves = new AtomicInteger();
+        var failure = new AtomicReference<DataIntegrityViolationException>();
+        var failingService = new WidgetService(new InMemoryWidgetRepo() {
+            @Override
+            public <S extends Widget> S save(S widget) {
+                saves.incrementAndGet();
+                throw failure.get();
+            }
+        }, null, new SimpleMeterRegistry(), 10, 256, 3, 10, 0);
+
+        failure.set(new DuplicateKeyException("z collision"));
+        assertThrows(DuplicateKeyException.class, () -> failingService.create(widget(1)));
+        assertEquals(3, saves.getAndSet(0));
+
+        failure.set(new DataIntegrityViolationException("another constraint"));
+        assertThrows(DataIntegrityViolationException.class, () -> failingService.create(widget(1)));
+        assertEquals(1, saves.get());
+    }
+
+    @Test
+    void versionIsIncreasedByShifts() {
+        var widget = service.create(widget(1));
+        service.create(widget(1));
+        repo.flush();
+
+        // parked above the others then moved back, by bulk updates
+        var shifted = repo.findById(widget.id()).orElseThrow();
+        assertTrue(shifted.version() > widget.version());
+        var moved = service.update(shifted, shifted.toBuilder().z(1).build(), null, shifted.version());
+        repo.flush();
+        assertEquals(1, moved.z());
+        assertTrue(moved.version() > shifted.version());
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void lookupsByIdAreCachedUntilWritten() {
+        var loads = new AtomicInteger();
+        var registry = new SimpleMeterRegistry();
+        var cachingService = new WidgetService(new InMemoryWidgetRepo() {
+            @Override
+            public Optional<Widget> findById(Long id) {
+                loads.incrementAndGet();
+                return super.findById(id);
+            }
+        }, null, registry, 10, 256, 1, 100, 10);
+
+        var bottom = cachingService.create(widget(1));
+        var top = cachingService.create(widget(2));
+        loads.set(0);
+        assertEquals(bottom, cachingService.getById(bottom.id()));
+        assertEquals(bottom, cachingService.getById(bottom.id()));
+        assertEquals(Optional.of(bottom.revision()), cachingService.findRevisionById(bottom.id()));
+        assertEquals(top, cachingService.getById(top.id()));
+        assertEquals(2, loads.get());
+        assertEquals(2, registry.get("cache.gets").tags("cache", WidgetCache.NAME, "result", "hit")
+                .functionCounter().count());
+        assertEquals(2, registry.get("cache.gets").tags("cache", WidgetCache.NAME, "result", "miss")
+                .functionCounter().count());
+
+        // both shifted by the new Widget, without being written by id
+        cachingService.create(widget(1));
+        assertEquals(2, cachingService.getById(bottom.id()).z());
+        assertEquals(3, cachingService.getById(top.id()).z());
+
+        var updated = cachingService.update(top, top.toBuilder().width(5).build());
+        assertEquals(updated, cachingService.getById(top.id()));
+        cachingService.delete(bottom.id());
+        assertEquals(Optional.empty(), cachingService.findById(bottom.id()));
+    }
+}
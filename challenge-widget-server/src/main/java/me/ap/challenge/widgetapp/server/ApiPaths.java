@@ -1,8 +1,22 @@
 package me.ap.challenge.widgetapp.server;
 
 /**
- * The URL paths of the web API.
+ * The URL paths of the web API, and the media types it serves besides JSON.
  */
 public class ApiPaths {
     public static final String PATH_WIDGET = "/api/widget/";
+    public static final String SUBPATH_EXPORT = "export";
+    public static final String PATH_WIDGET_EXPORT = PATH_WIDGET + SUBPATH_EXPORT;
+    public static final String SUBPATH_BATCH = "batch";
+    public static final String PATH_WIDGET_BATCH = PATH_WIDGET + SUBPATH_BATCH;
+    public static final String SUBPATH_CHANGES = "changes";
+    public static final String PATH_WIDGET_CHANGES = PATH_WIDGET + SUBPATH_CHANGES;
+    /**
+     * The Widgets of a board, with the same subpaths: the ones under {@link #PATH_WIDGET} are on the default board.
+     */
+    public static final String PATH_BOARD_WIDGET = "/api/board/{boardId}/widget/";
+    /**
+     * Smile, the binary JSON of Jackson, served on request by the listings and the batches.
+     */
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
 }
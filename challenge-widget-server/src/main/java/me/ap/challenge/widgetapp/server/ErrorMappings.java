@@ -4,10 +4,15 @@ import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.exc.MismatchedInputException;
 import com.fasterxml.jackson.databind.exc.ValueInstantiationException;
+import jakarta.persistence.OptimisticLockException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.ConstraintViolationException;
+import me.ap.challenge.widgetapp.core.repo.NoFreeZException;
+import me.ap.challenge.widgetapp.core.service.PreconditionFailedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
@@ -31,8 +36,11 @@ import static org.springframework.http.HttpStatus.BAD_REQUEST;
  * <p>
  * Creates a uniform and informative payload to use as an HTTP response for error states.
  * Hides details that, for security reasons, should not be part of an error response.
+ * <p>
+ * Serves the servlet stack: see {@link ReactiveErrorMappings} for the reactive one.
  */
 @RestControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class ErrorMappings {
     private static final Logger LOGGER = LoggerFactory.getLogger(ErrorMappings.class);
 
@@ -81,7 +89,7 @@ public class ErrorMappings {
     @ExceptionHandler
     public ResponseEntity<ErrorResponse> handle(MethodArgumentNotValidException e, HttpServletRequest request) {
         String message = e.getAllErrors().stream()
-                .map(this::formatMessage)
+                .map(ErrorMappings::formatMessage)
                 .collect(Collectors.joining(","));
         return error(message, BAD_REQUEST, request);
     }
@@ -108,23 +116,13 @@ public class ErrorMappings {
     @ExceptionHandler
     public ResponseEntity<ErrorResponse> handle(MismatchedInputException e,
                                                 HttpServletRequest request) {
-        var message = String.format("The structure or type of '%s' is invalid",
-                e.getPath()
-                        .stream()
-                        .map(JsonMappingException.Reference::getFieldName)
-                        .collect(Collectors.joining(".")));
-        return error(message, BAD_REQUEST, request);
+        return error(formatMessage(e), BAD_REQUEST, request);
     }
 
     @ExceptionHandler
     public ResponseEntity<ErrorResponse> handle(ValueInstantiationException e,
                                                 HttpServletRequest request) {
-        var message = String.format("Field '%s' is invalid",
-                e.getPath()
-                        .stream()
-                        .map(JsonMappingException.Reference::getFieldName)
-                        .collect(Collectors.joining(".")));
-        return error(message, BAD_REQUEST, request);
+        return error(formatMessage(e), BAD_REQUEST, request);
     }
 
     @ExceptionHandler
@@ -139,6 +137,30 @@ public class ErrorMappings {
         return error(e, HttpStatus.NOT_FOUND, request);
     }
 
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(PreconditionFailedException e,
+                                                HttpServletRequest request) {
+        return error(e, HttpStatus.PRECONDITION_FAILED, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(NoFreeZException e,
+                                                HttpServletRequest request) {
+        return error(e, HttpStatus.CONFLICT, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(OptimisticLockingFailureException e,
+                                                HttpServletRequest request) {
+        return error(e, HttpStatus.CONFLICT, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(OptimisticLockException e,
+                                                HttpServletRequest request) {
+        return error(e, HttpStatus.CONFLICT, request);
+    }
+
     @ExceptionHandler
     public ResponseEntity<ErrorResponse> handle(ConstraintViolationException e,
                                                 HttpServletRequest request) {
@@ -163,7 +185,22 @@ public class ErrorMappings {
         return obfuscate(e, request);
     }
 
-    private String formatMessage(ObjectError objectError) {
+    static String formatMessage(MismatchedInputException e) {
+        return String.format("The structure or type of '%s' is invalid", formatPath(e));
+    }
+
+    static String formatMessage(ValueInstantiationException e) {
+        return String.format("Field '%s' is invalid", formatPath(e));
+    }
+
+    private static String formatPath(JsonMappingException e) {
+        return e.getPath()
+                .stream()
+                .map(JsonMappingException.Reference::getFieldName)
+                .collect(Collectors.joining("."));
+    }
+
+    static String formatMessage(ObjectError objectError) {
         if (objectError instanceof FieldError fieldError) {
             return String.format("field '%s' is invalid: %s", fieldError.getField(), fieldError.getRejectedValue());
         } else {
@@ -0,0 +1,170 @@
+package me.ap.challenge.widgetapp.server;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import com.fasterxml.jackson.databind.exc.ValueInstantiationException;
+import jakarta.persistence.OptimisticLockException;
+import jakarta.validation.ConstraintViolationException;
+import me.ap.challenge.widgetapp.server.ErrorMappings.ErrorResponse;
+import me.ap.challenge.widgetapp.core.repo.NoFreeZException;
+import me.ap.challenge.widgetapp.core.service.PreconditionFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.time.ZonedDateTime;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+
+/**
+ * The {@link ErrorMappings} of the reactive stack, with the same payloads.
+ * <p>
+ * Invalid requests are reported by WebFlux as {@link ServerWebInputException}s, wrapping the cause: a Jackson one is
+ * described as by the servlet stack.
+ */
+@RestControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveErrorMappings {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveErrorMappings.class);
+
+    private ResponseEntity<ErrorResponse> obfuscate(Exception e,
+                                                    ServerHttpRequest request) {
+        LOGGER.warn("Exception during request", e);
+        return error("An internal server error occurred. Please miao at support if this issue persists.",
+                HttpStatus.INTERNAL_SERVER_ERROR,
+                request);
+    }
+
+    private ResponseEntity<ErrorResponse> error(Exception e,
+                                                HttpStatusCode status,
+                                                ServerHttpRequest request) {
+        LOGGER.info("Exception during request", e);
+        return error(e.getMessage(), status, request);
+    }
+
+    private ResponseEntity<ErrorResponse> error(String message,
+                                                HttpStatusCode status,
+                                                ServerHttpRequest request) {
+        LOGGER.info("Exception during request: " + message);
+        return ResponseEntity.status(status)
+                .body(new ErrorResponse(ZonedDateTime.now(),
+                        status.value(),
+                        Optional.ofNullable(HttpStatus.resolve(status.value()))
+                                .map(HttpStatus::getReasonPhrase)
+                                .orElse(null),
+                        message,
+                        request.getPath().value()));
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(WebExchangeBindException e,
+                                                ServerHttpRequest request) {
+        String message = e.getAllErrors().stream()
+                .map(ErrorMappings::formatMessage)
+                .collect(Collectors.joining(","));
+        return error(message, BAD_REQUEST, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(ServerWebInputException e,
+                                                ServerHttpRequest request) {
+        for (var cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ValueInstantiationException causeException) {
+                return handle(causeException, request);
+            }
+            if (cause instanceof MismatchedInputException causeException) {
+                return handle(causeException, request);
+            }
+            if (cause instanceof JsonParseException causeException) {
+                return error(causeException, BAD_REQUEST, request);
+            }
+        }
+
+        return error(Optional.ofNullable(e.getReason()).orElse("Bad request"), BAD_REQUEST, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(MismatchedInputException e,
+                                                ServerHttpRequest request) {
+        return error(ErrorMappings.formatMessage(e), BAD_REQUEST, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(ValueInstantiationException e,
+                                                ServerHttpRequest request) {
+        return error(ErrorMappings.formatMessage(e), BAD_REQUEST, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(ResponseStatusException e,
+                                                ServerHttpRequest request) {
+        return error(e.getReason(), e.getStatusCode(), request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(IllegalArgumentException e,
+                                                ServerHttpRequest request) {
+        return error(e, BAD_REQUEST, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(NoSuchElementException e,
+                                                ServerHttpRequest request) {
+        return error(e, HttpStatus.NOT_FOUND, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(PreconditionFailedException e,
+                                                ServerHttpRequest request) {
+        return error(e, HttpStatus.PRECONDITION_FAILED, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(NoFreeZException e,
+                                                ServerHttpRequest request) {
+        return error(e, HttpStatus.CONFLICT, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(OptimisticLockingFailureException e,
+                                                ServerHttpRequest request) {
+        return error(e, HttpStatus.CONFLICT, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(OptimisticLockException e,
+                                                ServerHttpRequest request) {
+        return error(e, HttpStatus.CONFLICT, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(ConstraintViolationException e,
+                                                ServerHttpRequest request) {
+        return error(e, BAD_REQUEST, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(IllegalStateException e,
+                                                ServerHttpRequest request) {
+        return obfuscate(e, request);
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<ErrorResponse> handle(Exception e,
+                                                ServerHttpRequest request) {
+        return obfuscate(e, request);
+    }
+}
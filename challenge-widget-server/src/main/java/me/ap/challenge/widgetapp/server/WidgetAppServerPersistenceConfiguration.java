@@ -1,12 +1,87 @@
 package me.ap.challenge.widgetapp.server;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import me.ap.challenge.widgetapp.core.WidgetAppCoreConfiguration;
+import me.ap.challenge.widgetapp.core.repo.FileWidgetRepo;
+import me.ap.challenge.widgetapp.core.repo.InMemoryWidgetRepo;
+import me.ap.challenge.widgetapp.core.repo.WidgetRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.nio.file.Path;
+
+/**
+ * Selects the {@link WidgetRepo} backend by the {@value #STORE_PROPERTY} property:
+ * <ul>
+ *     <li>{@code jpa} (default): JPA over the configured data source, batching the inserts and updates as by the
+ *     {@code spring.jpa.properties.hibernate.*} of {@code application.properties}</li>
+ *     <li>{@code memory}: {@link InMemoryWidgetRepo}, also enabled by the {@code memory} profile</li>
+ *     <li>{@code file}: {@link FileWidgetRepo} in the {@code widgetapp.file.directory}, also enabled by the
+ *     {@code file} profile</li>
+ * </ul>
+ * Along with the {@value #STORE_SCHEDULER} on which the reactive API calls the store: a bounded pool of threads meant
+ * to block for JPA and for the log of the file store, the calling thread for the in-memory store, which never waits
+ * for I/O. The snapshots of the file store that have failed are counted by the
+ * {@value #SNAPSHOT_FAILURES} metric.
+ */
 @Configuration
-@EnableJpaRepositories(basePackageClasses = WidgetAppCoreConfiguration.class)
-@EntityScan(basePackageClasses = WidgetAppCoreConfiguration.class)
 public class WidgetAppServerPersistenceConfiguration {
+    public static final String STORE_PROPERTY = "widgetapp.store";
+    public static final String STORE_SCHEDULER = "storeScheduler";
+    static final String SNAPSHOT_FAILURES = "widgetapp.file.snapshot.failures";
+
+    @Configuration
+    @ConditionalOnProperty(name = STORE_PROPERTY, havingValue = "jpa", matchIfMissing = true)
+    @EnableJpaRepositories(basePackageClasses = WidgetAppCoreConfiguration.class)
+    @EntityScan(basePackageClasses = WidgetAppCoreConfiguration.class)
+    static class JpaStore {
+        @Bean(STORE_SCHEDULER)
+        public Scheduler storeScheduler() {
+            return Schedulers.boundedElastic();
+        }
+    }
+
+    @Configuration
+    @ConditionalOnProperty(name = STORE_PROPERTY, havingValue = "memory")
+    static class InMemoryStore {
+        @Bean
+        public WidgetRepo widgetRepo() {
+            return new InMemoryWidgetRepo();
+        }
+
+        @Bean(STORE_SCHEDULER)
+        public Scheduler storeScheduler() {
+            return Schedulers.immediate();
+        }
+    }
+
+    @Configuration
+    @ConditionalOnProperty(name = STORE_PROPERTY, havingValue = "file")
+    static class FileStore {
+        @Bean
+        public FileWidgetRepo widgetRepo(@Value("${widgetapp.file.directory:data}") Path directory,
+                                         @Value("${widgetapp.file.fsync:true}") boolean fsync,
+                                         @Value("${widgetapp.file.snapshot-every:100000}") long snapshotEvery) {
+            return new FileWidgetRepo(directory, fsync, snapshotEvery);
+        }
+
+        @Bean
+        public MeterBinder snapshotFailures(FileWidgetRepo widgetRepo) {
+            return registry -> FunctionCounter.builder(SNAPSHOT_FAILURES, widgetRepo, FileWidgetRepo::snapshotFailures)
+                    .description("The snapshots of the file store that have failed")
+                    .register(registry);
+        }
+
+        @Bean(STORE_SCHEDULER)
+        public Scheduler storeScheduler() {
+            return Schedulers.boundedElastic();
+        }
+    }
 }
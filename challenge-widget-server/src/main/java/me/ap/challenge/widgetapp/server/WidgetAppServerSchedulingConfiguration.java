@@ -0,0 +1,14 @@
+package me.ap.challenge.widgetapp.server;
+
+import me.ap.challenge.widgetapp.core.service.WidgetCompactor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Runs the scheduled maintenance of the boards, as the {@code Z} compaction of the sparse ones every
+ * {@code widgetapp.compaction.interval}, see {@link WidgetCompactor#compactSparseBoards()}.
+ */
+@Configuration
+@EnableScheduling
+public class WidgetAppServerSchedulingConfiguration {
+}
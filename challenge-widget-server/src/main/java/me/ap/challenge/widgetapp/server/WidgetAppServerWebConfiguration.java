@@ -3,9 +3,29 @@ package me.ap.challenge.widgetapp.server;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.server.api.WidgetSerializers;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetDto;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
 
 @Configuration
 public class WidgetAppServerWebConfiguration {
@@ -13,15 +33,81 @@ public class WidgetAppServerWebConfiguration {
      * Configure Jackson by applying the Spring defaults, and overriding the strictly necessary configuration.
      * <br/>
      * In particular, to allow for the usage of records as DTO, Jackson must be allowed to reflect and operate on fields.
+     * The Widgets, the bulk of the output, are written without reflection instead, see {@link WidgetSerializers}.
      *
      * @return the Jackson configuration bean
      */
     @Bean
     public Jackson2ObjectMapperBuilder customizeObjectMapper() {
-        return new Jackson2ObjectMapperBuilder()
+        return configure(new Jackson2ObjectMapperBuilder());
+    }
+
+    private static Jackson2ObjectMapperBuilder configure(Jackson2ObjectMapperBuilder builder) {
+        return builder
                 // allow reflective access to fields (for records)
                 .visibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
                 // cleanup output: do not emit null fields
-                .serializationInclusion(JsonInclude.Include.NON_NULL);
+                .serializationInclusion(JsonInclude.Include.NON_NULL)
+                .serializerByType(Widget.class, new WidgetSerializers.ModelSerializer())
+                .serializerByType(WidgetDto.class, new WidgetSerializers.DtoSerializer());
+    }
+
+    /**
+     * Serve and read Smile on request, configured as JSON is, on the servlet stack.
+     * <br/>
+     * Smile encodes numbers in binary, and every field name once per response: a listing is much smaller than its
+     * JSON, and parses without scanning text.
+     *
+     * @return the Smile converter, replacing the default one
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter() {
+        return new MappingJackson2SmileHttpMessageConverter(configure(Jackson2ObjectMapperBuilder.smile()).build());
+    }
+
+    /**
+     * Serve and read Smile on request, configured as JSON is, on the reactive stack.
+     * <br/>
+     * A Flux is encoded as one Smile array: the default encoder would join its values with the separators of a JSON
+     * array.
+     *
+     * @return the customizer replacing the default Smile codecs
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public CodecCustomizer smileCodecCustomizer() {
+        var smileMapper = configure(Jackson2ObjectMapperBuilder.smile()).build();
+        // the media type must be given, as the codecs otherwise default to the JSON ones
+        var smile = MediaType.valueOf(ApiPaths.APPLICATION_SMILE_VALUE);
+        return configurer -> {
+            configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smileMapper, smile) {
+                @Override
+                public Flux<DataBuffer> encode(Publisher<?> input,
+                                               DataBufferFactory bufferFactory,
+                                               ResolvableType elementType,
+                                               MimeType mimeType,
+                                               Map<String, Object> hints) {
+                    if (input instanceof Mono) {
+                        return super.encode(input, bufferFactory, elementType, mimeType, hints);
+                    }
+                    return super.encode(Flux.from(input).collectList(), bufferFactory,
+                            ResolvableType.forClassWithGenerics(List.class, elementType), mimeType, hints);
+                }
+            });
+            configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smileMapper, smile));
+        };
+    }
+
+    /**
+     * Serve the reactive stack on Netty, rather than on the servlet container also on the classpath, which Spring Boot
+     * would prefer.
+     *
+     * @return the reactive web server factory
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package me.ap.challenge.widgetapp.server;
+
+import lombok.RequiredArgsConstructor;
+import me.ap.challenge.widgetapp.core.service.WidgetCompactor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * The admin endpoint of the {@code Z} compaction of the boards, see {@link WidgetCompactor}, served by the actuator at
+ * {@code /actuator/compaction/{board}} when exposed: a {@code GET} reads the state of the compaction of the board, a
+ * {@code POST} starts it in the background, unless already running.
+ */
+@Component
+@Endpoint(id = WidgetCompactionEndpoint.ID)
+@RequiredArgsConstructor
+public class WidgetCompactionEndpoint {
+    public static final String ID = "compaction";
+
+    private final WidgetCompactor compactor;
+
+    @ReadOperation
+    public WidgetCompactor.Status status(@Selector long board) {
+        return compactor.getStatus(board);
+    }
+
+    @WriteOperation
+    public WidgetCompactor.Status compact(@Selector long board) {
+        return compactor.start(board);
+    }
+}
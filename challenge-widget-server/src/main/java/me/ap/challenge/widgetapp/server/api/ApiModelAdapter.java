@@ -1,53 +1,260 @@
 package me.ap.challenge.widgetapp.server.api;
 
 import lombok.AllArgsConstructor;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetBatchDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetBatchResultDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetChangeDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetDeltaDto;
 import me.ap.challenge.widgetapp.server.api.dto.WidgetDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetOperationDto;
 import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.service.WidgetChange;
+import me.ap.challenge.widgetapp.core.service.WidgetChangeFeed;
+import me.ap.challenge.widgetapp.core.service.WidgetOperation;
 import me.ap.challenge.widgetapp.core.service.WidgetService;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Component;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 /**
  * Adapts the web API DTOs to the internal model and services.
  * <p>
  * Uses delegation to implement an adapter to {@link WidgetService}.
+ * <p>
+ * The entity tag of a Widget is its board revision, see {@link WidgetService#findRevisionById(Long)}, and the one of
+ * the listings is the board version, see {@link WidgetService#getBoardVersion()}.
+ * <p>
+ * The listings are not mapped to DTOs: the Widgets of the model are serialized as their DTOs would be, see
+ * {@link WidgetSerializers}, so that no object is allocated per listed Widget besides the one read.
+ * <p>
+ * The single modifications are {@link WidgetService#submit submitted} to the service, to be grouped with the
+ * concurrent ones when enabled, and are available as futures too. Updates expecting a revision are applied on their
+ * own, as the revision is checked against the stored Widget.
+ * <p>
+ * The Spring bean adapts the service of the default board: see {@link #onBoard(long)} for the other ones.
  */
 @Component
 @AllArgsConstructor
 public class ApiModelAdapter {
     private final WidgetService widgetService;
 
+    /**
+     * Gets the adapter of the Widgets on the given board.
+     *
+     * @see WidgetService#onBoard(long)
+     */
+    public ApiModelAdapter onBoard(long board) {
+        return new ApiModelAdapter(widgetService.onBoard(board));
+    }
+
+    /**
+     * Gets the adapter of the Widgets on the given board, to read them.
+     *
+     * @see WidgetService#onBoardForReading(long)
+     */
+    public ApiModelAdapter onBoardForReading(long board) {
+        return new ApiModelAdapter(widgetService.onBoardForReading(board));
+    }
+
     public Optional<WidgetDto> findById(Long id) {
         return widgetService.findById(id).map(this::toDto);
     }
 
+    public Optional<Tagged<WidgetDto>> findTaggedById(Long id) {
+        return widgetService.findById(id).map(this::toTagged);
+    }
+
+    public Optional<String> findEtagById(Long id) {
+        return widgetService.findRevisionById(id).map(ApiModelAdapter::etag);
+    }
+
+    public String getBoardEtag() {
+        return widgetService.getBoardVersion();
+    }
+
+    /**
+     * Parses an {@code If-Match} header into the revision a Widget must still have.
+     *
+     * @param ifMatch the header value
+     * @return the revision, or empty if any revision matches; a tag that is not a revision yields one that no Widget
+     * has, as a weak one, which never matches strongly
+     * @throws IllegalArgumentException if more than one tag is given
+     */
+    public static Optional<Long> expectedRevision(String ifMatch) {
+        var tag = ifMatch.trim();
+        if (tag.equals("*")) {
+            return Optional.empty();
+        }
+        if (tag.contains(",")) {
+            throw new IllegalArgumentException("Only one entity tag is supported in If-Match, was " + ifMatch);
+        }
+
+        try {
+            return Optional.of(Long.parseLong(StringUtils.unwrap(tag, '"')));
+        } catch (NumberFormatException e) {
+            return Optional.of(-1L);
+        }
+    }
+
+    static String etag(Long revision) {
+        return String.valueOf(Optional.ofNullable(revision).orElse(0L));
+    }
+
     public WidgetDto getById(Long id) {
         return widgetService.findById(id).map(this::toDto).orElseThrow(
                 () -> new IllegalArgumentException(String.format("Widget(%d) does not exist", id))
         );
     }
 
-    public Collection<WidgetDto> getAll() {
-        return widgetService.getAll().stream().map(this::toDto).toList();
+    public Collection<Widget> getAll() {
+        return widgetService.getAll();
+    }
+
+    public List<Widget> getPage(Integer afterZ, Integer minZ, Integer maxZ, int limit) {
+        return widgetService.getPage(afterZ, minZ, maxZ, limit);
+    }
+
+    public List<Widget> getInViewport(int x1, int y1, int x2, int y2) {
+        return widgetService.getInViewport(x1, y1, x2, y2);
+    }
+
+    public void forEach(Consumer<? super Widget> action) {
+        widgetService.forEachInZOrder(action);
     }
 
     public WidgetDto create(WidgetDto widgetDto) {
-        return toDto(widgetService.create(toModel(widgetDto)));
+        return await(createAsync(widgetDto));
+    }
+
+    public CompletableFuture<WidgetDto> createAsync(WidgetDto widgetDto) {
+        return widgetService.submit(new WidgetOperation.Create(toModel(widgetDto))).thenApply(this::toDto);
+    }
+
+    public WidgetBatchResultDto apply(WidgetBatchDto batch) {
+        var result = widgetService.apply(batch.operations().stream().map(this::toModel).toList());
+        return new WidgetBatchResultDto(
+                result.widgets().stream().map(this::toDto).toList(),
+                result.deletedIds());
     }
 
     public void delete(Long id) {
-        widgetService.delete(id);
+        await(deleteAsync(id));
+    }
+
+    public CompletableFuture<Void> deleteAsync(Long id) {
+        return widgetService.submit(new WidgetOperation.Delete(id)).thenAccept(deleted -> {
+        });
     }
 
     public WidgetDto update(WidgetDto original, WidgetDto modified) {
+        return update(original, modified, null).body();
+    }
+
+    /**
+     * Updates a Widget, provided it still has the expected revision, and the version of the modified state if any.
+     *
+     * @see WidgetService#update(Widget, Widget, Long, Long)
+     */
+    public Tagged<WidgetDto> update(WidgetDto original, WidgetDto modified, Long expectedRevision) {
+        return await(updateAsync(original, modified, expectedRevision));
+    }
+
+    public CompletableFuture<Tagged<WidgetDto>> updateAsync(WidgetDto original, WidgetDto modified, Long expectedRevision) {
         // Make sure the id is not changed, otherwise a new entity could be created
         if (!original.id().equals(modified.id())) {
             throw new IllegalArgumentException("It is not allowed to modify the Widget id");
         }
 
-        return toDto(widgetService.update(toModel(original), toModel(modified)));
+        var updated = expectedRevision == null
+                ? widgetService.submit(new WidgetOperation.Update(toModel(modified), modified.version()))
+                : CompletableFuture.completedFuture(
+                widgetService.update(toModel(original), toModel(modified), expectedRevision, modified.version()));
+        return updated.thenApply(this::toTagged);
+    }
+
+    /**
+     * Updates a Widget by id, without reading it first: the expected revision is checked by the update instead.
+     *
+     * @see WidgetService#update(Widget, Widget, Long, Long)
+     */
+    public Tagged<WidgetDto> update(Long id, WidgetDto modified, Long expectedRevision) {
+        return update(WidgetDto.builder().id(id).build(), modified, expectedRevision);
+    }
+
+    public CompletableFuture<Tagged<WidgetDto>> updateAsync(Long id, WidgetDto modified, Long expectedRevision) {
+        return updateAsync(WidgetDto.builder().id(id).build(), modified, expectedRevision);
+    }
+
+    /**
+     * Waits for a modification, failing as it did.
+     */
+    private static <T> T await(CompletableFuture<T> modification) {
+        try {
+            return modification.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    Tagged<WidgetDto> toTagged(Widget widget) {
+        return new Tagged<>(toDto(widget), etag(widget.revision()));
+    }
+
+    public WidgetDeltaDto getChangesSince(long since) {
+        var delta = widgetService.getChangesSince(since);
+        return new WidgetDeltaDto(
+                delta.revision(),
+                delta.resync(),
+                delta.widgets().stream().map(this::toDto).toList(),
+                delta.deletedIds());
+    }
+
+    public WidgetChangeFeed.Subscription subscribe(int capacity, Runnable onAvailable) {
+        return widgetService.subscribe(capacity, onAvailable);
+    }
+
+    public List<WidgetChangeDto> drain(WidgetChangeFeed.Subscription subscription, long max) {
+        return subscription.drain(max).stream().map(this::toDto).toList();
+    }
+
+    WidgetChangeDto toDto(WidgetChange change) {
+        return switch (change) {
+            case WidgetChange.Created created -> WidgetChangeDto.builder()
+                    .type(WidgetChangeDto.Type.CREATED)
+                    .revision(created.revision())
+                    .widget(toDto(created.widget()))
+                    .build();
+            case WidgetChange.Updated updated -> WidgetChangeDto.builder()
+                    .type(WidgetChangeDto.Type.UPDATED)
+                    .revision(updated.revision())
+                    .widget(toDto(updated.widget()))
+                    .build();
+            case WidgetChange.Deleted deleted -> WidgetChangeDto.builder()
+                    .type(WidgetChangeDto.Type.DELETED)
+                    .revision(deleted.revision())
+                    .id(deleted.id())
+                    .build();
+            case WidgetChange.Shifted shifted -> WidgetChangeDto.builder()
+                    .type(WidgetChangeDto.Type.SHIFTED)
+                    .revision(shifted.revision())
+                    .fromZ(shifted.fromZ())
+                    .toZ(shifted.toZ())
+                    .by(shifted.by())
+                    .build();
+            case WidgetChange.Overflowed overflowed -> WidgetChangeDto.builder()
+                    .type(WidgetChangeDto.Type.OVERFLOWED)
+                    .revision(overflowed.revision())
+                    .build();
+        };
     }
 
     WidgetDto toDto(Widget widget) {
@@ -55,7 +262,33 @@ public class ApiModelAdapter {
                 widget.id(),
                 widget.width(),
                 widget.height(),
-                widget.z());
+                widget.z(),
+                widget.x(),
+                widget.y(),
+                widget.version());
+    }
+
+    WidgetOperation toModel(WidgetOperationDto operation) {
+        return switch (operation.op()) {
+            case CREATE -> {
+                var widget = Optional.ofNullable(operation.widget()).orElseThrow(
+                        () -> new IllegalArgumentException("A create operation requires a widget"));
+                if (operation.id() != null || widget.id() != null) {
+                    throw new IllegalArgumentException("It is not allowed to create a Widget with id: the id is autogenerated");
+                }
+                yield new WidgetOperation.Create(toModel(widget));
+            }
+            case UPDATE -> {
+                var widget = Optional.ofNullable(operation.widget()).orElseThrow(
+                        () -> new IllegalArgumentException("An update operation requires a widget"));
+                if (operation.id() == null || (widget.id() != null && !widget.id().equals(operation.id()))) {
+                    throw new IllegalArgumentException("An update operation requires the id, and does not allow to modify it");
+                }
+                yield new WidgetOperation.Update(toModel(widget.toBuilder().id(operation.id()).build()), widget.version());
+            }
+            case DELETE -> new WidgetOperation.Delete(Optional.ofNullable(operation.id()).orElseThrow(
+                    () -> new IllegalArgumentException("A delete operation requires the id")));
+        };
     }
 
     Widget toModel(WidgetDto widgetDto) {
@@ -63,6 +296,11 @@ public class ApiModelAdapter {
                 widgetDto.id(),
                 widgetDto.width(),
                 widgetDto.height(),
-                widgetDto.z());
+                widgetDto.z(),
+                widgetDto.x(),
+                widgetDto.y(),
+                null,
+                null,
+                null);
     }
 }
@@ -0,0 +1,164 @@
+package me.ap.challenge.widgetapp.server.api;
+
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.service.WidgetChangeFeed;
+import me.ap.challenge.widgetapp.server.WidgetAppServerPersistenceConfiguration;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetBatchDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetBatchResultDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetChangeDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetDeltaDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetDto;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The {@link ApiModelAdapter} for the reactive stack, returning {@link Mono}s and {@link Flux}es.
+ * <p>
+ * Every call is delegated on the store scheduler, see {@link WidgetAppServerPersistenceConfiguration}: a blocking store
+ * is called on threads meant to block, so that the event loop is never held up, while the in-memory store is called
+ * in place. The change feed is kept in memory, and is called in place by any store.
+ * <p>
+ * The single modifications are awaited without blocking, as they might be grouped with others, see
+ * {@link ApiModelAdapter#createAsync(WidgetDto)}.
+ */
+@Component
+public class ReactiveApiModelAdapter {
+    static final int EXPORT_CHUNK = 500;
+
+    private final ApiModelAdapter model;
+    private final Scheduler scheduler;
+
+    public ReactiveApiModelAdapter(ApiModelAdapter model,
+                                   @Qualifier(WidgetAppServerPersistenceConfiguration.STORE_SCHEDULER) Scheduler scheduler) {
+        this.model = model;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Gets the adapter of the Widgets on the given board, on the store scheduler: the service of a board not in memory
+     * is loaded from the store.
+     *
+     * @see ApiModelAdapter#onBoard(long)
+     */
+    public Mono<ReactiveApiModelAdapter> onBoard(long board) {
+        return call(() -> new ReactiveApiModelAdapter(model.onBoard(board), scheduler));
+    }
+
+    /**
+     * Gets the adapter of the Widgets on the given board to read them, on the store scheduler as
+     * {@link #onBoard(long)}.
+     *
+     * @see ApiModelAdapter#onBoardForReading(long)
+     */
+    public Mono<ReactiveApiModelAdapter> onBoardForReading(long board) {
+        return call(() -> new ReactiveApiModelAdapter(model.onBoardForReading(board), scheduler));
+    }
+
+    private <T> Mono<T> call(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(scheduler);
+    }
+
+    private <T> Mono<T> submit(Supplier<CompletableFuture<T>> modification) {
+        return Mono.fromFuture(modification).subscribeOn(scheduler);
+    }
+
+    private <T> Flux<T> callMany(Callable<? extends Collection<T>> call) {
+        return call(call).flatMapIterable(Function.identity());
+    }
+
+    public Mono<WidgetDto> findById(Long id) {
+        return call(() -> model.findById(id).orElse(null));
+    }
+
+    public Mono<Tagged<WidgetDto>> findTaggedById(Long id) {
+        return call(() -> model.findTaggedById(id).orElse(null));
+    }
+
+    public Mono<String> findEtagById(Long id) {
+        return call(() -> model.findEtagById(id).orElse(null));
+    }
+
+    /**
+     * Gets the entity tag of the listings in place, as it is known from memory.
+     */
+    public String getBoardEtag() {
+        return model.getBoardEtag();
+    }
+
+    public Mono<WidgetDto> getById(Long id) {
+        return call(() -> model.getById(id));
+    }
+
+    public Flux<Widget> getAll() {
+        return callMany(model::getAll);
+    }
+
+    public Flux<Widget> getPage(Integer afterZ, Integer minZ, Integer maxZ, int limit) {
+        return callMany(() -> model.getPage(afterZ, minZ, maxZ, limit));
+    }
+
+    public Flux<Widget> getInViewport(int x1, int y1, int x2, int y2) {
+        return callMany(() -> model.getInViewport(x1, y1, x2, y2));
+    }
+
+    /**
+     * Lists all Widgets in ascending {@code Z} order, loading a page of {@value #EXPORT_CHUNK} at a time as they are
+     * consumed.
+     * <p>
+     * Unlike {@link ApiModelAdapter#forEach(java.util.function.Consumer)} the pages are read in separate transactions:
+     * Widgets shifted while exporting might be skipped or listed twice.
+     */
+    public Flux<Widget> export() {
+        return call(() -> model.getPage(null, null, null, EXPORT_CHUNK))
+                .expand(page -> page.size() < EXPORT_CHUNK
+                        ? Mono.empty()
+                        : call(() -> model.getPage(page.get(page.size() - 1).z(), null, null, EXPORT_CHUNK)))
+                .flatMapIterable(Function.identity());
+    }
+
+    public Mono<WidgetDeltaDto> getChangesSince(long since) {
+        return call(() -> model.getChangesSince(since));
+    }
+
+    public WidgetChangeFeed.Subscription subscribe(int capacity, Runnable onAvailable) {
+        return model.subscribe(capacity, onAvailable);
+    }
+
+    public List<WidgetChangeDto> drain(WidgetChangeFeed.Subscription subscription, long max) {
+        return model.drain(subscription, max);
+    }
+
+    public Mono<WidgetDto> create(WidgetDto widgetDto) {
+        return submit(() -> model.createAsync(widgetDto));
+    }
+
+    public Mono<WidgetBatchResultDto> apply(WidgetBatchDto batch) {
+        return call(() -> model.apply(batch));
+    }
+
+    public Mono<Void> delete(Long id) {
+        return submit(() -> model.deleteAsync(id));
+    }
+
+    public Mono<WidgetDto> update(WidgetDto original, WidgetDto modified) {
+        return submit(() -> model.updateAsync(original, modified, null)).map(Tagged::body);
+    }
+
+    public Mono<Tagged<WidgetDto>> update(WidgetDto original, WidgetDto modified, Long expectedRevision) {
+        return submit(() -> model.updateAsync(original, modified, expectedRevision));
+    }
+
+    public Mono<Tagged<WidgetDto>> update(Long id, WidgetDto modified, Long expectedRevision) {
+        return submit(() -> model.updateAsync(id, modified, expectedRevision));
+    }
+}
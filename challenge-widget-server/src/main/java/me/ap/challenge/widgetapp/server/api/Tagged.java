@@ -0,0 +1,10 @@
+package me.ap.challenge.widgetapp.server.api;
+
+/**
+ * A DTO with the entity tag of its state, for conditional requests.
+ *
+ * @param body the DTO
+ * @param etag the entity tag, unquoted
+ */
+public record Tagged<T>(T body, String etag) {
+}
@@ -0,0 +1,94 @@
+package me.ap.challenge.widgetapp.server.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.server.WidgetAppServerWebConfiguration;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetDto;
+
+import java.io.IOException;
+
+/**
+ * Jackson serializers writing {@link WidgetDto}s, and {@link Widget}s as their DTOs would be, field by field to the
+ * {@link JsonGenerator}.
+ * <p>
+ * Listings serialize the Widgets read from the service as they are, without mapping each one to a DTO, nor reflecting
+ * on its fields. The field names are encoded once, and null fields are omitted, as the rest of the output is, see
+ * {@link WidgetAppServerWebConfiguration}. A field added to {@link WidgetDto} must be added here too.
+ */
+public final class WidgetSerializers {
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString WIDTH = new SerializedString("width");
+    private static final SerializableString HEIGHT = new SerializedString("height");
+    private static final SerializableString Z = new SerializedString("z");
+    private static final SerializableString X = new SerializedString("x");
+    private static final SerializableString Y = new SerializedString("y");
+    private static final SerializableString VERSION = new SerializedString("version");
+
+    private WidgetSerializers() {
+    }
+
+    /**
+     * Serializes a {@link Widget} of the model as its {@link WidgetDto}: its bookkeeping, as the revision, is left out.
+     */
+    public static class ModelSerializer extends StdSerializer<Widget> {
+        public ModelSerializer() {
+            super(Widget.class);
+        }
+
+        @Override
+        public void serialize(Widget widget, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject(widget);
+            write(generator, widget.id(), widget.width(), widget.height(), widget.z(), widget.x(), widget.y(),
+                    widget.version());
+            generator.writeEndObject();
+        }
+    }
+
+    public static class DtoSerializer extends StdSerializer<WidgetDto> {
+        public DtoSerializer() {
+            super(WidgetDto.class);
+        }
+
+        @Override
+        public void serialize(WidgetDto widget, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject(widget);
+            write(generator, widget.id(), widget.width(), widget.height(), widget.z(), widget.x(), widget.y(),
+                    widget.version());
+            generator.writeEndObject();
+        }
+    }
+
+    private static void write(JsonGenerator generator,
+                              Long id,
+                              Integer width,
+                              Integer height,
+                              Integer z,
+                              Integer x,
+                              Integer y,
+                              Long version) throws IOException {
+        if (id != null) {
+            generator.writeFieldName(ID);
+            generator.writeNumber(id.longValue());
+        }
+        write(generator, WIDTH, width);
+        write(generator, HEIGHT, height);
+        write(generator, Z, z);
+        write(generator, X, x);
+        write(generator, Y, y);
+        if (version != null) {
+            generator.writeFieldName(VERSION);
+            generator.writeNumber(version.longValue());
+        }
+    }
+
+    private static void write(JsonGenerator generator, SerializableString name, Integer value) throws IOException {
+        if (value != null) {
+            generator.writeFieldName(name);
+            generator.writeNumber(value.intValue());
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package me.ap.challenge.widgetapp.server.api.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.service.WidgetChangeFeed;
+import me.ap.challenge.widgetapp.server.ApiPaths;
+import me.ap.challenge.widgetapp.server.api.ApiModelAdapter;
+import me.ap.challenge.widgetapp.server.api.ReactiveApiModelAdapter;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetBatchDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetBatchResultDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetChangeDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetDeltaDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetDto;
+import me.ap.tools.jackson.deserialize.DeserializerForUpdating;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayInputStream;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static me.ap.challenge.widgetapp.server.ApiPaths.APPLICATION_SMILE_VALUE;
+import static me.ap.challenge.widgetapp.server.api.ApiModelAdapter.expectedRevision;
+import static me.ap.challenge.widgetapp.server.api.controller.WidgetController.CHANGES_SUBSCRIBED;
+import static me.ap.challenge.widgetapp.server.api.controller.WidgetController.isViewport;
+import static me.ap.challenge.widgetapp.server.api.controller.WidgetController.pageLimit;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
+
+/**
+ * The web API of {@link WidgetController}, served by the reactive stack without holding a thread per request.
+ * <p>
+ * Enabled with the reactive web application type, as by the {@code reactive} profile.
+ */
+@RestController
+@RequestMapping({ApiPaths.PATH_WIDGET, ApiPaths.PATH_BOARD_WIDGET})
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveWidgetController {
+    private final ReactiveApiModelAdapter model;
+    private final DeserializerForUpdating updater;
+    @Value("${widgetapp.changes.buffer:1000}")
+    private int changesBuffer;
+
+    private Mono<ReactiveApiModelAdapter> model(Long boardId) {
+        return boardId == null ? Mono.just(model) : model.onBoard(boardId);
+    }
+
+    private Mono<ReactiveApiModelAdapter> reader(Long boardId) {
+        return boardId == null ? Mono.just(model) : model.onBoardForReading(boardId);
+    }
+
+    @GetMapping(value = "{id}", produces = APPLICATION_JSON_VALUE)
+    @Operation(summary = "Get a Widget by id")
+    public Mono<ResponseEntity<WidgetDto>> getWidget(@PathVariable(required = false) Long boardId,
+                                                     @PathVariable Long id, ServerWebExchange exchange) {
+        return reader(boardId).flatMap(board -> getWidget(board, id, exchange));
+    }
+
+    private Mono<ResponseEntity<WidgetDto>> getWidget(ReactiveApiModelAdapter board, Long id,
+                                                      ServerWebExchange exchange) {
+        var widget = board.findTaggedById(id)
+                .switchIfEmpty(Mono.error(NoSuchElementException::new))
+                .map(WidgetController::tagged);
+        if (!exchange.getRequest().getHeaders().containsKey(HttpHeaders.IF_NONE_MATCH)) {
+            return widget;
+        }
+
+        // compare the revision alone first, so that an unmodified Widget is neither loaded nor serialized
+        return board.findEtagById(id)
+                .switchIfEmpty(Mono.error(NoSuchElementException::new))
+                .flatMap(etag -> exchange.checkNotModified(etag) ? Mono.empty() : widget);
+    }
+
+    @GetMapping(produces = {APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE})
+    @Operation(summary = "List all Widgets, a page of them in Z order, or the ones in a viewport")
+    public Mono<ResponseEntity<Flux<Widget>>> getAll(@PathVariable(required = false) Long boardId,
+                                                     @RequestParam(required = false) Integer afterZ,
+                                                     @RequestParam(required = false) Integer minZ,
+                                                     @RequestParam(required = false) Integer maxZ,
+                                                     @RequestParam(required = false) Integer limit,
+                                                     @RequestParam(required = false) Integer x1,
+                                                     @RequestParam(required = false) Integer y1,
+                                                     @RequestParam(required = false) Integer x2,
+                                                     @RequestParam(required = false) Integer y2) {
+        return reader(boardId).map(board -> getAll(board, afterZ, minZ, maxZ, limit, x1, y1, x2, y2));
+    }
+
+    private ResponseEntity<Flux<Widget>> getAll(ReactiveApiModelAdapter board, Integer afterZ, Integer minZ,
+                                                Integer maxZ, Integer limit, Integer x1, Integer y1, Integer x2,
+                                                Integer y2) {
+        boolean paged = afterZ != null || minZ != null || maxZ != null || limit != null;
+        // a matching If-None-Match is answered before the listing is subscribed to
+        var ok = ResponseEntity.ok().eTag(board.getBoardEtag());
+
+        if (isViewport(paged, x1, y1, x2, y2)) {
+            return ok.body(board.getInViewport(x1, y1, x2, y2));
+        }
+
+        if (!paged) {
+            return ok.body(board.getAll());
+        }
+
+        return ok.body(board.getPage(afterZ, minZ, maxZ, pageLimit(limit)));
+    }
+
+    @GetMapping(value = ApiPaths.SUBPATH_EXPORT, produces = {APPLICATION_NDJSON_VALUE, APPLICATION_SMILE_VALUE})
+    @Operation(summary = "Export all Widgets as newline delimited JSON, or as a Smile array, in Z order")
+    public Flux<Widget> export(@PathVariable(required = false) Long boardId) {
+        return reader(boardId).flatMapMany(ReactiveApiModelAdapter::export);
+    }
+
+    @GetMapping(value = ApiPaths.SUBPATH_CHANGES, params = "since", produces = {APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE})
+    @Operation(summary = "List the changes to the Widgets since a revision")
+    public Mono<WidgetDeltaDto> getChangesSince(@PathVariable(required = false) Long boardId,
+                                                @RequestParam long since) {
+        return reader(boardId).flatMap(board -> board.getChangesSince(since));
+    }
+
+    @GetMapping(value = ApiPaths.SUBPATH_CHANGES, produces = TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Stream the changes to the Widgets as server-sent events")
+    public Flux<ServerSentEvent<WidgetChangeDto>> changes(@PathVariable(required = false) Long boardId) {
+        return model(boardId).flatMapMany(board -> Flux.create(sink -> new ChangeStream(board, sink)));
+    }
+
+    /**
+     * Emits the changes of a subscription as they are requested, draining off the publishing thread.
+     */
+    private class ChangeStream {
+        private final ReactiveApiModelAdapter board;
+        private final FluxSink<ServerSentEvent<WidgetChangeDto>> sink;
+        private final Lock lock = new ReentrantLock();
+        private final WidgetChangeFeed.Subscription subscription;
+
+        ChangeStream(ReactiveApiModelAdapter board, FluxSink<ServerSentEvent<WidgetChangeDto>> sink) {
+            this.board = board;
+            this.sink = sink;
+            subscription = board.subscribe(changesBuffer, () -> Schedulers.parallel().schedule(this::drain));
+            sink.onDispose(subscription::close);
+            sink.next(ServerSentEvent.<WidgetChangeDto>builder().comment(CHANGES_SUBSCRIBED).build());
+            sink.onRequest(requested -> drain());
+        }
+
+        private void drain() {
+            lock.lock();
+            try {
+                long requested = sink.requestedFromDownstream();
+                var changes = board.drain(subscription, requested);
+                changes.forEach(change -> sink.next(ServerSentEvent.builder(change).build()));
+                if (subscription.isClosed() && changes.size() < requested) {
+                    // the board has been evicted: the client subscribes again
+                    sink.complete();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @PostMapping(consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    @Operation(summary = "Create a Widget")
+    public Mono<WidgetDto> create(@PathVariable(required = false) Long boardId,
+                                  @Valid @RequestBody WidgetDto widget) {
+        if (widget.id() != null) {
+            throw new IllegalArgumentException("It is not allowed to create a Widget with id: the id is autogenerated");
+        }
+
+        return model(boardId).flatMap(board -> board.create(widget));
+    }
+
+    @PostMapping(value = ApiPaths.SUBPATH_BATCH,
+            consumes = {APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE},
+            produces = {APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE})
+    @Operation(summary = "Create, update and delete Widgets all at once")
+    public Mono<WidgetBatchResultDto> batch(@PathVariable(required = false) Long boardId,
+                                            @Valid @RequestBody WidgetBatchDto batch) {
+        return model(boardId).flatMap(board -> board.apply(batch));
+    }
+
+    @DeleteMapping("{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    @Operation(summary = "Delete a Widget by id")
+    public Mono<Void> delete(@PathVariable(required = false) Long boardId,
+                             @PathVariable Long id) {
+        return model(boardId).flatMap(board -> board.delete(id));
+    }
+
+    @PutMapping(path = "{id}", consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.OK)
+    @Operation(summary = "Replace a Widget")
+    public Mono<ResponseEntity<WidgetDto>> replace(@PathVariable(required = false) Long boardId,
+                                                   @PathVariable Long id,
+                                                   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                                   @Valid @RequestBody WidgetDto updatedWidget) {
+        if (ifMatch != null) {
+            return model(boardId)
+                    .flatMap(board -> board.update(id, updatedWidget, expectedRevision(ifMatch).orElse(null)))
+                    .map(WidgetController::tagged);
+        }
+
+        return model(boardId)
+                .flatMap(board -> board.getById(id).flatMap(original -> board.update(original, updatedWidget, null)))
+                .map(WidgetController::tagged);
+    }
+
+    @PatchMapping(value = "{id}", consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.OK)
+    @Operation(summary = "Update a Widget")
+    public Mono<ResponseEntity<WidgetDto>> update(@PathVariable(required = false) Long boardId,
+                                                  @PathVariable Long id,
+                                                  @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                                  @RequestBody byte[] body) {
+        Long expectedRevision = Optional.ofNullable(ifMatch).flatMap(ApiModelAdapter::expectedRevision).orElse(null);
+        return model(boardId).flatMap(board -> board.getById(id).flatMap(original -> Mono
+                        .fromCallable(() -> updater.updateFromJson(original, new ByteArrayInputStream(body)))
+                        .flatMap(updated -> board.update(original, updated, expectedRevision))))
+                .map(WidgetController::tagged);
+    }
+}
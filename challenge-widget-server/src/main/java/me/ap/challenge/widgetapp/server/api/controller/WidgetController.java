@@ -1,47 +1,322 @@
 package me.ap.challenge.widgetapp.server.api.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
-import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import me.ap.challenge.widgetapp.core.model.Widget;
+import me.ap.challenge.widgetapp.core.service.WidgetChangeFeed;
 import me.ap.challenge.widgetapp.server.api.ApiModelAdapter;
+import me.ap.challenge.widgetapp.server.api.Tagged;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetBatchDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetBatchResultDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetDeltaDto;
 import me.ap.challenge.widgetapp.server.api.dto.WidgetDto;
 import me.ap.challenge.widgetapp.server.ApiPaths;
 import me.ap.tools.jackson.deserialize.DeserializerForUpdating;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import static me.ap.challenge.widgetapp.server.ApiPaths.APPLICATION_SMILE_VALUE;
+import static me.ap.challenge.widgetapp.server.api.ApiModelAdapter.expectedRevision;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
 
+/**
+ * The blocking web API, served by the servlet stack: see {@link ReactiveWidgetController} for the reactive one.
+ * <p>
+ * The listings and the batches are served in Smile too, if asked for: JSON stays the default.
+ * <p>
+ * Every Widget belongs to a board, with its own {@code Z} space: the API of a board is served under
+ * {@link ApiPaths#PATH_BOARD_WIDGET}, the one of the default board under {@link ApiPaths#PATH_WIDGET} as well.
+ */
 @RestController
-@RequestMapping(ApiPaths.PATH_WIDGET)
-@AllArgsConstructor
+@RequestMapping({ApiPaths.PATH_WIDGET, ApiPaths.PATH_BOARD_WIDGET})
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequiredArgsConstructor
 public class WidgetController {
+    static final int DEFAULT_PAGE_LIMIT = 100;
+    static final int MAX_PAGE_LIMIT = 1000;
+    static final int CHANGES_CHUNK = 100;
+    static final String CHANGES_SUBSCRIBED = "subscribed";
+
     private final ApiModelAdapter model;
     private final DeserializerForUpdating updater;
+    private final ObjectMapper objectMapper;
+    private final MappingJackson2SmileHttpMessageConverter smileConverter;
+    private final TaskExecutor applicationTaskExecutor;
+    @Value("${widgetapp.changes.buffer:1000}")
+    private int changesBuffer;
+
+    /**
+     * Gets the model of the given board, the default one if not given by the path.
+     */
+    private ApiModelAdapter model(Long boardId) {
+        return boardId == null ? model : model.onBoard(boardId);
+    }
+
+    /**
+     * Gets the model of the given board to read it, without keeping any state for a board without Widgets.
+     */
+    private ApiModelAdapter reader(Long boardId) {
+        return boardId == null ? model : model.onBoardForReading(boardId);
+    }
+
+    /**
+     * Tells if a listing is of the Widgets in a viewport, rather than all or a page of them.
+     *
+     * @throws IllegalArgumentException if the viewport is incomplete, or mixed with paging parameters
+     */
+    static boolean isViewport(boolean paged, Integer x1, Integer y1, Integer x2, Integer y2) {
+        if (x1 == null && y1 == null && x2 == null && y2 == null) {
+            return false;
+        }
+        if (paged || x1 == null || y1 == null || x2 == null || y2 == null) {
+            throw new IllegalArgumentException("A viewport requires all of x1, y1, x2 and y2, and cannot be paged");
+        }
+        return true;
+    }
+
+    /**
+     * Validates the limit of a page, applying the default one if missing.
+     *
+     * @throws IllegalArgumentException if the limit is out of range
+     */
+    static int pageLimit(Integer limit) {
+        int pageLimit = Optional.ofNullable(limit).orElse(DEFAULT_PAGE_LIMIT);
+        if (pageLimit < 1 || pageLimit > MAX_PAGE_LIMIT) {
+            throw new IllegalArgumentException(
+                    String.format("The limit must be between 1 and %d, was %d", MAX_PAGE_LIMIT, pageLimit));
+        }
+        return pageLimit;
+    }
 
     @GetMapping(value = "{id}", produces = APPLICATION_JSON_VALUE)
-    @Operation(summary = "Get a Widget by id")
+    @Operation(summary = "Get a Widget by id",
+            description = "The `ETag` is the revision of the Widget: with a matching `If-None-Match` the Widget is not "
+                    + "read, only its revision.")
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "Widget found"),
+            @ApiResponse(responseCode = "304", description = "The Widget is not modified"),
             @ApiResponse(responseCode = "400", description = "The id is not valid"),
             @ApiResponse(responseCode = "404", description = "The Widget is not found")
     })
-    public WidgetDto getWidget(@PathVariable Long id) {
-        return model.findById(id).orElseThrow(NoSuchElementException::new);
+    public WidgetDto getWidget(@PathVariable(required = false) Long boardId,
+                               @PathVariable Long id, WebRequest request) {
+        var board = reader(boardId);
+        // compare the revision alone first, so that an unmodified Widget is neither loaded nor serialized
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            if (request.checkNotModified(board.findEtagById(id).orElseThrow(NoSuchElementException::new))) {
+                return null;
+            }
+            return board.findById(id).orElseThrow(NoSuchElementException::new);
+        }
+
+        var widget = board.findTaggedById(id).orElseThrow(NoSuchElementException::new);
+        request.checkNotModified(widget.etag());
+        return widget.body();
     }
 
-    @ApiResponse(responseCode = "200", description = "All Widgets are listed")
-    @GetMapping(produces = APPLICATION_JSON_VALUE)
-    @Operation(summary = "List all Widgets")
-    public Collection<WidgetDto> getAll() {
-        return model.getAll();
+    @GetMapping(produces = {APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE})
+    @Operation(summary = "List all Widgets, a page of them in Z order, or the ones in a viewport",
+            description = "Without parameters all Widgets are listed. With any of `afterZ`, `minZ`, `maxZ` and `limit`, "
+                    + "a page of at most `limit` Widgets in ascending Z order is listed: the next page is the one after "
+                    + "the Z of the last listed Widget. With all of `x1`, `y1`, `x2` and `y2`, the Widgets intersecting "
+                    + "that viewport are listed in ascending Z order. The `ETag` is the version of the board: with a "
+                    + "matching `If-None-Match` no Widget is read.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "The Widgets are listed",
+                    content = @Content(array = @ArraySchema(schema = @Schema(implementation = WidgetDto.class)))),
+            @ApiResponse(responseCode = "304", description = "No Widget has been modified"),
+            @ApiResponse(responseCode = "400", description = "The parameters are not valid")
+    })
+    public Collection<Widget> getAll(@PathVariable(required = false) Long boardId,
+                                     @RequestParam(required = false) Integer afterZ,
+                                     @RequestParam(required = false) Integer minZ,
+                                     @RequestParam(required = false) Integer maxZ,
+                                     @RequestParam(required = false) Integer limit,
+                                     @RequestParam(required = false) Integer x1,
+                                     @RequestParam(required = false) Integer y1,
+                                     @RequestParam(required = false) Integer x2,
+                                     @RequestParam(required = false) Integer y2,
+                                     WebRequest request) {
+        var board = reader(boardId);
+        boolean paged = afterZ != null || minZ != null || maxZ != null || limit != null;
+        boolean viewport = isViewport(paged, x1, y1, x2, y2);
+        int pageLimit = paged ? pageLimit(limit) : 0;
+
+        if (request.checkNotModified(board.getBoardEtag())) {
+            return null;
+        }
+
+        if (viewport) {
+            return board.getInViewport(x1, y1, x2, y2);
+        }
+
+        if (!paged) {
+            return board.getAll();
+        }
+
+        return board.getPage(afterZ, minZ, maxZ, pageLimit);
+    }
+
+    @GetMapping(value = ApiPaths.SUBPATH_EXPORT, produces = {APPLICATION_NDJSON_VALUE, APPLICATION_SMILE_VALUE})
+    @Operation(summary = "Export all Widgets as newline delimited JSON, or as a Smile array, in Z order",
+            description = "The Widgets are streamed while they are read, one JSON object per line unless Smile is "
+                    + "preferred.")
+    @ApiResponse(responseCode = "200", description = "All Widgets are exported",
+            content = @Content(schema = @Schema(implementation = WidgetDto.class)))
+    public ResponseEntity<StreamingResponseBody> export(
+            @PathVariable(required = false) Long boardId,
+            @RequestHeader(value = HttpHeaders.ACCEPT, defaultValue = MediaType.ALL_VALUE) String accept) {
+        var board = reader(boardId);
+        if (prefersSmile(accept)) {
+            return export(board, smileConverter.getObjectMapper(), MediaType.valueOf(APPLICATION_SMILE_VALUE), true);
+        }
+        return export(board, objectMapper, MediaType.APPLICATION_NDJSON, false);
+    }
+
+    /**
+     * Tells whether the most specific accepted type of the export is Smile rather than newline delimited JSON, which
+     * is the default.
+     */
+    private static boolean prefersSmile(String accept) {
+        var smile = MediaType.valueOf(APPLICATION_SMILE_VALUE);
+        var accepted = MediaType.parseMediaTypes(accept);
+        MimeTypeUtils.sortBySpecificity(accepted);
+        return accepted.stream()
+                .filter(type -> type.includes(MediaType.APPLICATION_NDJSON) || type.includes(smile))
+                .findFirst()
+                .map(type -> !type.includes(MediaType.APPLICATION_NDJSON))
+                .orElse(false);
+    }
+
+    /**
+     * Streams all Widgets of a board, in ascending {@code Z} order, as an array or as root values one per line.
+     */
+    private ResponseEntity<StreamingResponseBody> export(ApiModelAdapter board, ObjectMapper mapper, MediaType mediaType, boolean array) {
+        // let the generator buffer fill up before writing to the response
+        var writer = mapper.writerFor(Widget.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = out -> {
+            try (var generator = mapper.createGenerator(out)) {
+                if (array) {
+                    generator.writeStartArray();
+                } else {
+                    generator.setRootValueSeparator(null);
+                }
+                board.forEach(widget -> {
+                    try {
+                        writer.writeValue(generator, widget);
+                        if (!array) {
+                            generator.writeRaw('\n');
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                if (array) {
+                    generator.writeEndArray();
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(mediaType).body(body);
+    }
+
+    @GetMapping(value = ApiPaths.SUBPATH_CHANGES, params = "since", produces = {APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE})
+    @Operation(summary = "List the changes to the Widgets since a revision",
+            description = "Lists the Widgets written since the given revision, including the ones shifted to make "
+                    + "space for others, and the ids of the ones deleted. The returned revision is the one to ask the "
+                    + "next changes since: a Widget might be listed again then. When `resync` is true the changes are "
+                    + "unknown, as the revision is too old: all Widgets must be read again, then the changes asked "
+                    + "since the returned revision. Start from revision 0.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "The changes are listed"),
+            @ApiResponse(responseCode = "400", description = "The revision is not valid")
+    })
+    public WidgetDeltaDto getChangesSince(@PathVariable(required = false) Long boardId,
+                                          @RequestParam long since) {
+        var board = reader(boardId);
+        return board.getChangesSince(since);
+    }
+
+    @GetMapping(value = ApiPaths.SUBPATH_CHANGES, produces = TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Stream the changes to the Widgets as server-sent events",
+            description = "A `subscribed` comment is sent once the changes are followed, then one JSON change per event. "
+                    + "A client not keeping up gets only the latest change of each Widget, or an `overflowed` change "
+                    + "when too many are pending: the Widgets must then be read again.")
+    @ApiResponse(responseCode = "200", description = "The changes are streamed")
+    public SseEmitter changes(@PathVariable(required = false) Long boardId) throws IOException {
+        var board = model(boardId);
+        return new ChangeStream(board).start();
+    }
+
+    /**
+     * Sends the changes of a subscription, on the application task executor so that writers are not held up.
+     */
+    @RequiredArgsConstructor
+    private class ChangeStream implements Runnable {
+        private final ApiModelAdapter board;
+        private final SseEmitter emitter = new SseEmitter();
+        private final Lock lock = new ReentrantLock();
+        private WidgetChangeFeed.Subscription subscription;
+
+        SseEmitter start() throws IOException {
+            subscription = board.subscribe(changesBuffer, () -> applicationTaskExecutor.execute(this));
+            emitter.onCompletion(subscription::close);
+            emitter.onTimeout(emitter::complete);
+            emitter.send(SseEmitter.event().comment(CHANGES_SUBSCRIBED));
+            return emitter;
+        }
+
+        @Override
+        public void run() {
+            lock.lock();
+            try {
+                for (var changes = board.drain(subscription, CHANGES_CHUNK);
+                     !changes.isEmpty();
+                     changes = board.drain(subscription, CHANGES_CHUNK)) {
+                    for (var change : changes) {
+                        emitter.send(change, MediaType.APPLICATION_JSON);
+                    }
+                }
+                if (subscription.isClosed()) {
+                    // the board has been evicted: the client subscribes again
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // the client is gone, the emitter completes
+                subscription.close();
+            } finally {
+                lock.unlock();
+            }
+        }
     }
 
     @PostMapping(consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
@@ -49,14 +324,36 @@ public class WidgetController {
     @Operation(summary = "Create a Widget")
     @ApiResponses({
             @ApiResponse(responseCode = "201", description = "Widget created"),
-            @ApiResponse(responseCode = "400", description = "The Widget properties are invalid")
+            @ApiResponse(responseCode = "400", description = "The Widget properties are invalid"),
+            @ApiResponse(responseCode = "409", description = "There is no free Z left where the Widget would go")
     })
-    public WidgetDto create(@Valid @RequestBody WidgetDto widget) {
+    public WidgetDto create(@PathVariable(required = false) Long boardId,
+                            @Valid @RequestBody WidgetDto widget) {
+        var board = model(boardId);
         if (widget.id() != null) {
             throw new IllegalArgumentException("It is not allowed to create a Widget with id: the id is autogenerated");
         }
 
-        return model.create(widget);
+        return board.create(widget);
+    }
+
+    @PostMapping(value = ApiPaths.SUBPATH_BATCH,
+            consumes = {APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE},
+            produces = {APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE})
+    @Operation(summary = "Create, update and delete Widgets all at once",
+            description = "The operations are applied in order, as if submitted one at a time. Either all or none are "
+                    + "applied: in a single transaction on the JPA store; on the memory and file stores, which are not "
+                    + "transactional, the batches of a board are applied one at a time, all their operations checked "
+                    + "before the first write, so that only an I/O error of the file store can apply part of a batch.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "All operations applied"),
+            @ApiResponse(responseCode = "400", description = "An operation is not valid"),
+            @ApiResponse(responseCode = "404", description = "A Widget to update does not exist")
+    })
+    public WidgetBatchResultDto batch(@PathVariable(required = false) Long boardId,
+                                      @Valid @RequestBody WidgetBatchDto batch) {
+        var board = model(boardId);
+        return board.apply(batch);
     }
 
     @DeleteMapping("{id}")
@@ -66,37 +363,57 @@ public class WidgetController {
             @ApiResponse(responseCode = "204", description = "Widget deleted or non existent"),
             @ApiResponse(responseCode = "400", description = "The id is not valid")
     })
-    public void delete(@PathVariable Long id) {
-        model.delete(id);
+    public void delete(@PathVariable(required = false) Long boardId,
+                       @PathVariable Long id) {
+        var board = model(boardId);
+        board.delete(id);
     }
 
     @PutMapping(path = "{id}", consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
     @ResponseStatus(HttpStatus.OK)
-    @Operation(summary = "Replace a Widget")
+    @Operation(summary = "Replace a Widget",
+            description = "With `If-Match` the Widget is replaced only if its revision matches, without reading it first.")
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "Widget replaced successfully"),
             @ApiResponse(responseCode = "400", description = "The id or the Widget are not valid"),
-            @ApiResponse(responseCode = "404", description = "The Widget does not exist")
+            @ApiResponse(responseCode = "404", description = "The Widget does not exist"),
+            @ApiResponse(responseCode = "412", description = "The Widget has been modified since the `If-Match` revision")
     })
-    public WidgetDto replace(@PathVariable Long id, @Valid @RequestBody WidgetDto updatedWidget) {
-        WidgetDto original = model.getById(id);
+    public ResponseEntity<WidgetDto> replace(@PathVariable(required = false) Long boardId,
+                                             @PathVariable Long id,
+                                             @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                             @Valid @RequestBody WidgetDto updatedWidget) {
+        var board = model(boardId);
+        if (ifMatch != null) {
+            return tagged(board.update(id, updatedWidget, expectedRevision(ifMatch).orElse(null)));
+        }
 
-         var ret = model.update(original, updatedWidget);
-         return ret;
+        return tagged(board.update(board.getById(id), updatedWidget, null));
     }
 
     @PatchMapping(value = "{id}", consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
     @ResponseStatus(HttpStatus.OK)
-    @Operation(summary = "Update a Widget")
+    @Operation(summary = "Update a Widget",
+            description = "With `If-Match` the Widget is updated only if its revision matches.")
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "Widget modified successfully"),
             @ApiResponse(responseCode = "400", description = "The id or the Widget are not valid"),
-            @ApiResponse(responseCode = "404", description = "The Widget does not exist")
+            @ApiResponse(responseCode = "404", description = "The Widget does not exist"),
+            @ApiResponse(responseCode = "412", description = "The Widget has been modified since the `If-Match` revision")
     })
-    public WidgetDto update(@PathVariable Long id, HttpServletRequest request) throws IOException {
-        WidgetDto original = model.getById(id);
+    public ResponseEntity<WidgetDto> update(@PathVariable(required = false) Long boardId,
+                                            @PathVariable Long id,
+                                            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                            HttpServletRequest request) throws IOException {
+        var board = model(boardId);
+        Long expectedRevision = Optional.ofNullable(ifMatch).flatMap(ApiModelAdapter::expectedRevision).orElse(null);
+        WidgetDto original = board.getById(id);
         WidgetDto updated = updater.updateFromJson(original, request.getInputStream());
 
-        return model.update(original, updated);
+        return tagged(board.update(original, updated, expectedRevision));
+    }
+
+    static ResponseEntity<WidgetDto> tagged(Tagged<WidgetDto> widget) {
+        return ResponseEntity.ok().eTag(widget.etag()).body(widget.body());
     }
 }
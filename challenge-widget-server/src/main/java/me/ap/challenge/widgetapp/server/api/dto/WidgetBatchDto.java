@@ -0,0 +1,16 @@
+package me.ap.challenge.widgetapp.server.api.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+/**
+ * A batch of {@link WidgetOperationDto}s, to be applied in order.
+ */
+public record WidgetBatchDto(
+        @NotNull @Size(max = MAX_OPERATIONS) List<@NotNull @Valid WidgetOperationDto> operations
+) {
+    public static final int MAX_OPERATIONS = 1000;
+}
@@ -0,0 +1,14 @@
+package me.ap.challenge.widgetapp.server.api.dto;
+
+import me.ap.challenge.widgetapp.core.service.WidgetBatchResult;
+
+import java.util.Collection;
+
+/**
+ * DTO for {@link WidgetBatchResult}.
+ */
+public record WidgetBatchResultDto(
+        Collection<WidgetDto> widgets,
+        Collection<Long> deleted
+) {
+}
@@ -0,0 +1,34 @@
+package me.ap.challenge.widgetapp.server.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Builder;
+import me.ap.challenge.widgetapp.core.service.WidgetChange;
+
+/**
+ * DTO for {@link WidgetChange}: only the properties of its type are set.
+ */
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record WidgetChangeDto(
+        Type type,
+        long revision,
+        WidgetDto widget,
+        Long id,
+        Integer fromZ,
+        Integer toZ,
+        Integer by
+) {
+    public enum Type {
+        @JsonProperty("created")
+        CREATED,
+        @JsonProperty("updated")
+        UPDATED,
+        @JsonProperty("deleted")
+        DELETED,
+        @JsonProperty("shifted")
+        SHIFTED,
+        @JsonProperty("overflowed")
+        OVERFLOWED
+    }
+}
@@ -0,0 +1,16 @@
+package me.ap.challenge.widgetapp.server.api.dto;
+
+import me.ap.challenge.widgetapp.core.service.WidgetDelta;
+
+import java.util.Collection;
+
+/**
+ * DTO for {@link WidgetDelta}.
+ */
+public record WidgetDeltaDto(
+        long revision,
+        boolean resync,
+        Collection<WidgetDto> widgets,
+        Collection<Long> deleted
+) {
+}
@@ -15,7 +15,10 @@ public record WidgetDto(
         Long id,
         @NotNull Integer width,
         @NotNull Integer height,
-        Integer z
+        Integer z,
+        Integer x,
+        Integer y,
+        Long version
 ) implements ToBuilderable<WidgetDto.WidgetDtoBuilder> {
     public static class WidgetDtoBuilder implements Buildable<WidgetDto> {
     }
@@ -0,0 +1,26 @@
+package me.ap.challenge.widgetapp.server.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+import lombok.Builder;
+import me.ap.challenge.widgetapp.core.service.WidgetOperation;
+
+/**
+ * DTO for {@link WidgetOperation}.
+ */
+@Builder
+public record WidgetOperationDto(
+        @NotNull Type op,
+        Long id,
+        @Valid WidgetDto widget
+) {
+    public enum Type {
+        @JsonProperty("create")
+        CREATE,
+        @JsonProperty("update")
+        UPDATE,
+        @JsonProperty("delete")
+        DELETE
+    }
+}
@@ -1,37 +1,54 @@
 package me.ap.challenge.widgetapp.server.api.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import me.ap.challenge.widgetapp.core.model.Widget;
 import me.ap.challenge.widgetapp.server.WidgetAppServerWebConfiguration;
 import me.ap.challenge.widgetapp.server.api.ApiModelAdapter;
+import me.ap.challenge.widgetapp.server.api.Tagged;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetBatchDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetBatchResultDto;
 import me.ap.challenge.widgetapp.server.api.dto.WidgetDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetOperationDto;
 import me.ap.tools.jackson.deserialize.DeserializerForUpdating;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.restdocs.AutoConfigureRestDocs;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.restdocs.operation.preprocess.OperationRequestPreprocessor;
 import org.springframework.restdocs.operation.preprocess.OperationResponsePreprocessor;
 import org.springframework.restdocs.operation.preprocess.Preprocessors;
 import org.springframework.restdocs.payload.FieldDescriptor;
+import org.springframework.restdocs.payload.JsonFieldType;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static me.ap.challenge.widgetapp.server.ApiPaths.PATH_WIDGET;
+import static me.ap.challenge.widgetapp.server.ApiPaths.PATH_WIDGET_BATCH;
+import static me.ap.challenge.widgetapp.server.ApiPaths.PATH_WIDGET_EXPORT;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
+import static org.springframework.restdocs.headers.HeaderDocumentation.headerWithName;
+import static org.springframework.restdocs.headers.HeaderDocumentation.requestHeaders;
+import static org.springframework.restdocs.headers.HeaderDocumentation.responseHeaders;
 import static org.springframework.restdocs.mockmvc.MockMvcRestDocumentation.document;
 import static org.springframework.restdocs.mockmvc.RestDocumentationRequestBuilders.*;
 import static org.springframework.restdocs.payload.PayloadDocumentation.*;
 import static org.springframework.restdocs.request.RequestDocumentation.parameterWithName;
 import static org.springframework.restdocs.request.RequestDocumentation.pathParameters;
+import static org.springframework.restdocs.request.RequestDocumentation.queryParameters;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -45,12 +62,17 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @ContextConfiguration(classes = {WidgetAppServerWebConfiguration.class, WidgetController.class})
 @AutoConfigureRestDocs(outputDir = "target/snippets")
 public class WidgetControllerDocumentationTest {
-    private final WidgetDto exampleWidget = WidgetDto.builder().id(1L).height(1).width(2).z(3).build();
+    private final WidgetDto exampleWidget = WidgetDto.builder().id(1L).height(1).width(2).z(3).x(4).y(5).build();
+    // listed as it is, without mapping it to a DTO, and serialized without its revision
+    private final Widget exampleModel = Widget.builder().id(1L).height(1).width(2).z(3).x(4).y(5).revision(6L).build();
     private final List<FieldDescriptor> widgetFieldsAll = List.of(
             fieldWithPath("id").description("Autogenerated id for the new Widget. Used everywhere in the API where a specific Widget is involved."),
             fieldWithPath("height").description("The Height of the widget."),
             fieldWithPath("width").description("The Width of the Widget."),
-            fieldWithPath("z").description("The vertical coordinate of the Widget. Unique among all widgets, changes when another widget is assigned the same `z`."));
+            fieldWithPath("z").description("The vertical coordinate of the Widget. Unique among all widgets, changes when another widget is assigned the same `z`."),
+            fieldWithPath("x").description("The horizontal coordinate of the Widget's bottom-left corner on the board."),
+            fieldWithPath("y").description("The depth coordinate of the Widget's bottom-left corner on the board."),
+            fieldWithPath("version").optional().type(JsonFieldType.NUMBER).description("The version of the Widget, increased by every write, shifts included. Sent back with an update, the update fails if the Widget has been written since."));
     private final OperationRequestPreprocessor requestPrettyPrint = Preprocessors.preprocessRequest(Preprocessors.prettyPrint());
     private final OperationResponsePreprocessor responsePrettyPrint = Preprocessors.preprocessResponse(Preprocessors.prettyPrint());
     @Autowired
@@ -62,31 +84,51 @@ public class WidgetControllerDocumentationTest {
 
     @Test
     void getByIdSucceeds() throws Exception {
-        when(model.findById(1L)).thenReturn(Optional.of(exampleWidget));
+        when(model.findTaggedById(1L)).thenReturn(Optional.of(new Tagged<>(exampleWidget, "7")));
 
         mockMvc.perform(get(PATH_WIDGET + "{id}", 1L))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"7\""))
                 .andExpect(content().json("""
                         {
                             "id": 1,
                             "height": 1,
                             "width": 2,
-                            "z": 3
+                            "z": 3,
+                            "x": 4,
+                            "y": 5
                         }"""))
                 .andDo(document("widget_get",
                         responsePrettyPrint,
                         responseFields(widgetFieldsAll),
+                        responseHeaders(headerWithName(HttpHeaders.ETAG).description("The revision of the Widget")),
                         pathParameters(parameterWithName("id").description("The id of the desired Widget"))));
 
-        verify(model).findById(1L);
+        verify(model).findTaggedById(1L);
+        verifyNoMoreInteractions(model);
+    }
+
+    @Test
+    void getByIdNotModified() throws Exception {
+        when(model.findEtagById(1L)).thenReturn(Optional.of("7"));
+
+        mockMvc.perform(get(PATH_WIDGET + "{id}", 1L).header(HttpHeaders.IF_NONE_MATCH, "\"7\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""))
+                .andDo(document("widget_get_not_modified",
+                        requestHeaders(headerWithName(HttpHeaders.IF_NONE_MATCH)
+                                .description("The `ETag` of the Widget already known")),
+                        pathParameters(parameterWithName("id").description("The id of the desired Widget"))));
+
+        verify(model).findEtagById(1L);
         verifyNoMoreInteractions(model);
     }
 
     @Test
     void getAll() throws Exception {
         when(model.getAll()).thenReturn(
-                List.of(exampleWidget, WidgetDto.builder().id(2L).height(11).width(22).z(33).build()));
+                List.of(exampleModel, Widget.builder().id(2L).height(11).width(22).z(33).build()));
 
         mockMvc.perform(get(PATH_WIDGET))
                 .andExpect(status().isOk())
@@ -108,10 +150,129 @@ public class WidgetControllerDocumentationTest {
                         responseFields(
                                 fieldWithPath("[]").description("The list of all widget known to the system"),
                                 fieldWithPath("[].*").description("Widget's fields. See the GET reference for more details."))));
+        verify(model).getBoardEtag();
         verify(model).getAll();
         verifyNoMoreInteractions(model);
     }
 
+    @Test
+    void getPage() throws Exception {
+        when(model.getPage(3, 0, 100, 2)).thenReturn(
+                List.of(Widget.builder().id(2L).height(11).width(22).z(33).build(),
+                        Widget.builder().id(3L).height(111).width(222).z(42).build()));
+
+        mockMvc.perform(get(PATH_WIDGET)
+                        .queryParam("afterZ", "3")
+                        .queryParam("minZ", "0")
+                        .queryParam("maxZ", "100")
+                        .queryParam("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().json("""
+                        [{
+                            "id":2,
+                            "width":22,
+                            "height":11,
+                            "z":33},
+                        {
+                            "id":3,
+                            "width":222,
+                            "height":111,
+                            "z":42}]
+                        """))
+                .andDo(document("widget_getPage",
+                        responsePrettyPrint,
+                        queryParameters(
+                                parameterWithName("afterZ").optional().description("Only list Widgets with a greater `z`: the `z` of the last Widget of the previous page."),
+                                parameterWithName("minZ").optional().description("Only list Widgets with `z` greater than or equal to this."),
+                                parameterWithName("maxZ").optional().description("Only list Widgets with `z` less than or equal to this."),
+                                parameterWithName("limit").optional().description("The maximum number of Widgets to list, between 1 and 1000. Defaults to 100.")),
+                        responseFields(
+                                fieldWithPath("[]").description("The page of Widgets, in ascending `z` order"),
+                                fieldWithPath("[].*").description("Widget's fields. See the GET reference for more details."))));
+        verify(model).getBoardEtag();
+        verify(model).getPage(3, 0, 100, 2);
+        verifyNoMoreInteractions(model);
+    }
+
+    @Test
+    void getPageDefaultsLimit() throws Exception {
+        mockMvc.perform(get(PATH_WIDGET).queryParam("afterZ", "3"))
+                .andExpect(status().isOk());
+
+        verify(model).getBoardEtag();
+        verify(model).getPage(3, null, null, WidgetController.DEFAULT_PAGE_LIMIT);
+        verifyNoMoreInteractions(model);
+    }
+
+    @Test
+    void getViewport() throws Exception {
+        when(model.getInViewport(0, 0, 10, 10)).thenReturn(
+                List.of(exampleModel, Widget.builder().id(2L).height(11).width(22).z(33).x(-5).y(-5).build()));
+
+        mockMvc.perform(get(PATH_WIDGET)
+                        .queryParam("x1", "0")
+                        .queryParam("y1", "0")
+                        .queryParam("x2", "10")
+                        .queryParam("y2", "10"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().json("""
+                        [{
+                            "id":1,
+                            "width":2,
+                            "height":1,
+                            "z":3,
+                            "x":4,
+                            "y":5},
+                        {
+                            "id":2,
+                            "width":22,
+                            "height":11,
+                            "z":33,
+                            "x":-5,
+                            "y":-5}]
+                        """))
+                .andDo(document("widget_getViewport",
+                        responsePrettyPrint,
+                        queryParameters(
+                                parameterWithName("x1").description("The horizontal coordinate of a corner of the viewport."),
+                                parameterWithName("y1").description("The depth coordinate of a corner of the viewport."),
+                                parameterWithName("x2").description("The horizontal coordinate of the opposite corner of the viewport."),
+                                parameterWithName("y2").description("The depth coordinate of the opposite corner of the viewport.")),
+                        responseFields(
+                                fieldWithPath("[]").description("The Widgets intersecting the viewport, borders included, in ascending `z` order"),
+                                fieldWithPath("[].*").description("Widget's fields. See the GET reference for more details."))));
+        verify(model).getBoardEtag();
+        verify(model).getInViewport(0, 0, 10, 10);
+        verifyNoMoreInteractions(model);
+    }
+
+    @Test
+    void export() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<Widget> action = invocation.getArgument(0);
+            action.accept(exampleModel);
+            action.accept(Widget.builder().id(2L).height(11).width(22).z(33).build());
+            return null;
+        }).when(model).forEach(any());
+
+        var result = mockMvc.perform(get(PATH_WIDGET_EXPORT))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("""
+                        {"id":1,"width":2,"height":1,"z":3,"x":4,"y":5}
+                        {"id":2,"width":22,"height":11,"z":33}
+                        """))
+                .andDo(document("widget_export"));
+        verify(model).forEach(any());
+        verifyNoMoreInteractions(model);
+    }
+
     @Test
     void createSucceeds() throws Exception {
         when(model.create(any())).thenReturn(exampleWidget);
@@ -122,14 +283,18 @@ public class WidgetControllerDocumentationTest {
                                 {
                                     "height": 1,
                                     "width": 2,
-                                    "z": 3
+                                    "z": 3,
+                                    "x": 4,
+                                    "y": 5
                                 }"""))
                 .andDo(document("widget_post",
                         requestPrettyPrint,
                         requestFields(
                                 fieldWithPath("height").description("The desired height of the Widget, must be a positive integer."),
                                 fieldWithPath("width").description("The desired width of the Widget, must be a positive integer. "),
-                                fieldWithPath("z").description("The desired vertical coordinate of the Widget. Unique among all widgets, changes when another widget is assigned the same 'z'")
+                                fieldWithPath("z").description("The desired vertical coordinate of the Widget. Unique among all widgets, changes when another widget is assigned the same 'z'"),
+                                fieldWithPath("x").optional().description("The desired horizontal coordinate of the Widget's bottom-left corner. Defaults to 0."),
+                                fieldWithPath("y").optional().description("The desired depth coordinate of the Widget's bottom-left corner. Defaults to 0.")
                         )))
                 .andExpect(status().isCreated())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
@@ -138,7 +303,9 @@ public class WidgetControllerDocumentationTest {
                             "id": 1,
                             "height": 1,
                             "width": 2,
-                            "z": 3
+                            "z": 3,
+                            "x": 4,
+                            "y": 5
                         }"""))
                 .andDo(document("widget_post", responsePrettyPrint, responseFields(widgetFieldsAll)));
 
@@ -146,6 +313,57 @@ public class WidgetControllerDocumentationTest {
         verifyNoMoreInteractions(model);
     }
 
+    @Test
+    void batchSucceeds() throws Exception {
+        var batch = new WidgetBatchDto(List.of(
+                WidgetOperationDto.builder().op(WidgetOperationDto.Type.CREATE).widget(exampleWidget.toBuilder().id(null).build()).build(),
+                WidgetOperationDto.builder().op(WidgetOperationDto.Type.UPDATE).id(2L).widget(WidgetDto.builder().height(11).width(22).build()).build(),
+                WidgetOperationDto.builder().op(WidgetOperationDto.Type.DELETE).id(4L).build()));
+        when(model.apply(batch)).thenReturn(new WidgetBatchResultDto(
+                List.of(exampleWidget,
+                        WidgetDto.builder().id(2L).height(11).width(22).z(4).x(0).y(0).build(),
+                        WidgetDto.builder().id(3L).height(1).width(1).z(5).x(0).y(0).build()),
+                List.of(4L)));
+
+        mockMvc.perform(post(PATH_WIDGET_BATCH)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "operations": [
+                                        {"op": "create", "widget": {"height": 1, "width": 2, "z": 3, "x": 4, "y": 5}},
+                                        {"op": "update", "id": 2, "widget": {"height": 11, "width": 22}},
+                                        {"op": "delete", "id": 4}
+                                    ]
+                                }"""))
+                .andDo(document("widget_batch",
+                        requestPrettyPrint,
+                        requestFields(
+                                fieldWithPath("operations").description("The operations to apply, in order. At most 1000."),
+                                fieldWithPath("operations[].op").description("The operation: `create`, `update` or `delete`."),
+                                fieldWithPath("operations[].id").optional().description("The id of the Widget to `update` or `delete`. Not allowed for `create`."),
+                                subsectionWithPath("operations[].widget").optional().description("The desired state of the Widget to `create`, or the new one of the Widget to `update`, as in the single Widget requests. An `update` without `z` keeps the current one."))))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().json("""
+                        {
+                            "widgets": [
+                                {"id": 1, "height": 1, "width": 2, "z": 3, "x": 4, "y": 5},
+                                {"id": 2, "height": 11, "width": 22, "z": 4, "x": 0, "y": 0},
+                                {"id": 3, "height": 1, "width": 1, "z": 5, "x": 0, "y": 0}
+                            ],
+                            "deleted": [4]
+                        }"""))
+                .andDo(document("widget_batch",
+                        responsePrettyPrint,
+                        responseFields(
+                                fieldWithPath("widgets").description("The new state of every Widget created or modified by the batch, including the ones moved to make space for others."),
+                                fieldWithPath("widgets[].*").description("Widget's fields. See the GET reference for more details."),
+                                fieldWithPath("deleted").description("The ids of the Widgets deleted by the batch."))));
+
+        verify(model).apply(batch);
+        verifyNoMoreInteractions(model);
+    }
+
     @Test
     void deleteSucceeds() throws Exception {
         mockMvc.perform(delete(PATH_WIDGET + "{id}", 1L))
@@ -160,8 +378,9 @@ public class WidgetControllerDocumentationTest {
     @Test
     void replaceSucceeds() throws Exception {
         when(model.getById(1L)).thenReturn(exampleWidget);
-        var updatedWidget = WidgetDto.builder().height(11).width(22).z(33).build();
-        when(model.update(exampleWidget, updatedWidget)).thenReturn(updatedWidget.toBuilder().id(1L).build());
+        var updatedWidget = WidgetDto.builder().height(11).width(22).z(33).x(44).y(55).build();
+        when(model.update(exampleWidget, updatedWidget, null))
+                .thenReturn(new Tagged<>(updatedWidget.toBuilder().id(1L).build(), "8"));
 
         mockMvc.perform(put(PATH_WIDGET + "{id}", 1L)
                         .contentType(MediaType.APPLICATION_JSON)
@@ -169,13 +388,18 @@ public class WidgetControllerDocumentationTest {
                                 {
                                     "height": 11,
                                     "width": 22,
-                                    "z": 33
+                                    "z": 33,
+                                    "x": 44,
+                                    "y": 55
                                 }"""))
                 .andDo(document("widget_put", requestPrettyPrint,
                         requestFields(
                                 fieldWithPath("height").description("The new height of the Widget, must be a positive integer."),
                                 fieldWithPath("width").description("The new width of the Widget. Must be a positive integer. "),
-                                fieldWithPath("z").description("The new vertical coordinate of the Widget. Unique among all widgets, changes when another widget is assigned the same 'z'")),
+                                fieldWithPath("z").description("The new vertical coordinate of the Widget. Unique among all widgets, changes when another widget is assigned the same 'z'"),
+                                fieldWithPath("x").optional().description("The new horizontal coordinate of the Widget's bottom-left corner. Keeps the current one when missing."),
+                                fieldWithPath("y").optional().description("The new depth coordinate of the Widget's bottom-left corner. Keeps the current one when missing."),
+                                fieldWithPath("version").optional().type(JsonFieldType.NUMBER).description("The version of the Widget the replacement is based on. When given, the request fails with `409 Conflict` if the Widget has been written since.")),
                         pathParameters(parameterWithName("id").description("The id of the Widget to replace. Must exist."))))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
@@ -184,12 +408,14 @@ public class WidgetControllerDocumentationTest {
                             "id": 1,
                             "height": 11,
                             "width": 22,
-                            "z": 33
+                            "z": 33,
+                            "x": 44,
+                            "y": 55
                         }"""))
                 .andDo(document("widget_put", responsePrettyPrint, responseFields(widgetFieldsAll)));
 
         verify(model).getById(1L);
-        verify(model).update(exampleWidget, updatedWidget);
+        verify(model).update(exampleWidget, updatedWidget, null);
         verifyNoMoreInteractions(model);
     }
 
@@ -197,7 +423,7 @@ public class WidgetControllerDocumentationTest {
     void updateSucceeds() throws Exception {
         when(model.getById(1L)).thenReturn(exampleWidget);
         var updatedWidget = exampleWidget.toBuilder().height(1).width(22).z(3).build();
-        when(model.update(exampleWidget, updatedWidget)).thenReturn(updatedWidget);
+        when(model.update(exampleWidget, updatedWidget, null)).thenReturn(new Tagged<>(updatedWidget, "8"));
         when(deserializerForUpdating.updateFromJson(eq(exampleWidget), any(InputStream.class))).thenReturn(updatedWidget);
 
         mockMvc.perform(patch(PATH_WIDGET + "{id}", 1L)
@@ -216,12 +442,14 @@ public class WidgetControllerDocumentationTest {
                             "id": 1,
                             "height": 1,
                             "width": 22,
-                            "z": 3
+                            "z": 3,
+                            "x": 4,
+                            "y": 5
                         }"""))
                 .andDo(document("widget_patch", responsePrettyPrint, responseFields(widgetFieldsAll)));
 
         verify(model).getById(1L);
-        verify(model).update(exampleWidget, updatedWidget);
+        verify(model).update(exampleWidget, updatedWidget, null);
         verify(deserializerForUpdating).updateFromJson(eq(exampleWidget), any(InputStream.class));
     }
 }
@@ -0,0 +1,37 @@
+package me.ap.challenge.widgetapp.server.api.controller;
+
+import me.ap.challenge.widgetapp.core.repo.FileWidgetRepo;
+import me.ap.challenge.widgetapp.core.repo.WidgetRepo;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+/**
+ * Runs the {@link WidgetControllerSystemTest} against the file-backed {@link WidgetRepo}.
+ */
+@ActiveProfiles("file")
+@TestPropertySource(properties = "widgetapp.file.directory=target/widgets")
+class WidgetControllerFileSystemTest extends WidgetControllerSystemTest {
+    @Autowired
+    private WidgetRepo repo;
+    @Autowired
+    private WebTestClient api;
+
+    @Test
+    void usesFileRepo() {
+        assertInstanceOf(FileWidgetRepo.class, repo);
+    }
+
+    @Test
+    void snapshotFailuresAreExposed() {
+        api.get().uri("/actuator/metrics/widgetapp.file.snapshot.failures")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("measurements[0].value").isEqualTo(0.0);
+    }
+}
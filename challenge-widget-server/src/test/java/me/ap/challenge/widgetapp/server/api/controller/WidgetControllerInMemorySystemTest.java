@@ -0,0 +1,23 @@
+package me.ap.challenge.widgetapp.server.api.controller;
+
+import me.ap.challenge.widgetapp.core.repo.InMemoryWidgetRepo;
+import me.ap.challenge.widgetapp.core.repo.WidgetRepo;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+/**
+ * Runs the {@link WidgetControllerSystemTest} against the in-memory {@link WidgetRepo}.
+ */
+@ActiveProfiles("memory")
+class WidgetControllerInMemorySystemTest extends WidgetControllerSystemTest {
+    @Autowired
+    private WidgetRepo repo;
+
+    @Test
+    void usesInMemoryRepo() {
+        assertInstanceOf(InMemoryWidgetRepo.class, repo);
+    }
+}
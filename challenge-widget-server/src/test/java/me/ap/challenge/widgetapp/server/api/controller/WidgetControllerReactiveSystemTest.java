@@ -0,0 +1,24 @@
+package me.ap.challenge.widgetapp.server.api.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+/**
+ * Runs the {@link WidgetControllerSystemTest} against the {@link ReactiveWidgetController}.
+ */
+@ActiveProfiles("reactive")
+class WidgetControllerReactiveSystemTest extends WidgetControllerSystemTest {
+    @Autowired
+    private ApplicationContext context;
+
+    @Test
+    void usesReactiveController() {
+        assertInstanceOf(ReactiveWidgetController.class, context.getBean(ReactiveWidgetController.class));
+        assertEquals(0, context.getBeanNamesForType(WidgetController.class).length);
+    }
+}
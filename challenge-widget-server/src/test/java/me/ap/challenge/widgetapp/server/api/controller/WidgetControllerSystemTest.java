@@ -1,23 +1,42 @@
 package me.ap.challenge.widgetapp.server.api.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
 import me.ap.challenge.widgetapp.server.WidgetAppServer;
+import me.ap.challenge.widgetapp.core.model.Widget;
 import me.ap.challenge.widgetapp.server.api.ApiModelAdapter;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetChangeDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetDeltaDto;
+import me.ap.challenge.widgetapp.server.api.dto.WidgetBatchResultDto;
 import me.ap.challenge.widgetapp.server.api.dto.WidgetDto;
 import me.ap.challenge.widgetapp.core.WidgetAppCoreConfiguration;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static me.ap.challenge.widgetapp.server.ApiPaths.APPLICATION_SMILE_VALUE;
+import static me.ap.challenge.widgetapp.server.ApiPaths.PATH_BOARD_WIDGET;
 import static me.ap.challenge.widgetapp.server.ApiPaths.PATH_WIDGET;
+import static me.ap.challenge.widgetapp.server.ApiPaths.PATH_WIDGET_BATCH;
+import static me.ap.challenge.widgetapp.server.ApiPaths.PATH_WIDGET_CHANGES;
+import static me.ap.challenge.widgetapp.server.ApiPaths.PATH_WIDGET_EXPORT;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -26,6 +45,7 @@ import static org.junit.jupiter.api.Assertions.*;
         webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT
 )
 @AutoConfigureWebTestClient(timeout = "30000000") //avoid timeouts when debugging
+@AutoConfigureObservability(tracing = false) // export the metrics as in production
 class WidgetControllerSystemTest {
     private final WidgetDto widgetDto1 = WidgetDto.builder().width(1).height(2).z(3).build();
     @Autowired
@@ -36,7 +56,7 @@ class WidgetControllerSystemTest {
     @AfterEach
     void tearDown() {
         model.getAll().stream()
-                .map(WidgetDto::id)
+                .map(Widget::id)
                 .forEach(model::delete);
     }
 
@@ -70,6 +90,184 @@ class WidgetControllerSystemTest {
                         result.getResponseBody().stream().collect(Collectors.toUnmodifiableSet())));
     }
 
+    @Test
+    void getPages() {
+        Stream.of(5, 1, 4, 2, 3)
+                .map(z -> widgetDto1.toBuilder().z(z).build())
+                .forEach(model::create);
+
+        api.get().uri(PATH_WIDGET + "?limit=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(WidgetDto.class)
+                .consumeWith(result -> assertEquals(
+                        List.of(1, 2),
+                        result.getResponseBody().stream().map(WidgetDto::z).toList()));
+
+        api.get().uri(PATH_WIDGET + "?afterZ=2&limit=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(WidgetDto.class)
+                .consumeWith(result -> assertEquals(
+                        List.of(3, 4),
+                        result.getResponseBody().stream().map(WidgetDto::z).toList()));
+
+        api.get().uri(PATH_WIDGET + "?afterZ=2&maxZ=3")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(WidgetDto.class)
+                .consumeWith(result -> assertEquals(
+                        List.of(3),
+                        result.getResponseBody().stream().map(WidgetDto::z).toList()));
+    }
+
+    @Test
+    void getPageValidatesLimit() {
+        api.get().uri(PATH_WIDGET + "?limit=0")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("message").value(containsString("limit"));
+    }
+
+    @Test
+    void getViewport() {
+        var inside = model.create(widgetDto1.toBuilder().z(1).x(10).y(10).build());
+        var crossing = model.create(widgetDto1.toBuilder().z(2).x(-5).y(19).width(10).height(10).build());
+        model.create(widgetDto1.toBuilder().z(3).x(100).y(100).build());
+
+        api.get().uri(PATH_WIDGET + "?x1=0&y1=0&x2=20&y2=20")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(WidgetDto.class)
+                .isEqualTo(List.of(inside, crossing));
+    }
+
+    @Test
+    void getViewportValidatesParameters() {
+        api.get().uri(PATH_WIDGET + "?x1=0&y1=0&x2=20")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("message").value(containsString("viewport"));
+
+        api.get().uri(PATH_WIDGET + "?x1=0&y1=0&x2=20&y2=20&limit=2")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void export() {
+        var widgets = Stream.of(5, 1, 3)
+                .map(z -> widgetDto1.toBuilder().z(z).build())
+                .map(model::create)
+                .sorted(Comparator.comparing(WidgetDto::z))
+                .toList();
+
+        var exported = api.get().uri(PATH_WIDGET_EXPORT)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(WidgetDto.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertEquals(widgets, exported);
+    }
+
+    @Test
+    void smileOnRequest() throws Exception {
+        var widgets = Stream.of(5, 1, 3)
+                .map(z -> widgetDto1.toBuilder().z(z).build())
+                .map(model::create)
+                .sorted(Comparator.comparing(WidgetDto::z))
+                .toList();
+        ObjectMapper smile = new SmileMapper();
+
+        for (var uri : List.of(PATH_WIDGET + "?afterZ=0", PATH_WIDGET_EXPORT)) {
+            var listed = api.get().uri(uri)
+                    .accept(MediaType.valueOf(APPLICATION_SMILE_VALUE))
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectHeader().contentTypeCompatibleWith(APPLICATION_SMILE_VALUE)
+                    .expectBody(byte[].class)
+                    .returnResult()
+                    .getResponseBody();
+            assertEquals(widgets, List.of(smile.readValue(listed, WidgetDto[].class)), uri);
+        }
+
+        var batched = api.post().uri(PATH_WIDGET_BATCH)
+                .contentType(MediaType.valueOf(APPLICATION_SMILE_VALUE))
+                .accept(MediaType.valueOf(APPLICATION_SMILE_VALUE))
+                .bodyValue(smile.writeValueAsBytes(Map.of("operations", List.of(
+                        Map.of("op", "delete", "id", widgets.get(0).id())))))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+        assertEquals(List.of(widgets.get(0).id()), smile.readValue(batched, WidgetBatchResultDto.class).deleted());
+
+        // JSON stays the default
+        api.get().uri(PATH_WIDGET)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON);
+    }
+
+    @Test
+    void batch() {
+        var below = model.create(widgetDto1.toBuilder().z(1).build());
+        var above = model.create(widgetDto1.toBuilder().z(2).build());
+        var deleted = model.create(widgetDto1.toBuilder().z(5).build());
+
+        api.post().uri(PATH_WIDGET_BATCH)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("operations", List.of(
+                        Map.of("op", "create", "widget", Map.of("width", 7, "height", 8, "z", 1)),
+                        Map.of("op", "update", "id", above.id(), "widget", Map.of("width", 9, "height", 9)),
+                        Map.of("op", "delete", "id", deleted.id()))))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("widgets.length()").isEqualTo(3)
+                .jsonPath("deleted.length()").isEqualTo(1)
+                .jsonPath("deleted[0]").isEqualTo(deleted.id());
+
+        assertEquals(2, model.getById(below.id()).z());
+        assertEquals(widgetDto1.toBuilder().id(above.id()).width(9).height(9).z(3).x(0).y(0).version(1L).build(),
+                model.getById(above.id()));
+        assertTrue(model.findById(deleted.id()).isEmpty());
+        assertEquals(3, model.getAll().size());
+    }
+
+    @Test
+    void batchIsAllOrNothing() {
+        var widget = model.create(widgetDto1);
+
+        api.post().uri(PATH_WIDGET_BATCH)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("operations", List.of(
+                        Map.of("op", "delete", "id", widget.id()),
+                        Map.of("op", "update", "id", widget.id() + 1000, "widget", Map.of("width", 9, "height", 9)))))
+                .exchange()
+                .expectStatus().isNotFound();
+
+        assertTrue(model.findById(widget.id()).isPresent());
+    }
+
+    @Test
+    void batchValidates() {
+        api.post().uri(PATH_WIDGET_BATCH)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("operations", List.of(Map.of("op", "delete"))))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("message").value(containsString("id"));
+    }
+
     @Test
     void create() {
         var id = new AtomicReference<Long>();
@@ -151,6 +349,34 @@ class WidgetControllerSystemTest {
         assertEquals(original.z(), found.get().z());
     }
 
+    @Test
+    void putWithoutZKeepsIt() {
+        var original = model.create(widgetDto1);
+        var request = original.toBuilder().z(null).version(null).width(33).build();
+
+        api.put().uri(PATH_WIDGET + original.id())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("width").isEqualTo(33)
+                .jsonPath("z").isEqualTo(original.z());
+
+        var etag = api.get().uri(PATH_WIDGET + original.id())
+                .exchange()
+                .returnResult(WidgetDto.class).getResponseHeaders().getETag();
+        api.put().uri(PATH_WIDGET + original.id())
+                .header(HttpHeaders.IF_MATCH, etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request.toBuilder().width(44).build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("width").isEqualTo(44)
+                .jsonPath("z").isEqualTo(original.z());
+    }
+
     @Test
     void putValidates() {
         var original = model.create(widgetDto1);
@@ -192,4 +418,279 @@ class WidgetControllerSystemTest {
         assertEquals(original.height(), found.get().height());
         assertEquals(original.z(), found.get().z());
     }
-}
\ No newline at end of file
+
+    @Test
+    void getIsConditional() {
+        var widget = model.create(widgetDto1);
+
+        var etag = api.get().uri(PATH_WIDGET + widget.id())
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(WidgetDto.class).getResponseHeaders().getETag();
+        var listEtag = api.get().uri(PATH_WIDGET)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(WidgetDto.class).getResponseHeaders().getETag();
+        assertNotNull(etag);
+        assertNotNull(listEtag);
+
+        api.get().uri(PATH_WIDGET + widget.id())
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+        api.get().uri(PATH_WIDGET)
+                .header(HttpHeaders.IF_NONE_MATCH, listEtag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+
+        // shifted by the new Widget
+        model.create(widgetDto1);
+
+        api.get().uri(PATH_WIDGET + widget.id())
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value(HttpHeaders.ETAG, value -> assertNotEquals(etag, value))
+                .expectBody()
+                .jsonPath("z").isEqualTo(widget.z() + 1);
+        api.get().uri(PATH_WIDGET)
+                .header(HttpHeaders.IF_NONE_MATCH, listEtag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2);
+        api.get().uri(PATH_WIDGET + (widget.id() + 100))
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void putIsConditional() {
+        var original = model.create(widgetDto1);
+        var etag = api.get().uri(PATH_WIDGET + original.id())
+                .exchange()
+                .returnResult(WidgetDto.class).getResponseHeaders().getETag();
+
+        var updatedEtag = api.put().uri(PATH_WIDGET + original.id())
+                .header(HttpHeaders.IF_MATCH, etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(original.toBuilder().width(33).build())
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(WidgetDto.class).getResponseHeaders().getETag();
+        assertNotEquals(etag, updatedEtag);
+
+        api.put().uri(PATH_WIDGET + original.id())
+                .header(HttpHeaders.IF_MATCH, etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(original.toBuilder().width(44).build())
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        api.patch().uri(PATH_WIDGET + original.id())
+                .header(HttpHeaders.IF_MATCH, etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("width", 44))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        assertEquals(33, model.getById(original.id()).width());
+
+        api.patch().uri(PATH_WIDGET + original.id())
+                .header(HttpHeaders.IF_MATCH, updatedEtag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("width", 44))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("width").isEqualTo(44);
+    }
+
+    @Test
+    void staleVersionsConflict() {
+        var original = model.create(widgetDto1);
+        // shifted by the new Widget
+        model.create(widgetDto1);
+
+        api.put().uri(PATH_WIDGET + original.id())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(original.toBuilder().width(33).build())
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+        api.patch().uri(PATH_WIDGET + original.id())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("width", 33, "version", original.version()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+        assertEquals(original.z() + 1, model.getById(original.id()).z());
+
+        var current = model.getById(original.id());
+        api.put().uri(PATH_WIDGET + original.id())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(current.toBuilder().width(33).build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("width").isEqualTo(33)
+                .jsonPath("version").value(version -> assertTrue(((Number) version).longValue() > current.version()));
+    }
+
+    @Test
+    void metricsAreExposed() {
+        model.create(widgetDto1);
+        api.get().uri(PATH_WIDGET)
+                .exchange()
+                .expectStatus().isOk();
+
+        Stream.of("http.server.requests", "widgetapp.z.shifted", "widgetapp.z.span")
+                .forEach(metric -> api.get().uri("/actuator/metrics/" + metric)
+                        .exchange()
+                        .expectStatus().isOk());
+        api.get().uri("/actuator/metrics/widgetapp.widgets.created?tag=z:explicit")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("measurements[0].value").value(count -> assertTrue((Double) count >= 1));
+        api.get().uri("/actuator/metrics/widgetapp.widgets")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("measurements[0].value").isEqualTo(1.0);
+        api.get().uri("/actuator/prometheus")
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void compactionIsStartedByTheAdminEndpoint() throws InterruptedException {
+        Stream.of(100, 2000, 30000).map(z -> widgetDto1.toBuilder().z(z).build()).forEach(model::create);
+
+        api.post().uri("/actuator/compaction/0")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("board").isEqualTo(0);
+        for (int polls = 0; polls < 100; polls++) {
+            var running = api.get().uri("/actuator/compaction/0")
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody(Map.class)
+                    .returnResult().getResponseBody().get("running");
+            if (Boolean.FALSE.equals(running)) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+
+        assertEquals(List.of(10, 20, 30), model.getAll().stream().map(Widget::z).sorted().toList());
+        api.get().uri("/actuator/metrics/widgetapp.z.compaction.moved?tag=board:0")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("measurements[0].value").value(moved -> assertTrue((Double) moved >= 3));
+    }
+
+    @Test
+    void changesAreStreamed() {
+        var events = api.get().uri(PATH_WIDGET_CHANGES)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<WidgetChangeDto>>() {
+                })
+                .getResponseBody();
+
+        var first = model.create(widgetDto1);
+        var second = model.create(widgetDto1);
+
+        var changes = events.mapNotNull(ServerSentEvent::data)
+                .take(3)
+                .collectList()
+                .block(Duration.ofSeconds(10));
+        long revision = changes.get(0).revision();
+        assertEquals(List.of(
+                WidgetChangeDto.builder().type(WidgetChangeDto.Type.CREATED).revision(revision).widget(first).build(),
+                WidgetChangeDto.builder().type(WidgetChangeDto.Type.SHIFTED).revision(revision + 1)
+                        .fromZ(first.z()).toZ(first.z()).by(1).build(),
+                WidgetChangeDto.builder().type(WidgetChangeDto.Type.CREATED).revision(revision + 1)
+                        .widget(second).build()
+        ), changes);
+    }
+
+    @Test
+    void changesSinceARevision() {
+        var deleted = model.create(widgetDto1);
+        long revision = api.get().uri(PATH_WIDGET_CHANGES + "?since=0")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(WidgetDeltaDto.class)
+                .returnResult().getResponseBody().revision();
+
+        var created = model.create(widgetDto1.toBuilder().z(1).build());
+        model.delete(deleted.id());
+
+        api.get().uri(PATH_WIDGET_CHANGES + "?since=" + revision)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(WidgetDeltaDto.class)
+                .isEqualTo(new WidgetDeltaDto(revision + 2, false, List.of(created), List.of(deleted.id())));
+        api.get().uri(PATH_WIDGET_CHANGES + "?since=" + (revision + 3))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("resync").isEqualTo(true);
+        api.get().uri(PATH_WIDGET_CHANGES + "?since=-1")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void readingABoardWithoutWidgetsKeepsNoState() {
+        api.get().uri(PATH_BOARD_WIDGET, 42)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(WidgetDto.class)
+                .hasSize(0);
+        api.get().uri(PATH_BOARD_WIDGET + 1, 42)
+                .exchange()
+                .expectStatus().isNotFound();
+
+        api.get().uri("/actuator/metrics/widgetapp.widgets?tag=board:42")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void boardsHaveTheirOwnZSpace() {
+        var board = model.onBoard(7);
+        var onDefault = model.create(widgetDto1.toBuilder().z(1).build());
+        try {
+            var onBoard = api.post().uri(PATH_BOARD_WIDGET, 7)
+                    .bodyValue(widgetDto1.toBuilder().z(1).build())
+                    .exchange()
+                    .expectStatus().isCreated()
+                    .expectBody(WidgetDto.class)
+                    .returnResult().getResponseBody();
+
+            api.get().uri(PATH_BOARD_WIDGET, 7)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBodyList(WidgetDto.class)
+                    .isEqualTo(List.of(onBoard));
+            assertEquals(1, onBoard.z());
+            assertEquals(1, model.getById(onDefault.id()).z());
+
+            api.get().uri(PATH_BOARD_WIDGET + onDefault.id(), 7)
+                    .exchange()
+                    .expectStatus().isNotFound();
+            api.get().uri(PATH_WIDGET + onBoard.id())
+                    .exchange()
+                    .expectStatus().isNotFound();
+        } finally {
+            board.getAll().stream()
+                    .map(Widget::id)
+                    .forEach(board::delete);
+        }
+    }
+}